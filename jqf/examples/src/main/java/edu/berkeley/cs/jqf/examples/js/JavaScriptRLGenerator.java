@@ -2,8 +2,9 @@ package edu.berkeley.cs.jqf.examples.js;
 import edu.berkeley.cs.jqf.fuzz.rl.RLGenerator;
 import edu.berkeley.cs.jqf.fuzz.rl.RLGuide;
 import edu.berkeley.cs.jqf.fuzz.rl.RLParams;
+import edu.berkeley.cs.jqf.fuzz.rl.RLState;
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
 import java.util.*;
-import java.util.function.Function;
 
 
 
@@ -14,7 +15,13 @@ public class JavaScriptRLGenerator implements RLGenerator {
     private static final int MAX_IDENTIFIERS = 50;
     private static final int MAX_EXPRESSION_DEPTH = 7;
     private static final int MAX_STATEMENT_DEPTH = 4;
+    private int maxExpressionDepth = MAX_EXPRESSION_DEPTH;
+    private int maxStatementDepth = MAX_STATEMENT_DEPTH;
     private Set<String> identifiers;
+    /** The identifiers in the iteration order of the set, or null if it changed since. */
+    private List<Object> identifierList;
+    /** The identifiers in the order they were declared. */
+    private final List<String> declaredIdentifiers = new ArrayList<>();
     private int statementDepth;
     private int expressionDepth;
     private int stateSize;
@@ -22,6 +29,45 @@ public class JavaScriptRLGenerator implements RLGenerator {
     private int boolId;
     private int chrId;
     private int selectId;
+    private int identId;
+
+    /**
+     * Whether states are made of a bounded set of tokens. Otherwise, the
+     * state after a call node includes the code of the call, and the
+     * learner that selects identifiers sees them by name.
+     */
+    private boolean boundedStates;
+
+    /** State shared by the whole program; each method pops what it pushes. */
+    private RLState state;
+
+    /** Interned "unary=", "binary=" and "index=" tokens, by position. */
+    private int[] unaryTokens;
+    private int[] binaryTokens;
+    private int[] indexTokens;
+
+    /** With bounded states, the tokens of expression and statement nodes by depth bucket. */
+    private int[] expressionTokens;
+    private int[] statementTokens;
+    /** With bounded states, "func=" tokens by the kind of the called expression, and "args=" tokens. */
+    private int[] funcTokens;
+    private int[] argsTokens;
+
+    /** The kind of the last generated expression, as an index into EXPRESSION_KINDS. */
+    private int lastExpressionKind;
+
+    /** The program being generated; each method appends the code it generates. */
+    private final StringBuilder out = new StringBuilder();
+
+    /** Buffer for the names of tokens made from generated code. */
+    private final StringBuilder tokenName = new StringBuilder();
+
+    private final Runnable expression = this::generateExpression;
+    private final Runnable statement = this::generateStatement;
+    private final Runnable identNode = this::generateIdentNode;
+    private final Runnable objectProperty = this::generateObjectProperty;
+    private final Runnable caseNode = this::generateCaseNode;
+    private final Runnable character = () -> out.append((String) guide.select(state, chrId));
 
     /** Terminal action output */
     public static final String terminal = "END"; // Unused
@@ -48,6 +94,11 @@ public class JavaScriptRLGenerator implements RLGenerator {
             "unary", "binary", "ternary", "call", "function",
             "property", "index", "arrow"
     };
+    private static final String[] EXPRESSION_KINDS = {
+            "literal", "ident",
+            "unary", "binary", "ternary", "call", "function",
+            "property", "index", "arrow"
+    };
     private static final String[] UNARY_TOKENS = {
             "!", "++", "--", "~",
             "delete", "new", "typeof"
@@ -64,20 +115,44 @@ public class JavaScriptRLGenerator implements RLGenerator {
             "int", "boolean", "string", "undefined", "null", "this"
     };
 
+    private static final List<Object> STATEMENTS_1_LIST = Arrays.asList((Object[]) STATEMENTS_1);
+    private static final List<Object> STATEMENTS_2_LIST = Arrays.asList((Object[]) STATEMENTS_2);
+    private static final List<Object> EXPRESSIONS_1_LIST = Arrays.asList((Object[]) EXPRESSIONS_1);
+    private static final List<Object> EXPRESSIONS_2_LIST = Arrays.asList((Object[]) EXPRESSIONS_2);
+    private static final List<Object> UNARY_TOKENS_LIST = Arrays.asList((Object[]) UNARY_TOKENS);
+    private static final List<Object> BINARY_TOKENS_LIST = Arrays.asList((Object[]) BINARY_TOKENS);
+    private static final List<Object> LITERAL_TYPES_LIST = Arrays.asList((Object[]) LITERAL_TYPES);
+
+    /** The positions of declared identifiers, which are the actions of the identifier learner. */
+    private static final List<Object> IDENTIFIER_POSITIONS = Arrays.asList(RLGuide.range(0, MAX_IDENTIFIERS - 1));
+
+    /** The number of buckets that expression and statement depths are divided into. */
+    private static final int DEPTH_BUCKETS = 3;
+
+    /** IDENTIFIERS[c][n] is the name of the n-th new identifier starting with letter c. */
+    private static final String[][] IDENTIFIERS = new String[26][MAX_IDENTIFIERS];
+    static {
+        for (int c = 0; c < 26; c++) {
+            for (int n = 0; n < MAX_IDENTIFIERS; n++) {
+                IDENTIFIERS[c][n] = (char) ('A' + c) + "_" + n;
+            }
+        }
+    }
+
     public JavaScriptRLGenerator() {}
     /**
      * Parameter initialization function
      * @param params:
      *              int stateSize,
      *              int seed (optional)
+     *              String qTable (optional)
      *              double defaultEpsilon // TODO: per learner epsilon values
+     *              int maxExpressionDepth (optional)
+     *              int maxStatementDepth (optional)
+     *              String stateAbstraction (optional, "text" or "bounded")
      */
     public void init(RLParams params){
-        if (params.exists("seed")){
-            guide = new RLGuide((long) params.get("seed"));
-        } else {
-            guide = new RLGuide();
-        }
+        guide = new RLGuide(params);
         double e = (double) params.get("defaultEpsilon", true);
         List<Object> ints =  Arrays.asList(RLGuide.range(MIN_INT, MAX_INT+1));
         List<Object> bools = Arrays.asList(BOOLEANS);
@@ -86,11 +161,61 @@ public class JavaScriptRLGenerator implements RLGenerator {
             ascii.add(String.valueOf(c));
 
         this.stateSize = (int) params.get("stateSize", true);
+        if (params.exists("maxExpressionDepth")) {
+            this.maxExpressionDepth = (int) params.get("maxExpressionDepth");
+        }
+        if (params.exists("maxStatementDepth")) {
+            this.maxStatementDepth = (int) params.get("maxStatementDepth");
+        }
         this.selectId = guide.addLearner(null, e);
         this.intId = guide.addLearner(ints, e);
         this.boolId = guide.addLearner(bools, e);
         this.chrId = guide.addLearner(ascii, e);
+        if (params.exists("stateAbstraction")) {
+            String abstraction = (String) params.get("stateAbstraction");
+            switch (abstraction) {
+                case "text":
+                    break;
+                case "bounded":
+                    this.boundedStates = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown state abstraction: " + abstraction);
+            }
+        }
+        if (boundedStates) {
+            this.identId = guide.addLearner(IDENTIFIER_POSITIONS, e);
+        }
 
+        this.state = guide.newState(stateSize);
+        this.unaryTokens = new int[UNARY_TOKENS.length];
+        for (int i = 0; i < UNARY_TOKENS.length; i++) {
+            unaryTokens[i] = guide.token("unary=" + UNARY_TOKENS[i]);
+        }
+        this.binaryTokens = new int[BINARY_TOKENS.length];
+        for (int i = 0; i < BINARY_TOKENS.length; i++) {
+            binaryTokens[i] = guide.token("binary=" + BINARY_TOKENS[i]);
+        }
+        this.indexTokens = new int[Math.max(MAX_INT + 1, MAX_STR_LEN)];
+        for (int i = 0; i < indexTokens.length; i++) {
+            indexTokens[i] = guide.token("index=" + i);
+        }
+        if (boundedStates) {
+            this.expressionTokens = new int[DEPTH_BUCKETS];
+            this.statementTokens = new int[DEPTH_BUCKETS];
+            for (int i = 0; i < DEPTH_BUCKETS; i++) {
+                expressionTokens[i] = guide.token("node=expression,depth=" + i);
+                statementTokens[i] = guide.token("node=statement,depth=" + i);
+            }
+            this.funcTokens = new int[EXPRESSION_KINDS.length];
+            for (int i = 0; i < EXPRESSION_KINDS.length; i++) {
+                funcTokens[i] = guide.token("func=" + EXPRESSION_KINDS[i]);
+            }
+            this.argsTokens = new int[MAX_INT + 2]; // selectInt() returns 0 to MAX_INT + 1
+            for (int i = 0; i < argsTokens.length; i++) {
+                argsTokens[i] = guide.token("args=" + i);
+            }
+        }
     }
 
     /**
@@ -99,10 +224,14 @@ public class JavaScriptRLGenerator implements RLGenerator {
      */
     public String generate(){
         this.identifiers = new HashSet<>();
+        this.identifierList = null;
+        this.declaredIdentifiers.clear();
         this.statementDepth = 0;
         this.expressionDepth = 0;
-        String[] state = new String[stateSize];
-        return generateStatement(state);
+        state.clear();
+        out.setLength(0);
+        generateStatement();
+        return out.toString();
     }
 
     /**
@@ -113,386 +242,492 @@ public class JavaScriptRLGenerator implements RLGenerator {
         guide.update(r);
     }
 
+    /* Pushes a constant state token */
+    private void push(String token) {
+        state.push(guide.token(token));
+    }
 
-    private String generateExpression(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=expression");
+    /*
+     * Pushes a state token made of a prefix and the code generated since position start.
+     * Such tokens rarely recur, so they are pushed as codes rather than interned.
+     */
+    private void pushCode(String prefix, int start) {
+        tokenName.setLength(0);
+        tokenName.append(prefix).append(out, start, out.length());
+        state.pushCode(Hashing.hash64(tokenName));
+    }
+
+    /* Returns the bucket of a depth between 0 and max */
+    private static int depthBucket(int depth, int max) {
+        return Math.min(DEPTH_BUCKETS - 1, depth * DEPTH_BUCKETS / max);
+    }
+
+    private boolean selectBool() {
+        return (Boolean) guide.select(state, boolId);
+    }
+
+    private int selectInt() {
+        return (int) guide.select(state, intId);
+    }
+
+
+    private void generateExpression() {
+        int depth = state.depth();
+        if (boundedStates) {
+            state.push(expressionTokens[depthBucket(expressionDepth, maxExpressionDepth)]);
+        } else {
+            push("node=expression");
+        }
         expressionDepth++;
-        String result;
-        if (expressionDepth >= MAX_EXPRESSION_DEPTH || (Boolean) guide.select(stateArr, boolId)) {
-            String fn = (String) guide.select(
-                    Arrays.asList(EXPRESSIONS_1),
-                    stateArr,
-                    selectId
-            );
+        out.append('(');
+        int kind;
+        if (expressionDepth >= maxExpressionDepth || selectBool()) {
+            kind = guide.selectIndex(EXPRESSIONS_1_LIST, state, selectId);
+            String fn = EXPRESSIONS_1[kind];
             switch (fn){
                 case "literal":
-                    result = generateLiteralNode(stateArr);
+                    generateLiteralNode();
                     break;
                 case "ident":
-                    result = generateIdentNode(stateArr);
+                    generateIdentNode();
                     break;
                 default:
                     throw new Error(fn + " NOT FOUND");
             }
 
         } else {
-            String fn = (String) guide.select(
-                    Arrays.asList(EXPRESSIONS_2),
-                    stateArr,
-                    selectId
-            );
+            int idx = guide.selectIndex(EXPRESSIONS_2_LIST, state, selectId);
+            kind = EXPRESSIONS_1.length + idx;
+            String fn = EXPRESSIONS_2[idx];
             switch (fn) {
                 case "unary":
-                    result = generateUnaryNode(stateArr);
+                    generateUnaryNode();
                     break;
                 case "binary":
-                    result = generateBinaryNode(stateArr);
+                    generateBinaryNode();
                     break;
                 case "ternary":
-                    result = generateTernaryNode(stateArr);
+                    generateTernaryNode();
                     break;
                 case "call":
-                    result = generateCallNode(stateArr);
+                    generateCallNode();
                     break;
                 case "function":
-                    result = generateFunctionNode(stateArr);
+                    generateFunctionNode();
                     break;
                 case "property":
-                    result = generatePropertylNode(stateArr);
+                    generatePropertylNode();
                     break;
                 case "index":
-                    result = generateIndexNode(stateArr);
+                    generateIndexNode();
                     break;
                 case "arrow":
-                    result = generateArrowFunctionNode(stateArr);
+                    generateArrowFunctionNode();
                     break;
                 default:
                     throw new Error(fn + " NOT FOUND");
             }
         }
+        out.append(')');
+        lastExpressionKind = kind;
         expressionDepth--;
-        return "(" + result + ")";
+        state.popTo(depth);
     }
 
-    private String generateStatement(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=statement");
+    private void generateStatement() {
+        int depth = state.depth();
+        if (boundedStates) {
+            state.push(statementTokens[depthBucket(statementDepth, maxStatementDepth)]);
+        } else {
+            push("node=statement");
+        }
         statementDepth++;
-        String result;
-        if (statementDepth >= MAX_STATEMENT_DEPTH || (Boolean) guide.select(stateArr, boolId)) {
-            String fn = (String) guide.select(
-                    Arrays.asList(STATEMENTS_1),
-                    stateArr,
-                    selectId
-            );
+        if (statementDepth >= maxStatementDepth || selectBool()) {
+            String fn = (String) guide.select(STATEMENTS_1_LIST, state, selectId);
             switch (fn){
                 case "expression":
-                    result = generateExpression(stateArr);
+                    generateExpression();
                     break;
                 case "break":
-                    result = generateBreakNode(stateArr);
+                    generateBreakNode();
                     break;
                 case "continue":
-                    result = generateContinueNode(stateArr);
+                    generateContinueNode();
                     break;
                 case "return":
-                    result = generateReturnNode(stateArr);
+                    generateReturnNode();
                     break;
                 case "throw":
-                    result = generateThrowNode(stateArr);
+                    generateThrowNode();
                     break;
                 case "var":
-                    result = generateVarNode(stateArr);
+                    generateVarNode();
                     break;
                 case "empty":
-                    result = generateEmptyNode(stateArr);
+                    generateEmptyNode();
                     break;
                 default:
                     throw new Error(fn + " NOT FOUND");
 
             }
         } else {
-            String fn = (String) guide.select(
-                    Arrays.asList(STATEMENTS_2),
-                    stateArr,
-                    selectId
-            );
+            String fn = (String) guide.select(STATEMENTS_2_LIST, state, selectId);
             switch (fn) {
                 case "if":
-                    result = generateIfNode(stateArr);
+                    generateIfNode();
                     break;
                 case "for":
-                    result = generateForNode(stateArr);
+                    generateForNode();
                     break;
                 case "while":
-                    result = generateWhileNode(stateArr);
+                    generateWhileNode();
                     break;
                 case "namedfunc":
-                    result = generateNamedFunctionNode(stateArr);
+                    generateNamedFunctionNode();
                     break;
                 case "switch":
-                    result = generateSwitchNode(stateArr);
+                    generateSwitchNode();
                     break;
                 case "try":
-                    result = generateTryNode(stateArr);
+                    generateTryNode();
                     break;
                 case "block":
-                    result = generateBlock(stateArr);
+                    generateBlock();
                     break;
                 default:
                     throw new Error(fn + " NOT FOUND");
             }
         }
         statementDepth--;
-        return result;
+        state.popTo(depth);
     }
 
 
-    private String generateLiteralNode(String[] stateArr) {
-        String[] stateBool = updateState(stateArr, "node=literal");
-        if (expressionDepth < MAX_EXPRESSION_DEPTH && (Boolean) guide.select(stateBool, boolId)) {
-            stateBool = updateState(stateArr, "branch=1");
+    private void generateLiteralNode() {
+        push("node=literal");
+        boolean composite = expressionDepth < maxExpressionDepth && selectBool();
+        state.pop();
+        if (composite) {
+            push("branch=1");
             //TODO multiple expressions in brackets
-            int numArgs = (int) guide.select(stateBool, intId);
-            if ((Boolean) guide.select(stateBool, boolId)) {
-                return "[" + generateItems(this::generateExpression, stateArr, numArgs) + "]";
+            int numArgs = selectInt();
+            boolean array = selectBool();
+            state.pop();
+            // The items are written as a list, e.g. [[a, b]] and {[k: v]}
+            if (array) {
+                out.append("[[");
+                generateItems(expression, numArgs, ", ");
+                out.append("]]");
             } else {
-                return "{" + generateItems(this::generateObjectProperty, stateArr, numArgs) + "}";
+                out.append("{[");
+                generateItems(objectProperty, numArgs, ", ");
+                out.append("]}");
             }
         } else {
-            String type = (String) guide.select(
-                    Arrays.asList(LITERAL_TYPES),
-                    stateArr,
-                    selectId
-            );
+            String type = (String) guide.select(LITERAL_TYPES_LIST, state, selectId);
             switch (type){
                 case "int":
-                    return String.valueOf(guide.select(stateArr, intId));
+                    out.append((int) guide.select(state, intId));
+                    break;
                 case "boolean":
-                    return String.valueOf(guide.select(stateArr, boolId));
+                    out.append((boolean) guide.select(state, boolId));
+                    break;
                 case "string":
-                    Function<String[], String> genChr = s -> (String) guide.select(s, chrId);
-                    return String.join("", generateItems(genChr, stateArr, MAX_STR_LEN));
+                    generateItems(character, MAX_STR_LEN, "");
+                    break;
                 default:
-                    return type;
+                    out.append(type);
             }
         }
     }
-    
-    private String generateIdentNode(String[] stateArr) {
+
+    private void generateIdentNode() {
         String identifier;
-        stateArr = updateState(stateArr, "node=ident");
-        if (identifiers.isEmpty() || (identifiers.size() < MAX_IDENTIFIERS && (Boolean) guide.select(stateArr, boolId))) {
-            identifier = guide.select(stateArr, chrId) + "_" + identifiers.size();
+        push("node=ident");
+        if (identifiers.isEmpty() || (identifiers.size() < MAX_IDENTIFIERS && selectBool())) {
+            identifier = IDENTIFIERS[guide.selectIndex(state, chrId)][identifiers.size()];
             identifiers.add(identifier);
+            identifierList = null;
+            declaredIdentifiers.add(identifier);
+        } else if (boundedStates) {
+            List<Object> positions = IDENTIFIER_POSITIONS.subList(0, declaredIdentifiers.size());
+            identifier = declaredIdentifiers.get(guide.selectIndex(positions, state, identId));
         } else {
-            List<Object> identList = new ArrayList<>(identifiers);
-            identifier = (String) guide.select(identList, stateArr, selectId);
+            if (identifierList == null) {
+                identifierList = new ArrayList<>(identifiers);
+            }
+            identifier = (String) guide.select(identifierList, state, selectId);
         }
-        return identifier;
-    }
-
-    private String generateUnaryNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=unary");
-        String token = (String) guide.select(
-                Arrays.asList(UNARY_TOKENS),
-                stateArr,
-                selectId
-        );
-        stateArr = updateState(stateArr, "unary=" + token);
-        return token + " " + generateExpression(stateArr);
-    }
-
-    private String generateBinaryNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=binary");
-        String token = (String) guide.select(
-                Arrays.asList(BINARY_TOKENS),
-                stateArr,
-                selectId
-        );
-        stateArr = updateState(stateArr, "binary=" + token);
-        String lhs = generateExpression(stateArr);
-        String rhs = generateExpression(stateArr);
-        return lhs + " " + token + " " + rhs;
-    }
-
-    private String generateTernaryNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=ternary");
-        return generateExpression(stateArr) + " ? " + generateExpression(stateArr) +
-                " : " + generateExpression(stateArr);
-    }
-
-    private String generateCallNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=call");
-        String func = generateExpression(stateArr);
-
-        stateArr = updateState(stateArr, "func=" + func);
-        int numArgs = (int) guide.select(stateArr, intId);
-        String args = String.join(",", generateItems(this::generateExpression, stateArr, numArgs));
-
-        stateArr = updateState(stateArr, "args=" + args);
-        String call = func + "(" + args + ")";
-        if ((Boolean) guide.select(stateArr, boolId)) {
-            return call;
+        state.pop();
+        out.append(identifier);
+    }
+
+    private void generateUnaryNode() {
+        int depth = state.depth();
+        push("node=unary");
+        int tokenIdx = guide.selectIndex(UNARY_TOKENS_LIST, state, selectId);
+        state.push(unaryTokens[tokenIdx]);
+        out.append(UNARY_TOKENS[tokenIdx]).append(' ');
+        generateExpression();
+        state.popTo(depth);
+    }
+
+    private void generateBinaryNode() {
+        int depth = state.depth();
+        push("node=binary");
+        int tokenIdx = guide.selectIndex(BINARY_TOKENS_LIST, state, selectId);
+        state.push(binaryTokens[tokenIdx]);
+        generateExpression();
+        out.append(' ').append(BINARY_TOKENS[tokenIdx]).append(' ');
+        generateExpression();
+        state.popTo(depth);
+    }
+
+    private void generateTernaryNode() {
+        push("node=ternary");
+        generateExpression();
+        out.append(" ? ");
+        generateExpression();
+        out.append(" : ");
+        generateExpression();
+        state.pop();
+    }
+
+    private void generateCallNode() {
+        int depth = state.depth();
+        push("node=call");
+        int start = out.length();
+        generateExpression();
+
+        if (boundedStates) {
+            state.push(funcTokens[lastExpressionKind]);
         } else {
-            return "new" + call;
+            pushCode("func=", start);
         }
-    }
-
-    private String generateFunctionNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=function");
-        int numArgs = (int) guide.select(stateArr, intId);
-        return "function(" + String.join(", ", generateItems(this::generateIdentNode, stateArr, numArgs)) + ")"
-                + generateBlock(stateArr);
-    }
-
-    private String generatePropertylNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=property");
-        return generateExpression(stateArr) + "." + generateIdentNode(stateArr);
-    }
-
-    private String generateIndexNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=index");
-        return generateExpression(stateArr) + "[" + generateExpression(stateArr) + "]";
+        int numArgs = selectInt();
+        out.append('(');
+        int argsStart = out.length();
+        generateItems(expression, numArgs, ",");
 
+        if (boundedStates) {
+            state.push(argsTokens[numArgs]);
+        } else {
+            pushCode("args=", argsStart);
+        }
+        out.append(')');
+        boolean plain = selectBool();
+        state.popTo(depth);
+        if (!plain) {
+            out.insert(start, "new");
+        }
     }
 
-    private String generateArrowFunctionNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=arrow");
-        int numArgs = (int) guide.select(stateArr, intId);
-        String params = "(" + String.join(", ", generateItems(this::generateIdentNode, stateArr, numArgs)) + ")";
-        if ((Boolean) guide.select(stateArr, boolId)) {
-            return params + " => " + generateBlock(stateArr);
+    private void generateFunctionNode() {
+        push("node=function");
+        int numArgs = selectInt();
+        out.append("function(");
+        generateItems(identNode, numArgs, ", ");
+        out.append(')');
+        generateBlock();
+        state.pop();
+    }
+
+    private void generatePropertylNode() {
+        push("node=property");
+        generateExpression();
+        out.append('.');
+        generateIdentNode();
+        state.pop();
+    }
+
+    private void generateIndexNode() {
+        push("node=index");
+        generateExpression();
+        out.append('[');
+        generateExpression();
+        out.append(']');
+        state.pop();
+    }
+
+    private void generateArrowFunctionNode() {
+        push("node=arrow");
+        int numArgs = selectInt();
+        out.append('(');
+        generateItems(identNode, numArgs, ", ");
+        out.append(')');
+        out.append(" => ");
+        if (selectBool()) {
+            generateBlock();
         } else {
-            return params + " => " + generateExpression(stateArr);
+            generateExpression();
         }
+        state.pop();
     }
 
-    private String generateBlock(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=block");
-        int numArgs = (int) guide.select(stateArr, intId);
-        return "{ " + String.join(";", generateItems(this::generateStatement, stateArr, numArgs)) + " }";
-
+    private void generateBlock() {
+        push("node=block");
+        int numArgs = selectInt();
+        out.append("{ ");
+        generateItems(statement, numArgs, ";");
+        out.append(" }");
+        state.pop();
     }
 
-    private String generateBreakNode(String[] stateArr) {
-        return "break";
+    private void generateBreakNode() {
+        out.append("break");
     }
 
-    private String generateContinueNode(String[] stateArr) {
-        return "continue";
+    private void generateContinueNode() {
+        out.append("continue");
     }
 
-    private String generateReturnNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=return");
-        return (Boolean) guide.select(stateArr, boolId) ? "return" : "return " + generateExpression(stateArr);
+    private void generateReturnNode() {
+        push("node=return");
+        if (selectBool()) {
+            out.append("return");
+        } else {
+            out.append("return ");
+            generateExpression();
+        }
+        state.pop();
     }
 
-    private String generateThrowNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=throw");
-        return "throw " + generateExpression(stateArr);
+    private void generateThrowNode() {
+        push("node=throw");
+        out.append("throw ");
+        generateExpression();
+        state.pop();
     }
 
-    private String generateVarNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=var");
-        return "var " + generateIdentNode(stateArr);
+    private void generateVarNode() {
+        push("node=var");
+        out.append("var ");
+        generateIdentNode();
+        state.pop();
     }
 
-    private String generateEmptyNode(String[] stateArr) {
-        return "";
+    private void generateEmptyNode() {
     }
 
-    private String generateIfNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=if");
-        return "if (" +
-                generateExpression(stateArr) + ") " +
-                generateBlock(stateArr) +
-                ((Boolean) guide.select(stateArr, boolId) ? generateBlock(stateArr) : "");
+    private void generateIfNode() {
+        push("node=if");
+        out.append("if (");
+        generateExpression();
+        out.append(") ");
+        generateBlock();
+        if (selectBool()) {
+            generateBlock();
+        }
+        state.pop();
     }
 
-    private String generateForNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=for");
-        String s = "for(";
-        if ((Boolean) guide.select(stateArr, boolId)) {
-            stateArr = updateState(stateArr, "branch=1");
-            s += generateExpression(stateArr);
+    private void generateForNode() {
+        int depth = state.depth();
+        push("node=for");
+        out.append("for(");
+        if (selectBool()) {
+            push("branch=1");
+            generateExpression();
         }
-        s += ";";
-        if ((Boolean) guide.select(stateArr, boolId)) {
-            stateArr = updateState(stateArr, "branch=2");
-            s += generateExpression(stateArr);
+        out.append(';');
+        if (selectBool()) {
+            push("branch=2");
+            generateExpression();
         }
-        s += ";";
-        if ((Boolean) guide.select(stateArr, boolId)) {
-            stateArr = updateState(stateArr, "branch=3");
-            s += generateExpression(stateArr);
+        out.append(';');
+        if (selectBool()) {
+            push("branch=3");
+            generateExpression();
         }
-        s += ")";
-        s += generateBlock(stateArr);
-        return s;
+        out.append(')');
+        generateBlock();
+        state.popTo(depth);
     }
 
-    private String generateWhileNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=while");
-        return "while (" + generateExpression(stateArr) + ")" + generateBlock(stateArr);
+    private void generateWhileNode() {
+        push("node=while");
+        out.append("while (");
+        generateExpression();
+        out.append(')');
+        generateBlock();
+        state.pop();
 
     }
 
-    private String generateNamedFunctionNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=namedfunc");
-        int numArgs = (int) guide.select(stateArr, intId);
-        return "function " + generateIdentNode(stateArr) + "(" + String.join(", ", generateItems(this::generateIdentNode, stateArr, numArgs)) + ")" + generateBlock(stateArr);
+    private void generateNamedFunctionNode() {
+        push("node=namedfunc");
+        int numArgs = selectInt();
+        out.append("function ");
+        generateIdentNode();
+        out.append('(');
+        generateItems(identNode, numArgs, ", ");
+        out.append(')');
+        generateBlock();
+        state.pop();
     }
 
-    private String generateSwitchNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=switch");
-        int numArgs = (int) guide.select(stateArr, intId);
-        return "switch(" + generateExpression(stateArr) + ") {"
-                + String.join(" ", generateItems(this::generateCaseNode, stateArr, numArgs) + "}");
+    private void generateSwitchNode() {
+        push("node=switch");
+        int numArgs = selectInt();
+        out.append("switch(");
+        generateExpression();
+        // The cases are written as a list, e.g. {[case (a): { }, case (b): { }]}
+        out.append(") {[");
+        generateItems(caseNode, numArgs, ", ");
+        out.append("]}");
+        state.pop();
     }
 
-    private String generateTryNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=try");
-        return "try " + generateBlock(stateArr) + generateCatchNode(stateArr);
+    private void generateTryNode() {
+        push("node=try");
+        out.append("try ");
+        generateBlock();
+        generateCatchNode();
+        state.pop();
 
     }
 
-    private String generateCatchNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=catch");
-        return "catch (" + generateIdentNode(stateArr) + ") " +
-                generateBlock(stateArr);
+    private void generateCatchNode() {
+        push("node=catch");
+        out.append("catch (");
+        generateIdentNode();
+        out.append(") ");
+        generateBlock();
+        state.pop();
     }
 
 
 
-    private String generateObjectProperty(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=property");
-        return generateIdentNode(stateArr) + ": " + generateExpression(stateArr);
+    private void generateObjectProperty() {
+        push("node=property");
+        generateIdentNode();
+        out.append(": ");
+        generateExpression();
+        state.pop();
     }
 
 
-    private String generateCaseNode(String[] stateArr) {
-        stateArr = updateState(stateArr, "node=case");
-        return "case " + generateExpression(stateArr) + ": " +  generateBlock(stateArr);
+    private void generateCaseNode() {
+        push("node=case");
+        out.append("case ");
+        generateExpression();
+        out.append(": ");
+        generateBlock();
+        state.pop();
     }
 
 
-    private <T> List<T> generateItems(Function<String[], T> generator, String[] stateArr, int len) {
-        List<T> items = new ArrayList<>(len);
+    /* Generates len items, separated by separator; the i-th item sees index tokens 0 to i */
+    private void generateItems(Runnable generator, int len, String separator) {
+        int depth = state.depth();
         for (int i = 0; i < len; i++) {
-            stateArr = updateState(stateArr, "index=" + String.valueOf(i));
-            items.add(generator.apply(stateArr));
-        }
-        return items;
-    }
-    /* Update and return new state. Removes items if too long */
-    private String[] updateState(String[] stateArr, String stateX) {
-        String[] newState = new String[stateSize];
-        int end = stateSize - 1;
-        newState[end] = stateX;
-        for (int i = 0; i < end; i++) {
-            newState[i] = stateArr[i + 1];
+            state.push(indexTokens[i]);
+            if (i > 0) {
+                out.append(separator);
+            }
+            generator.run();
         }
-        return newState;
+        state.popTo(depth);
     }
 
 
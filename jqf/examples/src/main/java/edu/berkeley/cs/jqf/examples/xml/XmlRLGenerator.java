@@ -3,6 +3,7 @@ package edu.berkeley.cs.jqf.examples.xml;
 import edu.berkeley.cs.jqf.fuzz.rl.RLGenerator;
 import edu.berkeley.cs.jqf.fuzz.rl.RLGuide;
 import edu.berkeley.cs.jqf.fuzz.rl.RLParams;
+import edu.berkeley.cs.jqf.fuzz.rl.RLState;
 import org.junit.Assume;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -26,7 +27,7 @@ public class XmlRLGenerator implements RLGenerator {
     private RLGuide guide;
 
 
-    private static DocumentBuilderFactory documentBuilderFactory =
+    private DocumentBuilderFactory documentBuilderFactory =
             DocumentBuilderFactory.newInstance();
 
 
@@ -54,11 +55,26 @@ public class XmlRLGenerator implements RLGenerator {
 
 
     private int stateSize;
+    private List<Object> tags;
     private int boolId;
     private int textId;
     private int numcId;
     private int numaId;
 
+    /** State shared by the whole document; each method pops what it pushes. */
+    private RLState state;
+
+    /** Interned state tokens; tagTokens[i] and attrKeyTokens[i] correspond to tags[i]. */
+    private int[] tagTokens;
+    private int[] attrKeyTokens;
+    private int attrValToken;
+    private int textToken;
+    private int cdataToken;
+    private int childToken;
+
+    /** Writes documents directly as text, if not null; otherwise they are built as a DOM. */
+    private XmlStreamWriter writer;
+
     /* Need to initialize with parameters using init method after constructor is called. */
     public XmlRLGenerator() {}
 
@@ -68,23 +84,40 @@ public class XmlRLGenerator implements RLGenerator {
      *              stateSize,
      *              tags,
      *              numc,
-     *              defaultEpsilon
+     *              defaultEpsilon,
+     *              seed (optional),
+     *              qTable (optional),
+     *              streaming (optional, whether to write documents
+     *                  directly as text instead of building a DOM;
+     *                  the documents are the same)
      * */
     @Override
     public void init(RLParams params) {
-        if (params.exists("seed")){
-            guide = new RLGuide((long) params.get("seed"));
-        } else {
-            guide = new RLGuide();
-        }
+        guide = new RLGuide(params);
         double e = (double) params.get("defaultEpsilon", true);
-        List<Object> text = (List<Object>) params.get("tags", true);
+        this.tags = (List<Object>) params.get("tags", true);
 
         this.stateSize = (int) params.get("stateSize", true);
-        this.textId = guide.addLearner(text, e); // used to select tags, attributes, text, CDATA
+        this.textId = guide.addLearner(tags, e); // used to select tags, attributes, text, CDATA
         this.boolId = guide.addLearner(BOOLEANS, e); // used for all booleans
         this.numcId = guide.addLearner(NUM_C, e); // num children
         this.numaId = guide.addLearner(NUM_A, e); // num attributes
+
+        this.state = guide.newState(stateSize);
+        this.tagTokens = new int[tags.size()];
+        this.attrKeyTokens = new int[tags.size()];
+        for (int i = 0; i < tags.size(); i++) {
+            tagTokens[i] = guide.token("tag=" + tags.get(i));
+            attrKeyTokens[i] = guide.token("attrKey=" + tags.get(i));
+        }
+        this.attrValToken = guide.token("attrVal");
+        this.textToken = guide.token("text");
+        this.cdataToken = guide.token("CDATA");
+        this.childToken = guide.token("child");
+
+        if (params.exists("streaming") && (boolean) params.get("streaming")) {
+            this.writer = new XmlStreamWriter(tags);
+        }
     }
 
     /**
@@ -93,6 +126,10 @@ public class XmlRLGenerator implements RLGenerator {
      */
     @Override
     public String generate() {
+        if (writer != null) {
+            return writeDocument();
+        }
+
         DocumentBuilder builder;
         try {
             builder = documentBuilderFactory.newDocumentBuilder();
@@ -118,8 +155,8 @@ public class XmlRLGenerator implements RLGenerator {
 
 
     private Document populateDocument(Document document) {
-        String[] stateArr = new String[stateSize];
-        Element root = generateXmlTree(stateArr, document, 0);
+        state.clear();
+        Element root = generateXmlTree(document, 0);
         if (root != null) {
             document.appendChild(root);
         }
@@ -127,56 +164,108 @@ public class XmlRLGenerator implements RLGenerator {
     }
 
     /** Recursively generate XML */
-    private Element generateXmlTree(String[] stateArr, Document document, int depth) {
-        String rootTag = (String) guide.select(stateArr, textId);
+    private Element generateXmlTree(Document document, int depth) {
+        int tagIdx = guide.selectIndex(state, textId);
+        String rootTag = (String) tags.get(tagIdx);
 
         Element root = document.createElement(rootTag);
-        stateArr = updateState(stateArr, "tag=" + rootTag);
+        state.push(tagTokens[tagIdx]);
 
         // Add attributes
-        int numAttributes = (Integer) guide.select(stateArr, numaId);
+        int numAttributes = (Integer) guide.select(state, numaId);
         for (int i = 0; i < numAttributes; i++) {
-            String [] attrState = updateState(stateArr, "attrVal");
-            String attrKey = (String) guide.select(attrState, textId);
-            attrState = updateState(stateArr, "attrKey="+attrKey);
-            String attrValue = (String) guide.select(attrState, textId);
-            root.setAttribute(attrKey, attrValue);
+            state.push(attrValToken);
+            int attrKeyIdx = guide.selectIndex(state, textId);
+            state.pop();
+            state.push(attrKeyTokens[attrKeyIdx]);
+            String attrValue = (String) guide.select(state, textId);
+            state.pop();
+            root.setAttribute((String) tags.get(attrKeyIdx), attrValue);
         }
         // Make children recursively or text or CDATA
-        String[] textState = updateState(stateArr, "text");
-        String[] CDATAState = updateState(stateArr, "CDATA");
-        String[] childState = updateState(stateArr, "child");
         String textVal = null;
-        if (depth < minDepth ||
-                (depth < maxDepth && (boolean) guide.select(childState, boolId))) {
-            int numChildren = (Integer) guide.select(stateArr, numcId);
+        if (depth < minDepth || (depth < maxDepth && selectBool(childToken))) {
+            int numChildren = (Integer) guide.select(state, numcId);
             for (int i = 0; i < numChildren; i++) {
-                Element child = generateXmlTree(stateArr, document, depth + 1);
+                Element child = generateXmlTree(document, depth + 1);
                 if (child != null) {
                     root.appendChild(child);
                 }
             }
-        } else if ((boolean) guide.select(textState, boolId)) {
-            textVal = (String) guide.select(textState, textId);
+        } else if (selectBool(textToken)) {
+            state.push(textToken);
+            textVal = (String) guide.select(state, textId);
+            state.pop();
             Text text = document.createTextNode(textVal);
             root.appendChild(text);
-        } else if ((boolean) guide.select(CDATAState, boolId)){
-            textVal = (String) guide.select(CDATAState, textId);
+        } else if (selectBool(cdataToken)){
+            state.push(cdataToken);
+            textVal = (String) guide.select(state, textId);
+            state.pop();
             Text text = document.createCDATASection(textVal);
             root.appendChild(text);
         }
+        state.pop();
         return root;
     }
 
-    /* Update and return new state. Removes items if too long */
-    private String[] updateState(String[] stateArr, String stateX) {
-        String[] newState = new String[stateSize];
-        int end = stateSize - 1;
-        newState[end] = stateX;
-        for (int i = 0; i < end; i++) {
-            newState[i] = stateArr[i + 1];
+    /**
+     * Generates a document like {@link #generate()} does, making the same
+     * selections in the same order, but writes it as it goes.
+     */
+    private String writeDocument() {
+        state.clear();
+        writer.reset();
+        try {
+            writeXmlTree(0);
+        } catch (DOMException e) {
+            Assume.assumeNoException(e);
+        }
+        return writer.finish();
+    }
+
+    /** Recursively write XML; see {@link #generateXmlTree(Document, int)} */
+    private void writeXmlTree(int depth) {
+        int tagIdx = guide.selectIndex(state, textId);
+        writer.startElement(tagIdx);
+        state.push(tagTokens[tagIdx]);
+
+        // Add attributes
+        int numAttributes = (Integer) guide.select(state, numaId);
+        for (int i = 0; i < numAttributes; i++) {
+            state.push(attrValToken);
+            int attrKeyIdx = guide.selectIndex(state, textId);
+            state.pop();
+            state.push(attrKeyTokens[attrKeyIdx]);
+            int attrValueIdx = guide.selectIndex(state, textId);
+            state.pop();
+            writer.attribute(attrKeyIdx, attrValueIdx);
         }
-        return newState;
+        // Make children recursively or text or CDATA
+        if (depth < minDepth || (depth < maxDepth && selectBool(childToken))) {
+            int numChildren = (Integer) guide.select(state, numcId);
+            for (int i = 0; i < numChildren; i++) {
+                writeXmlTree(depth + 1);
+            }
+        } else if (selectBool(textToken)) {
+            state.push(textToken);
+            writer.text(guide.selectIndex(state, textId));
+            state.pop();
+        } else if (selectBool(cdataToken)){
+            state.push(cdataToken);
+            writer.cdata(guide.selectIndex(state, textId));
+            state.pop();
+        }
+        state.pop();
+        writer.endElement();
+    }
+
+    /* Selects a boolean in the current state extended with the given token */
+    private boolean selectBool(int token) {
+        state.push(token);
+        boolean b = (Boolean) guide.select(state, boolId);
+        state.pop();
+        return b;
     }
 
 
@@ -0,0 +1,330 @@
+package edu.berkeley.cs.jqf.examples.xml;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes an XML document as text into a reusable buffer, producing the
+ * same characters as building a DOM and serializing it with
+ * {@link XMLDocumentUtils#documentToString(Document)}.
+ *
+ * <p>Every name and value in a document is one of a fixed list of
+ * strings, referred to by index. Their escaped forms as element names,
+ * attribute values, text and CDATA are taken once, from the output of the
+ * DOM serializer itself, so that escaping matches it exactly. Names that
+ * the DOM rejects throw the same {@link DOMException} at the same point,
+ * and strings that the serializer cannot write make {@link #finish()}
+ * throw, as serializing would.</p>
+ *
+ * <p>Like the DOM, attributes are written sorted by name, and an element
+ * without content is written as an empty-element tag. A default namespace
+ * declaration (an <tt>xmlns</tt> attribute) is written before the other
+ * attributes, unless it declares the namespace already in scope.
+ * Other namespace declarations and prefixed names are not supported.</p>
+ */
+public class XmlStreamWriter {
+
+    private final String declaration;
+
+    private final String[] strings;
+
+    /** Escaped forms of each string, or null if the DOM rejects it as a name */
+    private final String[] names;
+    private final DOMException[] nameErrors;
+
+    /** Escaped forms of each string, or null if the serializer fails on it */
+    private final String[] attrValues;
+    private final String[] texts;
+    private final String[] cdatas;
+    private final RuntimeException[] attrValueErrors;
+    private final RuntimeException[] textErrors;
+    private final RuntimeException[] cdataErrors;
+
+    private final StringBuilder out = new StringBuilder();
+
+    /** Strings naming the open elements, and their default namespaces */
+    private int[] open = new int[8];
+    private String[] namespaces = new String[8];
+    private int depth;
+
+    /** Whether the start tag of the innermost open element is not yet written */
+    private boolean startPending;
+
+    /** Attributes of that element, as pairs of key and value */
+    private int[] attributes = new int[8];
+    private int numAttributes;
+
+    /** First error of the serializer that the document would cause */
+    private RuntimeException failure;
+
+    /**
+     * Creates a writer for documents made of the given strings.
+     *
+     * @param strings the names and values that documents can contain
+     * @throws IllegalArgumentException if a string is a name with a prefix,
+     *         or is like a namespace declaration but not <tt>xmlns</tt>
+     */
+    public XmlStreamWriter(List<?> strings) {
+        DocumentBuilder builder;
+        try {
+            builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        this.declaration = XMLDocumentUtils.documentToString(builder.newDocument());
+
+        int n = strings.size();
+        this.strings = new String[n];
+        this.names = new String[n];
+        this.nameErrors = new DOMException[n];
+        this.attrValues = new String[n];
+        this.texts = new String[n];
+        this.cdatas = new String[n];
+        this.attrValueErrors = new RuntimeException[n];
+        this.textErrors = new RuntimeException[n];
+        this.cdataErrors = new RuntimeException[n];
+        for (int i = 0; i < n; i++) {
+            String s = (String) strings.get(i);
+            this.strings[i] = s;
+            Document document = builder.newDocument();
+            try {
+                // Element and attribute names are checked alike
+                Element element = document.createElement(s);
+                document.createElement("a").setAttribute(s, "");
+                if (s.indexOf(':') >= 0 || (s.startsWith("xmlns") && !s.equals("xmlns"))) {
+                    throw new IllegalArgumentException("Unsupported name: " + s);
+                }
+                String xml = serialize(document, element);
+                names[i] = xml.substring("<".length(), xml.length() - "/>".length());
+            } catch (DOMException e) {
+                nameErrors[i] = e;
+            }
+
+            try {
+                Element element = document.createElement("a");
+                element.setAttribute("k", s);
+                String xml = serialize(document, element);
+                attrValues[i] = xml.substring("<a k=\"".length(), xml.length() - "\"/>".length());
+            } catch (RuntimeException e) {
+                attrValueErrors[i] = e;
+            }
+
+            try {
+                Element element = document.createElement("a");
+                element.appendChild(document.createTextNode(s));
+                texts[i] = elementContent(serialize(document, element));
+            } catch (RuntimeException e) {
+                textErrors[i] = e;
+            }
+
+            try {
+                Element element = document.createElement("a");
+                element.appendChild(document.createCDATASection(s));
+                cdatas[i] = elementContent(serialize(document, element));
+            } catch (RuntimeException e) {
+                cdataErrors[i] = e;
+            }
+        }
+    }
+
+    /** Serializes a document with the given root, without the XML declaration. */
+    private String serialize(Document document, Element root) {
+        if (document.getDocumentElement() != null) {
+            document.removeChild(document.getDocumentElement());
+        }
+        document.appendChild(root);
+        String xml = XMLDocumentUtils.documentToString(document);
+        assert xml.startsWith(declaration);
+        return xml.substring(declaration.length());
+    }
+
+    /** Returns the content of a serialized element named "a". */
+    private static String elementContent(String xml) {
+        if (xml.equals("<a/>")) {
+            return "";
+        }
+        return xml.substring("<a>".length(), xml.length() - "</a>".length());
+    }
+
+    /** Starts a new document, discarding the current one. */
+    public void reset() {
+        out.setLength(0);
+        out.append(declaration);
+        depth = 0;
+        startPending = false;
+        numAttributes = 0;
+        failure = null;
+    }
+
+    /**
+     * Opens an element, as a child of the innermost open element if any.
+     *
+     * @param name the index of the element name
+     * @throws DOMException if the name is not a valid element name
+     */
+    public void startElement(int name) {
+        checkName(name);
+        closeStartTag();
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, depth * 2);
+            namespaces = Arrays.copyOf(namespaces, depth * 2);
+        }
+        open[depth++] = name;
+        startPending = true;
+    }
+
+    /**
+     * Sets an attribute of the element that was just opened, replacing
+     * the value of an attribute with the same name.
+     *
+     * @param key the index of the attribute name
+     * @param value the index of the attribute value
+     * @throws DOMException if the key is not a valid attribute name
+     */
+    public void attribute(int key, int value) {
+        checkName(key);
+        assert startPending;
+        for (int i = 0; i < numAttributes; i += 2) {
+            if (strings[attributes[i]].equals(strings[key])) {
+                attributes[i + 1] = value;
+                return;
+            }
+        }
+        if (numAttributes == attributes.length) {
+            attributes = Arrays.copyOf(attributes, numAttributes * 2);
+        }
+        attributes[numAttributes++] = key;
+        attributes[numAttributes++] = value;
+    }
+
+    /**
+     * Adds text to the innermost open element.
+     *
+     * @param text the index of the text
+     */
+    public void text(int text) {
+        content(texts[text], textErrors[text]);
+    }
+
+    /**
+     * Adds a CDATA section to the innermost open element.
+     *
+     * @param text the index of the text of the section
+     */
+    public void cdata(int text) {
+        content(cdatas[text], cdataErrors[text]);
+    }
+
+    private void content(String escaped, RuntimeException error) {
+        if (error != null) {
+            fail(error);
+        } else if (!escaped.isEmpty()) {
+            closeStartTag();
+            out.append(escaped);
+        }
+    }
+
+    /** Closes the innermost open element. */
+    public void endElement() {
+        if (startPending) {
+            writeStartTag();
+            out.append("/>");
+            startPending = false;
+        } else {
+            out.append("</").append(names[open[depth - 1]]).append('>');
+        }
+        depth--;
+    }
+
+    /**
+     * Returns the document written since the last reset.
+     *
+     * @return the text of the document
+     * @throws RuntimeException if serializing the document as a DOM would fail
+     */
+    public String finish() {
+        assert depth == 0;
+        if (failure != null) {
+            throw failure;
+        }
+        return out.toString();
+    }
+
+    private void checkName(int name) {
+        DOMException e = nameErrors[name];
+        if (e != null) {
+            throw new DOMException(e.code, e.getMessage());
+        }
+    }
+
+    private void fail(RuntimeException error) {
+        if (failure == null) {
+            failure = error;
+        }
+    }
+
+    private void closeStartTag() {
+        if (startPending) {
+            writeStartTag();
+            out.append('>');
+            startPending = false;
+        }
+    }
+
+    /** Writes the start tag of the innermost open element, without its closing bracket. */
+    private void writeStartTag() {
+        out.append('<').append(names[open[depth - 1]]);
+        sortAttributes();
+
+        String inherited = depth > 1 ? namespaces[depth - 2] : "";
+        namespaces[depth - 1] = inherited;
+        for (int i = 0; i < numAttributes; i += 2) {
+            if (strings[attributes[i]].equals("xmlns")) {
+                String namespace = strings[attributes[i + 1]];
+                if (!namespace.equals(inherited)) {
+                    writeAttribute(i);
+                }
+                namespaces[depth - 1] = namespace;
+            }
+        }
+        for (int i = 0; i < numAttributes; i += 2) {
+            if (!strings[attributes[i]].equals("xmlns")) {
+                writeAttribute(i);
+            }
+        }
+        numAttributes = 0;
+    }
+
+    private void writeAttribute(int i) {
+        int value = attributes[i + 1];
+        if (attrValueErrors[value] != null) {
+            fail(attrValueErrors[value]);
+        } else {
+            out.append(' ').append(names[attributes[i]]).append("=\"").append(attrValues[value]).append('"');
+        }
+    }
+
+    /** Sorts the pending attributes by name, as the DOM keeps them. */
+    private void sortAttributes() {
+        for (int i = 2; i < numAttributes; i += 2) {
+            int key = attributes[i];
+            int value = attributes[i + 1];
+            int j = i;
+            while (j > 0 && strings[attributes[j - 2]].compareTo(strings[key]) > 0) {
+                attributes[j] = attributes[j - 2];
+                attributes[j + 1] = attributes[j - 1];
+                j -= 2;
+            }
+            attributes[j] = key;
+            attributes[j + 1] = value;
+        }
+    }
+}
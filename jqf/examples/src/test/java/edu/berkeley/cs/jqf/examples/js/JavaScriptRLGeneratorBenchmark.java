@@ -0,0 +1,57 @@
+package edu.berkeley.cs.jqf.examples.js;
+
+import edu.berkeley.cs.jqf.fuzz.rl.RLParamParser;
+import edu.berkeley.cs.jqf.fuzz.rl.RLParams;
+
+import java.io.IOException;
+
+/**
+ * Measures how fast {@link JavaScriptRLGenerator} generates programs, for
+ * increasing maximum expression and statement depths.
+ *
+ * <p>Programs are appended to one buffer, so the time per character
+ * should stay about the same as programs get larger. This is not a unit
+ * test; run it with</p>
+ *
+ * <pre>java -cp ... edu.berkeley.cs.jqf.examples.js.JavaScriptRLGeneratorBenchmark [config] [programs]</pre>
+ */
+public class JavaScriptRLGeneratorBenchmark {
+
+    /** Pairs of maximum expression depth and maximum statement depth. */
+    private static final int[][] DEPTHS = {{7, 4}, {8, 5}, {10, 6}};
+
+    public static void main(String[] args) throws IOException {
+        String config = args.length > 0 ? args[0] : "configFiles/rhinoConfig.json";
+        int programs = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        RLParams params = new RLParamParser().getParamsFile(config);
+
+        System.out.printf("%10s %10s %14s %14s %10s%n", "expr depth", "stmt depth", "ns/program", "chars/program", "ns/char");
+        for (int[] depths : DEPTHS) {
+            RLParams copy = new RLParams(params);
+            copy.add("maxExpressionDepth", depths[0]);
+            copy.add("maxStatementDepth", depths[1]);
+
+            // Warm up, then measure with a fresh generator
+            measure(copy, programs);
+            double[] result = measure(copy, programs);
+            System.out.printf("%10d %10d %14.0f %14.0f %10.1f%n", depths[0], depths[1],
+                    result[0], result[1], result[0] / result[1]);
+        }
+    }
+
+    /** Returns the average time in nanoseconds and the average length of a program. */
+    private static double[] measure(RLParams params, int programs) {
+        JavaScriptRLGenerator generator = new JavaScriptRLGenerator();
+        generator.init(params);
+        long chars = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < programs; i++) {
+            String program = generator.generate();
+            chars += program.length();
+            // Any deterministic reward will do
+            generator.update(program.length() % 3 == 0 ? 20 : -1);
+        }
+        long elapsed = System.nanoTime() - start;
+        return new double[] {(double) elapsed / programs, (double) chars / programs};
+    }
+}
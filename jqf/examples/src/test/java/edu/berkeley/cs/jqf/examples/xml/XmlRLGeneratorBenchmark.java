@@ -0,0 +1,80 @@
+package edu.berkeley.cs.jqf.examples.xml;
+
+import edu.berkeley.cs.jqf.fuzz.rl.RLParamParser;
+import edu.berkeley.cs.jqf.fuzz.rl.RLParams;
+import org.junit.AssumptionViolatedException;
+
+import java.io.IOException;
+
+/**
+ * Compares generating documents with {@link XmlRLGenerator} by building
+ * a DOM with generating them in streaming mode.
+ *
+ * <p>Both generators start from the same parameters and get the same
+ * rewards, so they must generate the same documents; the first difference
+ * is reported as an error. This is not a unit test; run it with</p>
+ *
+ * <pre>java -cp ... edu.berkeley.cs.jqf.examples.xml.XmlRLGeneratorBenchmark [config] [documents]</pre>
+ */
+public class XmlRLGeneratorBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String config = args.length > 0 ? args[0] : "configFiles/mavenConfig.json";
+        int documents = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        RLParams params = new RLParamParser().getParamsFile(config);
+
+        // Check that the outputs are the same, which also warms up both modes
+        XmlRLGenerator dom = newGenerator(params, false);
+        XmlRLGenerator streaming = newGenerator(params, true);
+        for (int i = 0; i < documents; i++) {
+            String expected = generate(dom);
+            String actual = generate(streaming);
+            if (!expected.equals(actual)) {
+                throw new AssertionError("Document " + i + " differs:\n" + expected + "\n" + actual);
+            }
+        }
+        System.out.printf("%d documents are identical%n", documents);
+
+        double domTime = measure(newGenerator(params, false), documents);
+        double streamingTime = measure(newGenerator(params, true), documents);
+        System.out.printf("%10s %14s %14s%n", "mode", "ns/document", "documents/s");
+        System.out.printf("%10s %14.0f %14.0f%n", "dom", domTime, 1e9 / domTime);
+        System.out.printf("%10s %14.0f %14.0f%n", "streaming", streamingTime, 1e9 / streamingTime);
+        System.out.printf("speedup: %.1fx%n", domTime / streamingTime);
+    }
+
+    private static XmlRLGenerator newGenerator(RLParams params, boolean streaming) {
+        RLParams copy = new RLParams(params);
+        copy.add("streaming", streaming);
+        XmlRLGenerator generator = new XmlRLGenerator();
+        generator.init(copy);
+        return generator;
+    }
+
+    /** Generates a document and rewards the generator, as a guidance would. */
+    private static String generate(XmlRLGenerator generator) {
+        String document;
+        try {
+            document = generator.generate();
+        } catch (AssumptionViolatedException e) {
+            document = "(invalid)";
+        }
+        // Any deterministic reward will do
+        generator.update(document.length() % 3 == 0 ? 20 : -1);
+        return document;
+    }
+
+    /** Returns the average time in nanoseconds of generating a document. */
+    private static double measure(XmlRLGenerator generator, int documents) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < documents; i++) {
+            checksum += generate(generator).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            throw new AssertionError();
+        }
+        return (double) elapsed / documents;
+    }
+}
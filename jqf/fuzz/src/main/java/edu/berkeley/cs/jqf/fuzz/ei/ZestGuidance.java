@@ -60,6 +60,7 @@ import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.FingerprintSet;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 
 import static java.lang.Math.ceil;
@@ -158,9 +159,9 @@ public class ZestGuidance implements Guidance {
     /** The set of unique failures found so far. */
     protected Set<List<StackTraceElement>> uniqueFailures = new HashSet<>();
 
-    protected Set<Integer> uniquePaths = new HashSet<>();
+    protected FingerprintSet uniquePaths = new FingerprintSet();
 
-    protected Set<Integer> uniqueBranchSets = new HashSet<>();
+    protected FingerprintSet uniqueBranchSets = new FingerprintSet();
 
     /* Hash code of last args generated. */
     protected int lastGeneratedInputsHash;
@@ -632,20 +633,22 @@ public class ZestGuidance implements Guidance {
             int nonZeroBefore = totalCoverage.getNonZeroCount();
             int validNonZeroBefore = validCoverage.getNonZeroCount();
 
+            // Update total coverage, collecting newly covered branches in the same pass
+            List<Integer> newCoverage = new ArrayList<>();
+            List<Integer> newValidCoverage = new ArrayList<>();
+            boolean coverageBitsUpdated = totalCoverage.updateBits(runCoverage, newCoverage);
+            if (valid) {
+                validCoverage.updateBits(runCoverage, newValidCoverage);
+                uniquePaths.add(runCoverage.pathFingerprint());
+                uniqueBranchSets.add(runCoverage.branchSetFingerprint());
+
+            }
+
             // Compute a list of keys for which this input can assume responsiblity.
             // Newly covered branches are always included.
             // Existing branches *may* be included, depending on the heuristics used.
             // A valid input will steal responsibility from invalid inputs
-            Set<Object> responsibilities = computeResponsibilities(valid);
-
-            // Update total coverage
-            boolean coverageBitsUpdated = totalCoverage.updateBits(runCoverage);
-            if (valid) {
-                validCoverage.updateBits(runCoverage);
-                uniquePaths.add(runCoverage.hashCode());
-                uniqueBranchSets.add(runCoverage.nonZeroHashCode());
-
-            }
+            Set<Object> responsibilities = computeResponsibilities(newCoverage, newValidCoverage);
 
             // Coverage after
             int nonZeroAfter = totalCoverage.getNonZeroCount();
@@ -734,22 +737,19 @@ public class ZestGuidance implements Guidance {
     }
 
 
-    // Compute a set of branches for which the current input may assume responsibility
-    private Set<Object> computeResponsibilities(boolean valid) {
+    // Compute a set of branches for which the current input may assume responsibility,
+    // given the branches it newly covers (in total, and if valid, in valid coverage)
+    private Set<Object> computeResponsibilities(Collection<?> newCoverage, Collection<?> newValidCoverage) {
         Set<Object> result = new HashSet<>();
 
         // This input is responsible for all new coverage
-        Collection<?> newCoverage = runCoverage.computeNewCoverage(totalCoverage);
         if (newCoverage.size() > 0) {
             result.addAll(newCoverage);
         }
 
         // If valid, this input is responsible for all new valid coverage
-        if (valid) {
-            Collection<?> newValidCoverage = runCoverage.computeNewCoverage(validCoverage);
-            if (newValidCoverage.size() > 0) {
-                result.addAll(newValidCoverage);
-            }
+        if (newValidCoverage.size() > 0) {
+            result.addAll(newValidCoverage);
         }
 
         // Perhaps it can also steal responsibility from other inputs
@@ -113,6 +113,19 @@ public interface Guidance {
         // do nothing;
     }
 
+    /**
+     * Handles the end of the execution of a trial, before its
+     * result is passed to {@link #handleResult(Result, Throwable)}.
+     *
+     * <p>This method is invoked by JQF in the thread that executed
+     * the trial, once the test method returns or throws. A guidance
+     * that interrupts long trials from another thread should stop
+     * doing so here.
+     */
+    default void observeTrialEnd() {
+        // do nothing;
+    }
+
     /**
      * Handles the end of a fuzzing trial.
      *
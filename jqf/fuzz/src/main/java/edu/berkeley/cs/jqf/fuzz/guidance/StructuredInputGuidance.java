@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.guidance;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import edu.berkeley.cs.jqf.fuzz.junit.quickcheck.FuzzStatement;
+
+/**
+ * A guidance that generates the argument of a trial itself, rather than
+ * a stream of random bytes for junit-quickcheck's generators to decode.
+ *
+ * <p>{@link FuzzStatement} uses {@link #getStructuredInput()} instead of
+ * {@link #getInput()} for test methods that take a single parameter of
+ * type {@link String}, {@link CharSequence}, {@link Reader},
+ * {@link InputStream} or <tt>byte[]</tt>, with no <tt>@From</tt>
+ * generator. The generated input reaches the test as that type with at
+ * most one conversion, e.g. a string is encoded once into a byte array
+ * that backs the input stream passed to the test.</p>
+ *
+ * <p>For all other test methods, the arguments are generated from the
+ * bytes returned by {@link #getInput()} as usual.</p>
+ */
+public interface StructuredInputGuidance extends Guidance {
+
+    /**
+     * Returns the input of the next trial.
+     *
+     * <p>This method is invoked instead of {@link #getInput()}, under
+     * the same conditions, and {@link #handleResult} is invoked exactly
+     * once after it.</p>
+     *
+     * @return  the input, as a {@link CharSequence} or a <tt>byte[]</tt>
+     * @throws IllegalStateException if the last {@link #hasInput()}
+     *                  returned <tt>false</tt>
+     * @throws GuidanceException if there was an error in generating
+     *                  the input
+     */
+    Object getStructuredInput() throws IllegalStateException, GuidanceException;
+}
@@ -29,6 +29,8 @@
 package edu.berkeley.cs.jqf.fuzz.junit;
 
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
 
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.JQF;
@@ -45,6 +47,9 @@ public class GuidedFuzzing {
 
     private static Guidance guidance;
 
+    /** The guidance of each worker thread of a parallel run (inherited by threads they spawn). */
+    private static final InheritableThreadLocal<Guidance> workerGuidance = new InheritableThreadLocal<>();
+
     public static long DEFAULT_MAX_TRIALS = 100;
 
     private static void setGuidance(Guidance g) {
@@ -60,7 +65,8 @@ public class GuidedFuzzing {
      * @return the currently registered Guidance instance
      */
     public static Guidance getCurrentGuidance() {
-        return guidance;
+        Guidance g = workerGuidance.get();
+        return g != null ? g : guidance;
     }
 
     private static void unsetGuidance() {
@@ -150,10 +156,7 @@ public class GuidedFuzzing {
                                           Guidance guidance, PrintStream out) throws IllegalStateException {
 
         // Ensure that the class uses the right test runner
-        RunWith annotation = testClass.getAnnotation(RunWith.class);
-        if (annotation == null || !annotation.value().equals(JQF.class)) {
-            throw new IllegalArgumentException(testClass.getName() + " is not annotated with @RunWith(JQF.class)");
-        }
+        checkTestClass(testClass);
 
 
         // Set the static guided instance
@@ -168,9 +171,7 @@ public class GuidedFuzzing {
         // Instantiate a runner (may return an error)
         Runner testRunner = testRequest.getRunner();
 
-        if (testRunner instanceof ErrorReportingRunner) {
-            throw new IllegalArgumentException(String.format("Could not instantiate a Junit runner for method %s#%s.", testClass.getName(), testMethod));
-        }
+        checkRunner(testRunner, testClass, testMethod);
 
         // Start tracing for the test method
         SingleSnoop.startSnooping(testClass.getName() + "#" + testMethod);
@@ -190,4 +191,101 @@ public class GuidedFuzzing {
 
     }
 
+    /**
+     * Runs several guided fuzzing loops concurrently, one per guidance,
+     * using the system class loader to load test-application classes.
+     *
+     * @param testClassName the test class containing the test method
+     * @param testMethod    the test method to execute in the fuzzing loops
+     * @param guidances     the guidance of each fuzzing loop
+     * @param out           an output stream to log Junit messages of the first loop
+     * @throws ClassNotFoundException if testClassName cannot be loaded
+     * @throws InterruptedException if interrupted while waiting for the loops
+     * @return the Junit-style test result of each loop
+     * @see #runParallel(Class, String, List, PrintStream)
+     */
+    public synchronized static List<Result> runParallel(String testClassName, String testMethod,
+                                                       List<? extends Guidance> guidances, PrintStream out)
+            throws ClassNotFoundException, InterruptedException {
+        Class<?> testClass =
+                java.lang.Class.forName(testClassName, true, ClassLoader.getSystemClassLoader());
+
+        return runParallel(testClass, testMethod, guidances, out);
+    }
+
+    /**
+     * Runs several guided fuzzing loops concurrently, one per guidance.
+     *
+     * <p>Each loop runs in its own worker thread, in which
+     * {@link #getCurrentGuidance()} returns the guidance of that loop,
+     * and trace events are sent to the callbacks generated by that
+     * guidance. Guidances must therefore be safe to run concurrently
+     * with each other, as must the test method.</p>
+     *
+     * <p>This method returns once every loop has stopped. Until then, no
+     * other guided fuzzing can be started in this JVM instance.</p>
+     *
+     * @param testClass     the test class containing the test method
+     * @param testMethod    the test method to execute in the fuzzing loops
+     * @param guidances     the guidance of each fuzzing loop
+     * @param out           an output stream to log Junit messages of the first loop
+     * @throws InterruptedException if interrupted while waiting for the loops
+     * @return the Junit-style test result of each loop
+     */
+    public synchronized static List<Result> runParallel(Class<?> testClass, String testMethod,
+                                                       List<? extends Guidance> guidances, PrintStream out)
+            throws InterruptedException {
+
+        // Ensure that the class uses the right test runner
+        checkTestClass(testClass);
+
+        // Send events of each worker thread to its own guidance
+        SingleSnoop.setCallbackGenerator((thread) -> {
+            Guidance g = workerGuidance.get();
+            return g != null ? g.generateCallBack(thread) : (e) -> {};
+        });
+
+        String entryPoint = testClass.getName() + "#" + testMethod;
+        Result[] results = new Result[guidances.size()];
+        Thread[] workers = new Thread[guidances.size()];
+        for (int i = 0; i < workers.length; i++) {
+            final int id = i;
+            final Guidance g = guidances.get(i);
+            final Runner testRunner = Request.method(testClass, testMethod).getRunner();
+            checkRunner(testRunner, testClass, testMethod);
+
+            workers[i] = new Thread(() -> {
+                workerGuidance.set(g);
+                // Start tracing for the test method in this thread
+                SingleSnoop.startSnooping(entryPoint);
+                JUnitCore junit = new JUnitCore();
+                if (out != null && id == 0) {
+                    junit.addListener(new TextListener(out));
+                }
+                results[id] = junit.run(testRunner);
+            }, "jqf-worker-" + i);
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return Arrays.asList(results);
+    }
+
+    private static void checkTestClass(Class<?> testClass) {
+        RunWith annotation = testClass.getAnnotation(RunWith.class);
+        if (annotation == null || !annotation.value().equals(JQF.class)) {
+            throw new IllegalArgumentException(testClass.getName() + " is not annotated with @RunWith(JQF.class)");
+        }
+    }
+
+    private static void checkRunner(Runner testRunner, Class<?> testClass, String testMethod) {
+        if (testRunner instanceof ErrorReportingRunner) {
+            throw new IllegalArgumentException(String.format("Could not instantiate a Junit runner for method %s#%s.", testClass.getName(), testMethod));
+        }
+    }
+
 }
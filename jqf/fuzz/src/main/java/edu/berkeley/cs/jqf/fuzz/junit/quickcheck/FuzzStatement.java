@@ -28,17 +28,24 @@
  */
 package edu.berkeley.cs.jqf.fuzz.junit.quickcheck;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Executable;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import com.pholser.junit.quickcheck.From;
 import com.pholser.junit.quickcheck.generator.GenerationStatus;
 import com.pholser.junit.quickcheck.generator.Generator;
 import com.pholser.junit.quickcheck.internal.ParameterTypeContext;
@@ -46,6 +53,7 @@ import com.pholser.junit.quickcheck.internal.generator.GeneratorRepository;
 import com.pholser.junit.quickcheck.random.SourceOfRandomness;
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+import edu.berkeley.cs.jqf.fuzz.guidance.StructuredInputGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.random.NoGuidance;
 import edu.berkeley.cs.jqf.fuzz.repro.ReproGuidance;
@@ -54,6 +62,7 @@ import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
 import edu.berkeley.cs.jqf.fuzz.Fuzz;
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
 import org.junit.AssumptionViolatedException;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.MultipleFailureException;
@@ -78,6 +87,10 @@ public class FuzzStatement extends Statement {
     private final List<Class<?>> expectedExceptions;
     private final List<Throwable> failures = new ArrayList<>();
 
+    /** Parameter types to which inputs of a {@link StructuredInputGuidance} are passed directly */
+    private static final List<Class<?>> STRUCTURED_INPUT_TYPES = Arrays.asList(
+            String.class, CharSequence.class, Reader.class, InputStream.class, byte[].class);
+
     public FuzzStatement(FrameworkMethod method, TestClass testClass,
                          GeneratorRepository generatorRepository) {
         this.method = method;
@@ -119,6 +132,9 @@ public class FuzzStatement extends Statement {
             }
         }
 
+        // Pass generated inputs directly if the test takes a single such input
+        Class<?> structuredInputType = getStructuredInputType(guidance);
+
         // Keep fuzzing until no more input or I/O error with guidance
         try {
 
@@ -132,13 +148,18 @@ public class FuzzStatement extends Statement {
                     Object[] args;
                     try {
 
-                        // Generate input values
-                        StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
-                        SourceOfRandomness random = new FastSourceOfRandomness(randomFile);
-                        GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
-                        args = generators.stream()
-                                .map(g -> g.generate(random, genStatus))
-                                .toArray();
+                        if (structuredInputType != null) {
+                            Object input = ((StructuredInputGuidance) guidance).getStructuredInput();
+                            args = new Object[] { toArgument(input, structuredInputType) };
+                        } else {
+                            // Generate input values
+                            StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
+                            SourceOfRandomness random = new FastSourceOfRandomness(randomFile);
+                            GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
+                            args = generators.stream()
+                                    .map(g -> g.generate(random, genStatus))
+                                    .toArray();
+                        }
 
                         // Tell the guidance about them
                         guidance.observeGenerated(args);
@@ -157,6 +178,9 @@ public class FuzzStatement extends Statement {
                     } catch (GuidanceException e) {
                         // Throw the guidance exception outside to stop fuzzing
                         throw e;
+                    } catch (ThreadDeath e) {
+                        // The guidance stopped a trial that exceeded its time budget
+                        throw e;
                     } catch (Throwable e) {
                         // Throw the guidance exception outside to stop fuzzing
                         throw new GuidanceException(e);
@@ -165,7 +189,12 @@ public class FuzzStatement extends Statement {
                     }
 
                     // Attempt to run the trial
-                    new TrialRunner(testClass.getJavaClass(), method, args).run();
+                    try {
+                        new TrialRunner(testClass.getJavaClass(), method, args).run();
+                    } finally {
+                        // The trial may no longer be interrupted, as this block catches ThreadDeath
+                        guidance.observeTrialEnd();
+                    }
 
                     // If we reached here, then the trial must be a success
                     result = SUCCESS;
@@ -178,6 +207,10 @@ public class FuzzStatement extends Statement {
                 } catch (TimeoutException e) {
                     result = TIMEOUT;
                     error = e;
+                } catch (ThreadDeath e) {
+                    // The guidance stopped a trial that exceeded its time budget
+                    result = TIMEOUT;
+                    error = e;
                 } catch (Throwable e) {
 
                     // Check if this exception was expected
@@ -190,6 +223,9 @@ public class FuzzStatement extends Statement {
                     }
                 }
 
+                // Wait for the trace of this trial, if traced in the background
+                SingleSnoop.awaitTracing();
+
                 // Inform guidance about the outcome of this trial
                 guidance.handleResult(result, error);
 
@@ -228,6 +264,62 @@ public class FuzzStatement extends Statement {
         return false;
     }
 
+    /**
+     * Returns the type of the parameter to which inputs of a guidance are
+     * passed directly, if any.
+     *
+     * @param guidance the guidance
+     * @return the parameter type, or <tt>null</tt> if the guidance does not
+     * generate inputs directly, or the trial method takes other parameters
+     */
+    private Class<?> getStructuredInputType(Guidance guidance) {
+        if (!(guidance instanceof StructuredInputGuidance)) {
+            return null;
+        }
+        Parameter[] parameters = method.getMethod().getParameters();
+        if (parameters.length != 1 || parameters[0].isAnnotationPresent(From.class)) {
+            return null;
+        }
+        Class<?> type = parameters[0].getType();
+        return STRUCTURED_INPUT_TYPES.contains(type) ? type : null;
+    }
+
+    /**
+     * Converts an input of a {@link StructuredInputGuidance} to an argument.
+     *
+     * @param input the input, as a {@link CharSequence} or a <tt>byte[]</tt>
+     * @param type one of {@link #STRUCTURED_INPUT_TYPES}
+     * @return the argument
+     */
+    private static Object toArgument(Object input, Class<?> type) {
+        if (type.isInstance(input)) {
+            return input;
+        }
+        if (input instanceof CharSequence) {
+            if (type == String.class) {
+                return input.toString();
+            } else if (type == Reader.class) {
+                return new StringReader(input.toString());
+            }
+            input = input.toString().getBytes(StandardCharsets.UTF_8);
+            if (type == byte[].class) {
+                return input;
+            }
+        }
+        if (input instanceof byte[]) {
+            byte[] bytes = (byte[]) input;
+            if (type == InputStream.class) {
+                return new ByteArrayInputStream(bytes);
+            } else if (type == Reader.class) {
+                return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+            } else {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        throw new GuidanceException("Cannot pass input of type " + input.getClass().getName() +
+                " as " + type.getName());
+    }
+
     private ParameterTypeContext createParameterTypeContext(Parameter parameter) {
         Executable exec = parameter.getDeclaringExecutable();
         String declarerName = exec.getDeclaringClass().getName() + '.' + exec.getName();
@@ -0,0 +1,145 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Applies the finished episodes of a guide in a background thread, so that
+ * the thread running the test can generate the next input meanwhile.
+ *
+ * <p>Finished episodes wait in a bounded queue; when it is full, the guide
+ * waits for the learning thread. The capacity of the queue therefore bounds
+ * how many episodes the Q values used for selection may lag behind. The
+ * learning thread takes up to a batch of episodes from the queue at once.
+ * Learners must use tables that can be shared between threads.</p>
+ */
+class AsyncUpdater {
+
+    /** The episodes of all learners of a guide, and their reward. */
+    private static class Update {
+        final RLLearner[] learners;
+        final Episode[] episodes;
+        final int reward;
+
+        Update(RLLearner[] learners, Episode[] episodes, int reward) {
+            this.learners = learners;
+            this.episodes = episodes;
+            this.reward = reward;
+        }
+    }
+
+    private final BlockingQueue<Update> queue;
+
+    private final int batchSize;
+
+    /** Applied episodes, reused by learners */
+    private final Queue<Episode> freeEpisodes = new ConcurrentLinkedQueue<>();
+
+    /** Number of submitted updates not yet applied (guarded by this) */
+    private int pending = 0;
+
+    /** Error thrown by the learning thread, if any */
+    private volatile Throwable failure;
+
+    /**
+     * Starts a learning thread.
+     *
+     * @param maxStaleness the maximum number of episodes waiting to be applied
+     * @param batchSize the maximum number of episodes applied at once
+     */
+    AsyncUpdater(int maxStaleness, int batchSize) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, maxStaleness));
+        this.batchSize = Math.max(1, batchSize);
+        Thread thread = new Thread(this::run, "rl-learner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hands the current episodes of learners over to the learning thread,
+     * giving each learner an empty episode.
+     */
+    void submit(Collection<RLLearner> learners, int reward) {
+        checkFailure();
+        RLLearner[] submitted = learners.toArray(new RLLearner[0]);
+        Episode[] episodes = new Episode[submitted.length];
+        for (int i = 0; i < submitted.length; i++) {
+            Episode empty = freeEpisodes.poll();
+            episodes[i] = submitted[i].takeEpisode(empty != null ? empty : new Episode());
+        }
+        Update update = new Update(submitted, episodes, reward);
+        synchronized (this) {
+            pending++;
+        }
+        try {
+            queue.put(update);
+        } catch (InterruptedException e) {
+            // Do not lose the episodes
+            Thread.currentThread().interrupt();
+            apply(update);
+            applied(1);
+        }
+    }
+
+    /** Waits until all submitted episodes have been applied. */
+    synchronized void flush() {
+        boolean interrupted = false;
+        while (pending > 0 && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Asynchronous learning failed", failure);
+        }
+    }
+
+    private void run() {
+        List<Update> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                for (Update update : batch) {
+                    apply(update);
+                }
+                applied(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Stop learning
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void apply(Update update) {
+        for (int i = 0; i < update.learners.length; i++) {
+            update.learners[i].learn(update.episodes[i], update.reward);
+            update.episodes[i].clear();
+            freeEpisodes.offer(update.episodes[i]);
+        }
+    }
+
+    private synchronized void applied(int n) {
+        pending -= n;
+        notifyAll();
+    }
+}
@@ -0,0 +1,224 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the output files of a run in a background thread, so that the
+ * threads running tests do not wait for the disk.
+ *
+ * <p>Writes wait in a bounded queue; when it is full, the thread
+ * submitting a write waits for the writing thread. The writing thread
+ * takes all waiting writes at once. Lines appended to the same file are
+ * written together, to a channel that stays open until the writer is
+ * closed. New files are written with one channel each, which are synced
+ * to disk together at the end of the batch and then closed.</p>
+ *
+ * <p>An error in the writing thread is thrown as a
+ * {@link GuidanceException} by the next call to this writer.</p>
+ */
+class AsyncWriter {
+
+    /** A line to append to a file, or the contents of a new file. */
+    private static class Write {
+        final File file;
+        final String text;
+        final boolean append;
+
+        Write(File file, String text, boolean append) {
+            this.file = file;
+            this.text = text;
+            this.append = append;
+        }
+    }
+
+    private final BlockingQueue<Write> queue;
+
+    private final Thread thread;
+
+    /** Channels of files appended to, used only by the writing thread */
+    private final Map<File, FileChannel> appendChannels = new HashMap<>();
+
+    /** Number of submitted writes not yet done (guarded by this) */
+    private int pending = 0;
+
+    /** Error thrown by the writing thread, if any */
+    private volatile Throwable failure;
+
+    /**
+     * Starts a writing thread.
+     *
+     * @param capacity the maximum number of writes waiting to be done
+     */
+    AsyncWriter(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.thread = new Thread(this::run, "rl-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Appends a line to a file, creating it if needed.
+     *
+     * @param file the file to append to
+     * @param line the line, without a line separator
+     */
+    void appendLine(File file, String line) {
+        submit(new Write(file, line + System.lineSeparator(), true));
+    }
+
+    /**
+     * Writes a file, replacing it if it exists.
+     *
+     * @param file the file to write
+     * @param contents the contents of the file, which are encoded as UTF-8
+     */
+    void writeFile(File file, String contents) {
+        submit(new Write(file, contents, false));
+    }
+
+    private void submit(Write write) {
+        checkFailure();
+        if (!thread.isAlive()) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        synchronized (this) {
+            pending++;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(write);
+                break;
+            } catch (InterruptedException e) {
+                // Do not lose the write
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Waits until all submitted writes have been done. */
+    synchronized void flush() {
+        boolean interrupted = false;
+        while (pending > 0 && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /** Does all submitted writes, and stops the writing thread. */
+    void close() {
+        flush();
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new GuidanceException("Writing output files failed", failure);
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                write(batch);
+                done(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Stop writing
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            synchronized (this) {
+                notifyAll();
+            }
+        } finally {
+            for (FileChannel channel : appendChannels.values()) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing was left to write
+                }
+            }
+        }
+    }
+
+    private void write(List<Write> batch) throws IOException {
+        // Lines appended to each file, in order
+        Map<File, ByteArrayOutputStream> lines = new LinkedHashMap<>();
+        List<FileChannel> newFiles = new ArrayList<>();
+        try {
+            for (Write write : batch) {
+                byte[] bytes = write.text.getBytes(StandardCharsets.UTF_8);
+                if (write.append) {
+                    lines.computeIfAbsent(write.file, f -> new ByteArrayOutputStream()).write(bytes, 0, bytes.length);
+                } else {
+                    FileChannel channel = FileChannel.open(write.file.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    newFiles.add(channel);
+                    writeFully(channel, bytes);
+                }
+            }
+            for (Map.Entry<File, ByteArrayOutputStream> entry : lines.entrySet()) {
+                FileChannel channel = appendChannels.get(entry.getKey());
+                if (channel == null) {
+                    channel = FileChannel.open(entry.getKey().toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    appendChannels.put(entry.getKey(), channel);
+                }
+                writeFully(channel, entry.getValue().toByteArray());
+            }
+            for (FileChannel channel : newFiles) {
+                channel.force(false);
+            }
+        } finally {
+            for (FileChannel channel : newFiles) {
+                channel.close();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private synchronized void done(int n) {
+        pending -= n;
+        notifyAll();
+    }
+}
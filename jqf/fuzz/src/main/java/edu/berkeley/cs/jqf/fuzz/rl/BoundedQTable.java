@@ -0,0 +1,287 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * A Q-table that stores at most a fixed number of states.
+ *
+ * <p>When a new state is stored in a full table, a batch of states chosen
+ * by the {@link Eviction} policy is removed from the wrapped table first.
+ * Evicting a batch at once spreads the cost of ranking the states over
+ * many insertions. An evicted state is learned again from scratch if it
+ * is seen later.</p>
+ *
+ * <p>The table counts evictions, and how many of the states looked up
+ * during selection (see {@link #containsState}) were found, which shows
+ * whether the limit is too small.</p>
+ */
+public class BoundedQTable implements QTable {
+
+    /** The number of states evicted at once is the limit divided by this. */
+    private static final int EVICTION_BATCH_DIVISOR = 16;
+
+    /** How the states to evict are chosen. */
+    public enum Eviction {
+        /** Evict the states that were least recently selected from or updated. */
+        LRU,
+        /** Evict the states with the smallest total C, i.e. the least visited. */
+        VISITS,
+        /** Evict the states whose actions have the closest Q values, i.e. where choices matter least. */
+        VARIANCE;
+
+        /** Returns the policy with the given case-insensitive name. */
+        public static Eviction of(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    private final QTable table;
+
+    private final int maxStates;
+
+    private final Eviction eviction;
+
+    /** The stored states and the time of their last use */
+    private final StateIndex states = new StateIndex();
+
+    /** Incremented on every use of a state */
+    private long clock = 0;
+
+    private long numLookups = 0;
+    private long numHits = 0;
+    private long numEvictions = 0;
+
+    /**
+     * Wraps an empty table.
+     *
+     * @param table the table storing the values
+     * @param maxStates the maximum number of states
+     * @param eviction how the states to evict are chosen
+     */
+    public BoundedQTable(QTable table, int maxStates, Eviction eviction) {
+        if (maxStates <= 0) {
+            throw new IllegalArgumentException("Maximum number of states must be positive: " + maxStates);
+        }
+        this.table = table;
+        this.maxStates = maxStates;
+        this.eviction = eviction;
+    }
+
+    @Override
+    public boolean containsState(long state) {
+        numLookups++;
+        int slot = states.slot(state);
+        if (slot < 0) {
+            return false;
+        }
+        numHits++;
+        states.times[slot] = ++clock;
+        return true;
+    }
+
+    @Override
+    public double getQ(long state, int action) {
+        return table.getQ(state, action);
+    }
+
+    @Override
+    public double getC(long state, int action) {
+        return table.getC(state, action);
+    }
+
+    @Override
+    public void put(long state, int action, double q, double c) {
+        use(state);
+        table.put(state, action, q, c);
+    }
+
+    @Override
+    public void addReturn(long state, int action, double g, double w) {
+        use(state);
+        table.addReturn(state, action, g, w);
+    }
+
+    /** Records a use of a state that is about to be stored, making room for it if it is new. */
+    private void use(long state) {
+        int slot = states.slot(state);
+        if (slot < 0) {
+            if (states.size >= maxStates) {
+                evict();
+            }
+            slot = states.add(state);
+        }
+        states.times[slot] = ++clock;
+    }
+
+    @Override
+    public int numStates() {
+        return table.numStates();
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        table.forEach(visitor);
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+        states.clear();
+    }
+
+    @Override
+    public void removeStates(LongPredicate evict) {
+        table.removeStates(evict);
+        states.removeAll(evict);
+    }
+
+    /** Returns the number of states evicted so far. */
+    public long numEvictions() {
+        return numEvictions;
+    }
+
+    /** Returns the number of states looked up with {@link #containsState}. */
+    public long numLookups() {
+        return numLookups;
+    }
+
+    /** Returns the number of states found by {@link #containsState}. */
+    public long numHits() {
+        return numHits;
+    }
+
+    /** Removes the batch of states that the eviction policy values least. */
+    private void evict() {
+        double[] scores = scores();
+        int n = states.size;
+        int batch = Math.max(1, n / EVICTION_BATCH_DIVISOR);
+
+        // Find the score of the last state of the batch
+        double[] sorted = new double[n];
+        int j = 0;
+        for (int slot = 0; slot < states.keys.length; slot++) {
+            if (states.used[slot]) {
+                sorted[j++] = scores[slot];
+            }
+        }
+        Arrays.sort(sorted);
+        double threshold = sorted[batch - 1];
+
+        // Evict the states scoring below it, then as many ties as fit in the batch
+        long[] evicted = new long[batch];
+        int m = 0;
+        for (int slot = 0; slot < states.keys.length; slot++) {
+            if (states.used[slot] && scores[slot] < threshold) {
+                evicted[m++] = states.keys[slot];
+            }
+        }
+        for (int slot = 0; slot < states.keys.length && m < batch; slot++) {
+            if (states.used[slot] && scores[slot] == threshold) {
+                evicted[m++] = states.keys[slot];
+            }
+        }
+        Arrays.sort(evicted);
+        removeStates(state -> Arrays.binarySearch(evicted, state) >= 0);
+        numEvictions += batch;
+    }
+
+    /** Returns the score of each slot of the state index; lower scores are evicted first. */
+    private double[] scores() {
+        double[] scores = new double[states.keys.length];
+        switch (eviction) {
+            case LRU:
+                for (int slot = 0; slot < scores.length; slot++) {
+                    scores[slot] = states.times[slot];
+                }
+                break;
+            case VISITS:
+                table.forEach((state, action, q, c) -> scores[states.slot(state)] += c);
+                break;
+            case VARIANCE:
+                double[] sumSquares = new double[scores.length];
+                int[] counts = new int[scores.length];
+                table.forEach((state, action, q, c) -> {
+                    int slot = states.slot(state);
+                    scores[slot] += q;
+                    sumSquares[slot] += q * q;
+                    counts[slot]++;
+                });
+                for (int slot = 0; slot < scores.length; slot++) {
+                    if (counts[slot] > 0) {
+                        double mean = scores[slot] / counts[slot];
+                        scores[slot] = sumSquares[slot] / counts[slot] - mean * mean;
+                    }
+                }
+                break;
+        }
+        return scores;
+    }
+
+    /** An open-addressing map from stored states to the time of their last use. */
+    private static final class StateIndex {
+        private static final int INITIAL_CAPACITY = 1 << 10;
+
+        long[] keys = new long[INITIAL_CAPACITY];
+        long[] times = new long[INITIAL_CAPACITY];
+        boolean[] used = new boolean[INITIAL_CAPACITY];
+        int size = 0;
+
+        /** Returns the slot of a state, or -1 if it is not stored. */
+        int slot(long state) {
+            int mask = keys.length - 1;
+            for (int i = PrimitiveQTable.mix(state) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == state) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Adds a state known to be absent, and returns its slot. */
+        int add(long state) {
+            if ((size + 1) * 2 > keys.length) {
+                rebuild(keys.length * 2, s -> false);
+            }
+            size++;
+            return insert(state, 0);
+        }
+
+        void clear() {
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        void removeAll(LongPredicate evict) {
+            rebuild(keys.length, evict);
+        }
+
+        private int insert(long state, long time) {
+            int mask = keys.length - 1;
+            int i = PrimitiveQTable.mix(state) & mask;
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = state;
+            times[i] = time;
+            used[i] = true;
+            return i;
+        }
+
+        private void rebuild(int capacity, LongPredicate evict) {
+            long[] oldKeys = keys;
+            long[] oldTimes = times;
+            boolean[] oldUsed = used;
+            keys = new long[capacity];
+            times = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldUsed[j] && !evict.test(oldKeys[j])) {
+                    insert(oldKeys[j], oldTimes[j]);
+                    size++;
+                }
+            }
+        }
+    }
+}
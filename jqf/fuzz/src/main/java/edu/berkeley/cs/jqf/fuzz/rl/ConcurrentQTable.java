@@ -0,0 +1,133 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * A Q-table that can be shared by several worker threads.
+ *
+ * <p>States are partitioned into a fixed number of stripes, each of
+ * which is a table of the wrapped backend guarded by its own lock.
+ * Workers updating different states therefore rarely contend, and
+ * {@link #addReturn} is atomic per (state, action) pair.</p>
+ */
+public class ConcurrentQTable implements QTable {
+
+    private final QTable[] stripes;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param backend the backend of each stripe (see {@link QTable#create})
+     * @param numStripes the number of stripes (rounded up to a power of two)
+     */
+    public ConcurrentQTable(String backend, int numStripes) {
+        this(() -> QTable.create(backend), numStripes);
+    }
+
+    /**
+     * Creates an empty table whose stripes are created by a factory.
+     *
+     * @param stripeFactory creates the table of each stripe
+     * @param numStripes the number of stripes (rounded up to a power of two)
+     */
+    public ConcurrentQTable(Supplier<QTable> stripeFactory, int numStripes) {
+        int n = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+        this.stripes = new QTable[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = stripeFactory.get();
+        }
+    }
+
+    private QTable stripe(long state) {
+        long h = state * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & (stripes.length - 1)];
+    }
+
+    @Override
+    public boolean containsState(long state) {
+        QTable s = stripe(state);
+        synchronized (s) {
+            return s.containsState(state);
+        }
+    }
+
+    @Override
+    public double getQ(long state, int action) {
+        QTable s = stripe(state);
+        synchronized (s) {
+            return s.getQ(state, action);
+        }
+    }
+
+    @Override
+    public double getC(long state, int action) {
+        QTable s = stripe(state);
+        synchronized (s) {
+            return s.getC(state, action);
+        }
+    }
+
+    @Override
+    public void put(long state, int action, double q, double c) {
+        QTable s = stripe(state);
+        synchronized (s) {
+            s.put(state, action, q, c);
+        }
+    }
+
+    @Override
+    public void addReturn(long state, int action, double g, double w) {
+        QTable s = stripe(state);
+        synchronized (s) {
+            s.addReturn(state, action, g, w);
+        }
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        for (QTable s : stripes) {
+            synchronized (s) {
+                s.forEach(visitor);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (QTable s : stripes) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    @Override
+    public void removeStates(LongPredicate evict) {
+        for (QTable s : stripes) {
+            synchronized (s) {
+                s.removeStates(evict);
+            }
+        }
+    }
+
+    @Override
+    public void drain(EntryVisitor visitor) {
+        for (QTable s : stripes) {
+            synchronized (s) {
+                s.drain(visitor);
+            }
+        }
+    }
+
+    @Override
+    public int numStates() {
+        int n = 0;
+        for (QTable s : stripes) {
+            synchronized (s) {
+                n += s.numStates();
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,72 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.Arrays;
+
+/**
+ * The (state, action) pairs selected by a learner during one episode.
+ *
+ * <p>States and actions are stored as keys and indices in parallel
+ * arrays that are reused across episodes. Learners with a
+ * {@link HashedValueFunction} also store the features of each state,
+ * which are concatenated in one array.</p>
+ */
+class Episode {
+    private long[] states = new long[64];
+    private int[] actions = new int[64];
+    /** featureEnds[i] is the end of the features of step i in features */
+    private int[] featureEnds = new int[64];
+    private long[] features = new long[256];
+    private int size = 0;
+
+    void add(long state, int action) {
+        add(state, action, null, 0);
+    }
+
+    void add(long state, int action, long[] stateFeatures, int numFeatures) {
+        if (size == states.length) {
+            states = Arrays.copyOf(states, size * 2);
+            actions = Arrays.copyOf(actions, size * 2);
+            featureEnds = Arrays.copyOf(featureEnds, size * 2);
+        }
+        int start = featureStart(size);
+        if (start + numFeatures > features.length) {
+            features = Arrays.copyOf(features, Math.max(features.length * 2, start + numFeatures));
+        }
+        if (numFeatures > 0) {
+            System.arraycopy(stateFeatures, 0, features, start, numFeatures);
+        }
+        states[size] = state;
+        actions[size] = action;
+        featureEnds[size] = start + numFeatures;
+        size++;
+    }
+
+    long state(int i) {
+        return states[i];
+    }
+
+    int action(int i) {
+        return actions[i];
+    }
+
+    /** Returns all features; those of step i are in [featureStart(i), featureEnd(i)). */
+    long[] features() {
+        return features;
+    }
+
+    int featureStart(int i) {
+        return i == 0 ? 0 : featureEnds[i - 1];
+    }
+
+    int featureEnd(int i) {
+        return featureEnds[i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,158 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+/**
+ * How the epsilon of an {@link RLLearner} changes over time.
+ *
+ * <p>A schedule maps a number of ticks to an epsilon. By default, a tick is
+ * an episode of the learner, so epsilon follows the number of trials. A
+ * schedule can instead be driven by the plateau of the fuzzing run: ticks
+ * are then the episodes since the last positive reward, i.e. since the last
+ * new unique valid input (or new branches, with greybox rewards). Epsilon
+ * then decays while the run makes no progress, and restarts when it does.</p>
+ *
+ * <p>Schedules are given as strings in the generator parameters
+ * <tt>schedule</tt> (for all learners) and <tt>schedule.ID</tt> (for the
+ * learner with that id), as <tt>KIND:ARGS</tt> optionally followed by
+ * <tt>@plateau</tt>:</p>
+ * <ul>
+ *     <li><tt>constant:EPSILON</tt></li>
+ *     <li><tt>linear:START:END:TICKS</tt> goes from START to END in TICKS ticks</li>
+ *     <li><tt>exponential:START:END:RATE</tt> multiplies by RATE every tick, down to END</li>
+ *     <li><tt>step:START:END:FACTOR:TICKS</tt> multiplies by FACTOR every TICKS ticks, down to END</li>
+ * </ul>
+ */
+public abstract class ExplorationSchedule {
+
+    /** Name of the generator parameter with the schedule of all learners. */
+    public static final String PARAM = "schedule";
+
+    private static final String PLATEAU_SUFFIX = "@plateau";
+
+    /** Whether ticks are counted since the last positive reward, rather than from the start */
+    final boolean plateau;
+
+    ExplorationSchedule(boolean plateau) {
+        this.plateau = plateau;
+    }
+
+    /**
+     * Returns the epsilon after some ticks.
+     *
+     * @param ticks the number of ticks
+     * @return the epsilon, in [0, 1]
+     */
+    abstract double epsilon(long ticks);
+
+    /**
+     * Returns the schedule of the generator parameters for a learner, if any.
+     *
+     * @param params the generator parameters
+     * @param id the id of the learner
+     * @return the schedule, or null if none is given
+     */
+    static ExplorationSchedule fromParams(RLParams params, int id) {
+        String name = PARAM + "." + id;
+        if (params.exists(name)) {
+            return parse((String) params.get(name));
+        }
+        if (params.exists(PARAM)) {
+            return parse((String) params.get(PARAM));
+        }
+        return null;
+    }
+
+    /**
+     * Parses a schedule.
+     *
+     * @param spec the schedule, as described above
+     * @return the schedule
+     * @throws IllegalArgumentException if the schedule is malformed
+     */
+    public static ExplorationSchedule parse(String spec) {
+        boolean plateau = spec.endsWith(PLATEAU_SUFFIX);
+        String[] parts = (plateau ? spec.substring(0, spec.length() - PLATEAU_SUFFIX.length()) : spec).split(":");
+        try {
+            switch (parts[0]) {
+                case "constant":
+                    checkArgs(parts, 1);
+                    return new Exponential(Double.parseDouble(parts[1]), 0, 1, plateau);
+                case "linear":
+                    checkArgs(parts, 3);
+                    return new Linear(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            Long.parseLong(parts[3]), plateau);
+                case "exponential":
+                    checkArgs(parts, 3);
+                    return new Exponential(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            Double.parseDouble(parts[3]), plateau);
+                case "step":
+                    checkArgs(parts, 4);
+                    return new Step(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            Double.parseDouble(parts[3]), Long.parseLong(parts[4]), plateau);
+                default:
+                    throw new IllegalArgumentException("Unknown exploration schedule: " + spec);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed exploration schedule: " + spec, e);
+        }
+    }
+
+    private static void checkArgs(String[] parts, int n) {
+        if (parts.length != n + 1) {
+            throw new IllegalArgumentException("Exploration schedule " + parts[0] + " needs " + n + " arguments");
+        }
+    }
+
+    /** Goes linearly from a start to an end epsilon, and stays there. */
+    static class Linear extends ExplorationSchedule {
+        private final double start, end;
+        private final long ticks;
+
+        Linear(double start, double end, long ticks, boolean plateau) {
+            super(plateau);
+            this.start = start;
+            this.end = end;
+            this.ticks = Math.max(1, ticks);
+        }
+
+        @Override
+        double epsilon(long t) {
+            return t >= ticks ? end : start + (end - start) * t / ticks;
+        }
+    }
+
+    /** Multiplies epsilon by a rate every tick, down to a minimum. */
+    static class Exponential extends ExplorationSchedule {
+        private final double start, end, rate;
+
+        Exponential(double start, double end, double rate, boolean plateau) {
+            super(plateau);
+            this.start = start;
+            this.end = end;
+            this.rate = rate;
+        }
+
+        @Override
+        double epsilon(long t) {
+            return Math.max(end, start * Math.pow(rate, t));
+        }
+    }
+
+    /** Multiplies epsilon by a factor every so many ticks, down to a minimum. */
+    static class Step extends ExplorationSchedule {
+        private final double start, end, factor;
+        private final long ticks;
+
+        Step(double start, double end, double factor, long ticks, boolean plateau) {
+            super(plateau);
+            this.start = start;
+            this.end = end;
+            this.factor = factor;
+            this.ticks = Math.max(1, ticks);
+        }
+
+        @Override
+        double epsilon(long t) {
+            return Math.max(end, start * Math.pow(factor, t / ticks));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * The original Q-table layout: each state maps to a map from action
+ * to boxed (Q, C) pairs.
+ *
+ * <p>Kept for comparison with {@link PrimitiveQTable}.</p>
+ */
+public class HashQTable implements QTable {
+
+    /** State maps to map which maps action to (Q, C) pairs. */
+    private final HashMap<Long, HashMap<Integer, AbstractMap.SimpleEntry<Double, Double>>> qcTable = new HashMap<>();
+
+    @Override
+    public boolean containsState(long state) {
+        return qcTable.containsKey(state);
+    }
+
+    @Override
+    public double getQ(long state, int action) {
+        AbstractMap.SimpleEntry<Double, Double> qcPair = QC(state, action);
+        return qcPair == null ? 0. : qcPair.getKey();
+    }
+
+    @Override
+    public double getC(long state, int action) {
+        AbstractMap.SimpleEntry<Double, Double> qcPair = QC(state, action);
+        return qcPair == null ? 0. : qcPair.getValue();
+    }
+
+    @Override
+    public void put(long state, int action, double q, double c) {
+        HashMap<Integer, AbstractMap.SimpleEntry<Double, Double>> actionTable = qcTable.get(state);
+        if (actionTable == null) {
+            // Table for given state not found
+            actionTable = new HashMap<>();
+            qcTable.put(state, actionTable);
+        }
+        actionTable.put(action, new AbstractMap.SimpleEntry<>(q, c));
+    }
+
+    @Override
+    public int numStates() {
+        return qcTable.size();
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        for (Map.Entry<Long, HashMap<Integer, AbstractMap.SimpleEntry<Double, Double>>> s : qcTable.entrySet()) {
+            for (Map.Entry<Integer, AbstractMap.SimpleEntry<Double, Double>> a : s.getValue().entrySet()) {
+                visitor.visit(s.getKey(), a.getKey(), a.getValue().getKey(), a.getValue().getValue());
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        qcTable.clear();
+    }
+
+    @Override
+    public void removeStates(LongPredicate evict) {
+        qcTable.keySet().removeIf(evict::test);
+    }
+
+    /** Returns the (Q, C) pair for a state and action, or null if not found. */
+    private AbstractMap.SimpleEntry<Double, Double> QC(long state, int action) {
+        HashMap<Integer, AbstractMap.SimpleEntry<Double, Double>> actionTable = qcTable.get(state);
+        if (actionTable != null) {
+            return actionTable.get(action);
+        }
+        return null;
+    }
+}
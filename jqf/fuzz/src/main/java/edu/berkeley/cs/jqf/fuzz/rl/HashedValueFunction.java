@@ -0,0 +1,128 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A linear approximation of the Q values of a single {@link RLLearner},
+ * used instead of its Q-table for large state spaces.
+ *
+ * <p>A state is described by a few 64-bit features, such as the hashes of
+ * the suffixes of an {@link RLState} window (see
+ * {@link RLState#suffixHashes(long[])}). The Q value of an action is the
+ * sum of the weights of its (feature, action) pairs, which are hashed
+ * into a fixed-size weight vector. A state that has never been seen thus
+ * gets the values learned for the features it shares with other states,
+ * such as its most recent tokens, and memory does not grow with the
+ * number of states.</p>
+ *
+ * <p>Weights are trained online by stochastic gradient descent on the
+ * squared error to the returns. Each weight has its own step size, which
+ * starts as that of a sample average, 1/C, where C counts the returns
+ * the weight was updated with, and stops decaying at the learning rate.
+ * Weights of features shared by many states thus settle, while those of
+ * rare states still learn quickly. With a single feature and no
+ * collisions, this learns the same values as a Q-table.</p>
+ *
+ * <p>Updates are not atomic. Learners sharing a value function in
+ * several threads may lose some updates, which stochastic gradient
+ * descent tolerates.</p>
+ */
+class HashedValueFunction {
+
+    /** Weights of hashed (feature, action) pairs */
+    private final double[] weights;
+
+    /** Number of returns seen for hashed (feature, action) pairs */
+    private final double[] counts;
+
+    private final int mask;
+
+    private final double learningRate;
+
+    /**
+     * Creates a value function with all weights zero.
+     *
+     * @param bits the log2 of the number of weights
+     * @param learningRate the minimum step size of updates
+     */
+    HashedValueFunction(int bits, double learningRate) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("Number of weight bits must be in [1, 30]: " + bits);
+        }
+        this.weights = new double[1 << bits];
+        this.counts = new double[1 << bits];
+        this.mask = (1 << bits) - 1;
+        this.learningRate = learningRate;
+    }
+
+    private int index(long feature, int action) {
+        return PrimitiveQTable.mix(feature + action * 0xC2B2AE3D27D4EB4FL) & mask;
+    }
+
+    /**
+     * Returns the Q value of an action in a state.
+     *
+     * @param features the features of the state are <tt>features[from..to)</tt>
+     * @param action the action index
+     * @return the sum of the weights of the features for the action
+     */
+    double getQ(long[] features, int from, int to, int action) {
+        double q = 0;
+        for (int i = from; i < to; i++) {
+            q += weights[index(features[i], action)];
+        }
+        return q;
+    }
+
+    /**
+     * Returns the number of returns seen for an action in a state, which
+     * is that of its first feature.
+     */
+    double getC(long[] features, int from, int to, int action) {
+        return from < to ? counts[index(features[from], action)] : 0;
+    }
+
+    /**
+     * Moves the Q value of an action in a state towards a return.
+     *
+     * @param features the features of the state are <tt>features[from..to)</tt>
+     * @param action the action index
+     * @param g the observed return
+     * @param w the weight of the return
+     */
+    void addReturn(long[] features, int from, int to, int action, double g, double w) {
+        if (from == to) {
+            return;
+        }
+        double error = (g - getQ(features, from, to, action)) / (to - from);
+        for (int i = from; i < to; i++) {
+            int j = index(features[i], action);
+            double c = counts[j] + w;
+            counts[j] = c;
+            weights[j] += Math.max(learningRate, w / c) * error;
+        }
+    }
+
+    /** Returns the number of weights. */
+    int size() {
+        return weights.length;
+    }
+
+    /** Writes all weights and counts. */
+    void writeTo(DataOutputStream out) throws IOException {
+        for (int i = 0; i < weights.length; i++) {
+            out.writeDouble(weights[i]);
+            out.writeDouble(counts[i]);
+        }
+    }
+
+    /** Replaces all weights and counts by those written with {@link #writeTo}. */
+    void readFrom(ByteBuffer in) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = in.getDouble();
+            counts[i] = in.getDouble();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.BloomFilter;
+import edu.berkeley.cs.jqf.fuzz.util.FingerprintSet;
+
+/**
+ * The results of executed inputs, used by {@link RLGuidance} to skip
+ * executing an input it has already executed, and replay its result
+ * instead.
+ *
+ * <p>Inputs are identified by their 64-bit fingerprints. Only results
+ * that are the same every time an input is executed are recorded:
+ * {@link Result#SUCCESS} and {@link Result#INVALID}, assuming that the
+ * test is deterministic. Failures are not recorded, because the guidance
+ * needs their errors, nor are timeouts.</p>
+ *
+ * <p>An exact cache remembers inputs until it holds a given number of
+ * them, and then keeps them in Bloom filters (see {@link FingerprintSet}).
+ * A probabilistic cache uses a Bloom filter per result from the start, in
+ * fixed memory. Both may report a result for a small fraction of inputs
+ * that were never executed. An input recorded with both results, e.g.
+ * because of such a false positive, has no result.</p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+abstract class InputCache {
+
+    /**
+     * Creates a cache.
+     *
+     * @param type "exact" or "bloom"
+     * @param size the maximum number of inputs remembered per result by an
+     *             exact cache (0 for no limit), or the log2 of the number
+     *             of bits per result of a probabilistic cache
+     * @return the cache
+     */
+    static InputCache create(String type, int size) {
+        switch (type) {
+            case "exact":
+                return new Exact(size);
+            case "bloom":
+                return new Bloom(size);
+            default:
+                throw new IllegalArgumentException("Unknown input cache: " + type);
+        }
+    }
+
+    /**
+     * Returns the recorded result of an input.
+     *
+     * @param fingerprint the fingerprint of the input
+     * @return the result, or <tt>null</tt> if none is recorded
+     */
+    abstract Result get(long fingerprint);
+
+    /**
+     * Records the result of an executed input, if it is deterministic.
+     *
+     * @param fingerprint the fingerprint of the input
+     * @param result the result of executing it
+     */
+    abstract void put(long fingerprint, Result result);
+
+    private static Result result(boolean valid, boolean invalid) {
+        if (valid == invalid) {
+            return null; // Unknown, or ambiguous
+        }
+        return valid ? Result.SUCCESS : Result.INVALID;
+    }
+
+    private static class Exact extends InputCache {
+        private final FingerprintSet valid;
+        private final FingerprintSet invalid;
+
+        Exact(int maxSize) {
+            this.valid = new FingerprintSet(maxSize);
+            this.invalid = new FingerprintSet(maxSize);
+        }
+
+        @Override
+        Result get(long fingerprint) {
+            return result(valid.contains(fingerprint), invalid.contains(fingerprint));
+        }
+
+        @Override
+        void put(long fingerprint, Result result) {
+            if (result == Result.SUCCESS) {
+                valid.add(fingerprint);
+            } else if (result == Result.INVALID) {
+                invalid.add(fingerprint);
+            }
+        }
+    }
+
+    private static class Bloom extends InputCache {
+        private final BloomFilter valid;
+        private final BloomFilter invalid;
+
+        Bloom(int bits) {
+            this.valid = new BloomFilter(bits);
+            this.invalid = new BloomFilter(bits);
+        }
+
+        @Override
+        Result get(long fingerprint) {
+            return result(valid.mightContain(fingerprint), invalid.mightContain(fingerprint));
+        }
+
+        @Override
+        void put(long fingerprint, Result result) {
+            if (result == Result.SUCCESS) {
+                valid.add(fingerprint);
+            } else if (result == Result.INVALID) {
+                invalid.add(fingerprint);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns consecutive int ids to values, in the order they are first seen.
+ *
+ * <p>Looking up a known value does not lock, so one interner can be
+ * shared by several workers. New values are added under a lock, which
+ * guarantees that every value gets exactly one id.</p>
+ */
+class Interner<T> {
+    private final ConcurrentHashMap<T, Integer> ids = new ConcurrentHashMap<>();
+    private final List<T> values = new ArrayList<>();
+
+    /** Returns the id of a value, assigning the next id if it is new. */
+    int id(T value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            synchronized (this) {
+                id = ids.get(value);
+                if (id == null) {
+                    id = values.size();
+                    values.add(value);
+                    added(id, value);
+                    ids.put(value, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Called, under the lock, when a new value is assigned an id.
+     * Any state set here is visible to threads that obtain this id.
+     */
+    protected void added(int id, T value) {
+    }
+
+    /** Returns the value with the given id. */
+    synchronized T get(int id) {
+        return values.get(id);
+    }
+
+    /** Returns the number of interned values. */
+    synchronized int size() {
+        return values.size();
+    }
+}
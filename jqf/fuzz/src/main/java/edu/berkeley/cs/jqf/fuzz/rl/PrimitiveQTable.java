@@ -0,0 +1,216 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * A Q-table backed by primitive arrays.
+ *
+ * <p>(state, action) pairs are stored in an open-addressing hash table
+ * with linear probing, whose Q and C values are kept in two parallel
+ * <tt>double[]</tt> arrays. A second open-addressing set records which
+ * states have been stored. Neither lookups nor updates allocate, except
+ * when a table has to grow.</p>
+ *
+ * <p>Memory use is proportional to the number of stored pairs, so
+ * learners whose action space grows over time (such as identifiers)
+ * do not blow up the table.</p>
+ */
+public class PrimitiveQTable implements QTable {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /** State key of each entry. */
+    private long[] entryStates;
+
+    /** Action index of each entry, plus one (zero means empty). */
+    private int[] entryActions;
+
+    /** Q value of each entry. */
+    private double[] q;
+
+    /** C value of each entry. */
+    private double[] c;
+
+    /** The number of entries in use. */
+    private int numEntries;
+
+    /** Keys of the set of stored states. */
+    private long[] stateKeys;
+
+    /** Whether each slot of the state set is used. */
+    private boolean[] stateUsed;
+
+    /** The number of stored states. */
+    private int numStates;
+
+    public PrimitiveQTable() {
+        this.entryStates = new long[INITIAL_CAPACITY];
+        this.entryActions = new int[INITIAL_CAPACITY];
+        this.q = new double[INITIAL_CAPACITY];
+        this.c = new double[INITIAL_CAPACITY];
+        this.stateKeys = new long[INITIAL_CAPACITY];
+        this.stateUsed = new boolean[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public boolean containsState(long state) {
+        int mask = stateKeys.length - 1;
+        for (int i = mix(state) & mask; stateUsed[i]; i = (i + 1) & mask) {
+            if (stateKeys[i] == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double getQ(long state, int action) {
+        int i = find(state, action);
+        return i < 0 ? 0. : q[i];
+    }
+
+    @Override
+    public double getC(long state, int action) {
+        int i = find(state, action);
+        return i < 0 ? 0. : c[i];
+    }
+
+    @Override
+    public void put(long state, int action, double q, double c) {
+        int i = find(state, action);
+        if (i < 0) {
+            if ((numEntries + 1) * 2 > entryStates.length) {
+                rehashEntries(entryStates.length * 2, s -> false);
+            }
+            i = insertEntry(state, action + 1);
+            numEntries++;
+            addState(state);
+        }
+        this.q[i] = q;
+        this.c[i] = c;
+    }
+
+    @Override
+    public int numStates() {
+        return numStates;
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        for (int i = 0; i < entryStates.length; i++) {
+            if (entryActions[i] != 0) {
+                visitor.visit(entryStates[i], entryActions[i] - 1, q[i], c[i]);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(entryActions, 0);
+        Arrays.fill(stateUsed, false);
+        numEntries = 0;
+        numStates = 0;
+    }
+
+    @Override
+    public void removeStates(LongPredicate evict) {
+        // Reinsert the remaining entries and states, keeping the capacity
+        rehashEntries(entryStates.length, evict);
+        long[] oldKeys = stateKeys;
+        boolean[] oldUsed = stateUsed;
+        stateKeys = new long[oldKeys.length];
+        stateUsed = new boolean[oldKeys.length];
+        numStates = 0;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j] && !evict.test(oldKeys[j])) {
+                insertState(oldKeys[j]);
+                numStates++;
+            }
+        }
+    }
+
+    /** Spreads the bits of a key before masking. */
+    static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static int mix(long state, int action) {
+        return mix(state + action * 0xC2B2AE3D27D4EB4FL);
+    }
+
+    /** Returns the slot of a (state, action) entry, or -1 if not present. */
+    private int find(long state, int action) {
+        int mask = entryStates.length - 1;
+        int tag = action + 1;
+        for (int i = mix(state, action) & mask; entryActions[i] != 0; i = (i + 1) & mask) {
+            if (entryActions[i] == tag && entryStates[i] == state) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Inserts an entry known to be absent, and returns its slot. */
+    private int insertEntry(long state, int tag) {
+        int mask = entryStates.length - 1;
+        int i = mix(state, tag - 1) & mask;
+        while (entryActions[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        entryStates[i] = state;
+        entryActions[i] = tag;
+        return i;
+    }
+
+    /** Moves all entries to new arrays, dropping those of evicted states. */
+    private void rehashEntries(int capacity, LongPredicate evict) {
+        long[] oldStates = entryStates;
+        int[] oldActions = entryActions;
+        double[] oldQ = q;
+        double[] oldC = c;
+        entryStates = new long[capacity];
+        entryActions = new int[capacity];
+        q = new double[capacity];
+        c = new double[capacity];
+        numEntries = 0;
+        for (int j = 0; j < oldStates.length; j++) {
+            if (oldActions[j] != 0 && !evict.test(oldStates[j])) {
+                numEntries++;
+                int i = insertEntry(oldStates[j], oldActions[j]);
+                q[i] = oldQ[j];
+                c[i] = oldC[j];
+            }
+        }
+    }
+
+    private void addState(long state) {
+        if (containsState(state)) {
+            return;
+        }
+        if ((numStates + 1) * 2 > stateKeys.length) {
+            long[] oldKeys = stateKeys;
+            boolean[] oldUsed = stateUsed;
+            stateKeys = new long[oldKeys.length * 2];
+            stateUsed = new boolean[oldKeys.length * 2];
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldUsed[j]) {
+                    insertState(oldKeys[j]);
+                }
+            }
+        }
+        insertState(state);
+        numStates++;
+    }
+
+    private void insertState(long state) {
+        int mask = stateKeys.length - 1;
+        int i = mix(state) & mask;
+        while (stateUsed[i]) {
+            i = (i + 1) & mask;
+        }
+        stateKeys[i] = state;
+        stateUsed[i] = true;
+    }
+}
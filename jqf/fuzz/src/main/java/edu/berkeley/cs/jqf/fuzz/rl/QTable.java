@@ -0,0 +1,132 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Storage for the Q and C values of a single {@link RLLearner}.
+ *
+ * <p>States are identified by a <tt>long</tt> key and actions by their
+ * <tt>int</tt> index, both of which are assigned by the learner. Values
+ * for (state, action) pairs that have never been stored are zero.</p>
+ */
+public interface QTable {
+
+    /** Backend name for {@link HashQTable}. */
+    String HASH = "hash";
+
+    /** Backend name for {@link PrimitiveQTable}. */
+    String PRIMITIVE = "primitive";
+
+    /**
+     * Returns whether any value has been stored for the given state.
+     *
+     * @param state the state key
+     * @return <tt>true</tt> iff {@link #put} was called for this state
+     */
+    boolean containsState(long state);
+
+    /**
+     * Returns the Q value (estimated return) of an action in a state.
+     *
+     * @param state the state key
+     * @param action the action index
+     * @return the Q value, or zero if not stored
+     */
+    double getQ(long state, int action);
+
+    /**
+     * Returns the C value (cumulative weight) of an action in a state.
+     *
+     * @param state the state key
+     * @param action the action index
+     * @return the C value, or zero if not stored
+     */
+    double getC(long state, int action);
+
+    /**
+     * Stores the Q and C values of an action in a state.
+     *
+     * @param state the state key
+     * @param action the action index
+     * @param q the new Q value
+     * @param c the new C value
+     */
+    void put(long state, int action, double q, double c);
+
+    /**
+     * Adds a weighted return to the running average of an action in a
+     * state: C is increased by <tt>w</tt>, and Q moves towards <tt>g</tt>
+     * by <tt>w / C</tt>.
+     *
+     * <p>Tables that are shared between threads perform this update
+     * atomically.</p>
+     *
+     * @param state the state key
+     * @param action the action index
+     * @param g the observed return
+     * @param w the weight of the return
+     */
+    default void addReturn(long state, int action, double g, double w) {
+        double q = getQ(state, action);
+        double c = getC(state, action) + w;
+        put(state, action, q + (w / c) * (g - q), c);
+    }
+
+    /**
+     * Returns the number of states stored in this table.
+     *
+     * @return the number of states stored in this table
+     */
+    int numStates();
+
+    /**
+     * Calls the visitor with the values of every stored (state, action) pair.
+     *
+     * @param visitor the visitor
+     */
+    void forEach(EntryVisitor visitor);
+
+    /** Removes all stored values. */
+    void clear();
+
+    /**
+     * Removes the values of all actions in the states matching a predicate.
+     *
+     * @param evict returns <tt>true</tt> for the states to remove
+     */
+    void removeStates(LongPredicate evict);
+
+    /**
+     * Calls the visitor with every stored (state, action) pair and
+     * removes them. Tables that are shared between threads do not lose
+     * values stored concurrently.
+     *
+     * @param visitor the visitor
+     */
+    default void drain(EntryVisitor visitor) {
+        forEach(visitor);
+        clear();
+    }
+
+    /** Receives the stored values of a table (see {@link #forEach}). */
+    interface EntryVisitor {
+        void visit(long state, int action, double q, double c);
+    }
+
+    /**
+     * Creates an empty table with the given backend.
+     *
+     * @param backend either {@link #HASH} or {@link #PRIMITIVE}
+     * @return a new empty table
+     */
+    static QTable create(String backend) {
+        switch (backend) {
+            case HASH:
+                return new HashQTable();
+            case PRIMITIVE:
+                return new PrimitiveQTable();
+            default:
+                throw new IllegalArgumentException("Unknown Q-table backend: " + backend);
+        }
+    }
+}
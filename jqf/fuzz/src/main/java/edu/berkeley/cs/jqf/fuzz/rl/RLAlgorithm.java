@@ -0,0 +1,65 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+/**
+ * The learning algorithm of the learners of an {@link RLGuide}: how they
+ * select actions ({@link SelectionPolicy}) and how they learn from rewards
+ * ({@link UpdateRule}).
+ *
+ * <p>Algorithms are chosen by name with the {@link #PARAM} generator
+ * parameter:</p>
+ * <ul>
+ *     <li><tt>mcc</tt> (default): epsilon-greedy Monte Carlo control</li>
+ *     <li><tt>qlearning</tt>, <tt>sarsa</tt>: epsilon-greedy with temporal-difference updates</li>
+ *     <li><tt>ucb1</tt>, <tt>thompson</tt>: per-state bandits with Monte Carlo updates</li>
+ *     <li><tt>softmax</tt>: softmax with a decaying temperature, with Monte Carlo updates</li>
+ * </ul>
+ *
+ * <p>The optional parameters <tt>rewardScale</tt> (default 20) and
+ * <tt>discount</tt> (default 1) tune the exploration of bonus-based
+ * policies and the discount of temporal-difference updates.</p>
+ */
+public class RLAlgorithm {
+
+    /** Name of the generator parameter choosing the algorithm. */
+    public static final String PARAM = "algorithm";
+
+    /** The default algorithm: epsilon-greedy Monte Carlo control. */
+    public static final RLAlgorithm MCC = new RLAlgorithm(new SelectionPolicy.EpsilonGreedy(), new UpdateRule.MonteCarlo());
+
+    final SelectionPolicy selection;
+
+    final UpdateRule update;
+
+    RLAlgorithm(SelectionPolicy selection, UpdateRule update) {
+        this.selection = selection;
+        this.update = update;
+    }
+
+    /**
+     * Creates the algorithm chosen by generator parameters.
+     *
+     * @param params algorithm, rewardScale, discount (all optional)
+     * @return the algorithm
+     */
+    public static RLAlgorithm create(RLParams params) {
+        String name = params.exists(PARAM) ? (String) params.get(PARAM) : "mcc";
+        double rewardScale = params.exists("rewardScale") ? (double) params.get("rewardScale") : 20;
+        double discount = params.exists("discount") ? (double) params.get("discount") : 1;
+        switch (name) {
+            case "mcc":
+                return MCC;
+            case "qlearning":
+                return new RLAlgorithm(new SelectionPolicy.EpsilonGreedy(), new UpdateRule.TemporalDifference(discount, false));
+            case "sarsa":
+                return new RLAlgorithm(new SelectionPolicy.EpsilonGreedy(), new UpdateRule.TemporalDifference(discount, true));
+            case "ucb1":
+                return new RLAlgorithm(new SelectionPolicy.Ucb1(rewardScale), new UpdateRule.MonteCarlo());
+            case "thompson":
+                return new RLAlgorithm(new SelectionPolicy.Thompson(rewardScale), new UpdateRule.MonteCarlo());
+            case "softmax":
+                return new RLAlgorithm(new SelectionPolicy.Softmax(rewardScale), new UpdateRule.MonteCarlo());
+            default:
+                throw new IllegalArgumentException("Unknown learning algorithm: " + name);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the state of an RLCheck run to its output directory, so that an
+ * interrupted run can be resumed.
+ *
+ * <p>A checkpoint holds the learned policy and the state of its guides
+ * (see {@link RLPolicy#writeSnapshot}), followed by the bookkeeping of
+ * the guidance: counters, unique valid inputs, paths, branch sets and
+ * failures, and cumulative coverage. It is written to a temporary file
+ * and then renamed, so the previous checkpoint remains intact if the run
+ * is killed while writing. Checkpoints are loaded by mapping the file
+ * into memory, which keeps loading large Q-tables fast.</p>
+ */
+public class RLCheckpoint {
+
+    /** Name of the checkpoint file in the output directory. */
+    public static final String FILE_NAME = "checkpoint";
+
+    private static final int MAGIC = 0x524c434b; // "RLCK"
+
+    private static final int VERSION = 5;
+
+    private final File file;
+
+    private final RLPolicy policy;
+
+    private final long periodMillis;
+
+    /** Time of the last checkpoint */
+    private volatile long lastSave = System.currentTimeMillis();
+
+    /**
+     * Creates a checkpoint for one run.
+     *
+     * @param outputDirectory the output directory of the run
+     * @param policy          the policy shared by all generators of the run
+     * @param periodMillis    the minimum time between two checkpoints
+     */
+    public RLCheckpoint(File outputDirectory, RLPolicy policy, long periodMillis) {
+        this.file = new File(outputDirectory, FILE_NAME);
+        this.policy = policy;
+        this.periodMillis = periodMillis;
+    }
+
+    /** Returns whether the period since the last checkpoint has elapsed. */
+    boolean isDue() {
+        return System.currentTimeMillis() - lastSave >= periodMillis;
+    }
+
+    /**
+     * Saves the state of the policy and of the guidance.
+     *
+     * @param guidance the guidance of the run
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void save(RLGuidance guidance) throws IOException {
+        lastSave = System.currentTimeMillis();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            policy.writeSnapshot(out);
+            guidance.writeSnapshot(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Restores the state of the policy and of the guidance from the last
+     * checkpoint. The generators must have been initialized, and the
+     * guidance created for resuming.
+     *
+     * @param guidance the guidance of the run
+     * @throws IOException if there is no checkpoint, or it cannot be read
+     */
+    public void load(RLGuidance guidance) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("No checkpoint to resume from: " + file.getAbsolutePath());
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a checkpoint of this version: " + file.getAbsolutePath());
+            }
+            policy.readSnapshot(in);
+            guidance.readSnapshot(in);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.util.FingerprintSet;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reports the merged progress of RLCheck processes that share a sync
+ * directory (see {@link RLSync}).
+ *
+ * <p>Prints the executions, unique valid inputs and coverage of each
+ * process, followed by their union.</p>
+ */
+public class RLCoordinator {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + RLCoordinator.class + " SYNC_DIR [REFRESH_SECONDS]");
+            System.exit(1);
+        }
+
+        File syncDirectory = new File(args[0]);
+        long refreshSeconds = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        while (true) {
+            report(syncDirectory);
+            if (refreshSeconds <= 0) {
+                break;
+            }
+            Thread.sleep(refreshSeconds * 1000);
+        }
+    }
+
+    private static void report(File syncDirectory) throws IOException {
+        File[] workers = syncDirectory.listFiles(File::isDirectory);
+        if (workers == null) {
+            throw new FileNotFoundException("Not a directory: " + syncDirectory);
+        }
+        Arrays.sort(workers);
+
+        long totalTrials = 0, totalValid = 0;
+        BitSet totalCoverage = new BitSet(), validCoverage = new BitSet();
+        FingerprintSet uniqueValidInputs = new FingerprintSet();
+
+        String format = "%-20s %12s %12s %14s %10s %10s\n";
+        System.out.printf(format, "worker", "execs", "valid", "unique valid", "total cov", "valid cov");
+        for (File worker : workers) {
+            File statusFile = new File(worker, RLSync.STATUS_FILE);
+            if (!statusFile.exists()) {
+                continue;
+            }
+            // Valid input hashes found by a worker are at the start of its sync files
+            FingerprintSet ownValidInputs = new FingerprintSet();
+            File[] syncFiles = worker.listFiles((dir, name) -> name.startsWith("sync-") && !name.endsWith(".tmp"));
+            for (File syncFile : syncFiles) {
+                try (DataInputStream in = RLSync.open(syncFile)) {
+                    RLSync.readHashes(in, ownValidInputs);
+                }
+            }
+            for (long hash : ownValidInputs.toArray()) {
+                uniqueValidInputs.add(hash);
+            }
+
+            try (DataInputStream in = RLSync.open(statusFile)) {
+                long numTrials = in.readLong();
+                long numValid = in.readLong();
+                in.readLong(); // unique valid inputs, including those of other workers
+                in.readInt(); // unique failures
+                int[] total = RLSync.readCoverage(in);
+                int[] valid = RLSync.readCoverage(in);
+                System.out.printf(format, worker.getName(), String.format("%,d", numTrials),
+                        String.format("%,d", numValid), String.format("%,d", ownValidInputs.size()),
+                        String.format("%,d", total.length), String.format("%,d", valid.length));
+
+                totalTrials += numTrials;
+                totalValid += numValid;
+                for (int idx : total) {
+                    totalCoverage.set(idx);
+                }
+                for (int idx : valid) {
+                    validCoverage.set(idx);
+                }
+            }
+        }
+        System.out.printf(format, "merged", String.format("%,d", totalTrials), String.format("%,d", totalValid),
+                String.format("%,d", uniqueValidInputs.size()), String.format("%,d", totalCoverage.cardinality()),
+                String.format("%,d", validCoverage.cardinality()));
+    }
+}
@@ -21,6 +21,27 @@ import java.io.BufferedReader;
  */
 public class RLDriver {
 
+    /** Number of worker threads fuzzing in parallel with a shared policy */
+    static final int NUM_WORKERS = Integer.getInteger("rl.driver.NUM_WORKERS", 1);
+
+    /** Directory shared with other processes fuzzing the same test, if any (see {@link RLSync}) */
+    static final String SYNC_DIR = System.getProperty("rl.driver.SYNC_DIR");
+
+    /** Name of this process in the sync directory (defaults to the name of the output directory) */
+    static final String SYNC_NAME = System.getProperty("rl.driver.SYNC_NAME");
+
+    /** Minimum time between two exchanges with other processes, in milliseconds */
+    static final long SYNC_PERIOD = Long.getLong("rl.driver.SYNC_PERIOD", 10_000);
+
+    /** Minimum time between two checkpoints of the run, in milliseconds (0, the default, disables them; see {@link RLCheckpoint}) */
+    static final long CHECKPOINT_PERIOD = Long.getLong("rl.driver.CHECKPOINT_PERIOD", 0);
+
+    /** Checkpoint period of a resumed run that does not set one, in milliseconds */
+    static final long RESUMED_CHECKPOINT_PERIOD = 300_000;
+
+    /** Whether to resume the run from the checkpoint in the output directory */
+    static final boolean RESUME = Boolean.getBoolean("rl.driver.RESUME");
+
     public static void main(String[] args) {
 
         if (args.length < 4){
@@ -35,6 +56,10 @@ public class RLDriver {
         String outputDirectoryName = args.length > 4 ? args[4] : "fuzz-results";
 
         File outputDirectory = new File(outputDirectoryName);
+        // A resumed run is checkpointed, so that it can be resumed again
+        long checkpointPeriod = CHECKPOINT_PERIOD > 0 ? CHECKPOINT_PERIOD : RESUME ? RESUMED_CHECKPOINT_PERIOD : 0;
+        RLGuidance guidance = null;
+        int status = 0;
         try {
 
             RLParamParser paramParser = new RLParamParser();
@@ -46,26 +71,88 @@ public class RLDriver {
             System.out.println(clazz.toString());
             Constructor<?> ctor = clazz.getConstructor();
             System.out.println(ctor);
-            RLGenerator gen = (RLGenerator) ctor.newInstance();
 
-            // Set parameters
-            gen.init(params);
-
-
-            // Load the guidance
             String title = testClassName+"#"+testMethodName + " (" + genClassName + ")";
-            Guidance guidance = new RLGuidance(gen, title, null, outputDirectory);
 
-            // Run the Junit test
-            GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
+            // Workers in this process and other processes learn into one policy
+            RLPolicy policy = null;
+            String syncName = SYNC_NAME != null ? SYNC_NAME : outputDirectory.getName();
+            if (NUM_WORKERS > 1 || SYNC_DIR != null || checkpointPeriod > 0) {
+                boolean async = params.exists("asyncUpdates") && (boolean) params.get("asyncUpdates");
+                policy = RLPolicy.create(params, NUM_WORKERS > 1 || async);
+                if (SYNC_DIR != null) {
+                    policy.recordReturns();
+                }
+            }
+
+            List<Guidance> workers = new ArrayList<>();
+            for (int i = 0; i < NUM_WORKERS; i++) {
+                RLParams workerParams = params;
+                if (policy != null) {
+                    workerParams = new RLParams(params);
+                    workerParams.add(RLPolicy.PARAM, policy);
+                    // Give each worker its own seed, so that they explore differently
+                    if (params.exists("seed")) {
+                        long seed = (long) params.get("seed") + i;
+                        if (SYNC_DIR != null) {
+                            seed += syncName.hashCode();
+                        }
+                        workerParams.add("seed", seed);
+                    }
+                }
+                RLGenerator gen = (RLGenerator) ctor.newInstance();
+
+                // Set parameters
+                gen.init(workerParams);
+
+                // Load the guidance
+                if (guidance == null) {
+                    guidance = new RLGuidance(gen, title, null, outputDirectory, RESUME);
+                    workers.add(guidance);
+                } else {
+                    workers.add(guidance.newWorker(gen));
+                }
+            }
+
+            if (policy != null) {
+                guidance.setPolicy(policy);
+                RLCheckpoint checkpoint = new RLCheckpoint(outputDirectory, policy, checkpointPeriod);
+                if (RESUME) {
+                    checkpoint.load(guidance);
+                }
+                if (checkpointPeriod > 0) {
+                    guidance.setCheckpoint(checkpoint);
+                }
+            }
+
+            if (SYNC_DIR != null) {
+                guidance.setSync(new RLSync(new File(SYNC_DIR), syncName, policy, SYNC_PERIOD));
+            }
+
+            if (NUM_WORKERS <= 1) {
+                // Run the Junit test
+                GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
+            } else {
+                // Run the Junit test in each worker thread
+                GuidedFuzzing.runParallel(testClassName, testMethodName, workers, System.out);
+            }
 
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(2);
+            status = 2;
+        } finally {
+            // Write the pending output files, even if the run failed
+            if (guidance != null) {
+                try {
+                    guidance.close();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    status = 2;
+                }
+            }
+        }
+        if (status != 0) {
+            System.exit(status);
         }
-
-
-
-
     }
 }
@@ -3,27 +3,49 @@ import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.guidance.StructuredInputGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.FingerprintSet;
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.fuzz.util.LatencyHistogram;
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeCounters;
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.events.IntBranchSink;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
  * Created by clemieux on 6/17/19.
  */
-public class RLGuidance implements Guidance {
 
-    private RLGenerator generator;
+/**
+ * Guidance that rewards an {@link RLGenerator} for unique valid inputs.
+ *
+ * <p>Inputs are generated and executed by {@link Worker}s. Used directly,
+ * this guidance runs a single worker. For parallel fuzzing, one worker per
+ * thread is created with {@link #newWorker(RLGenerator)}; all workers
+ * record their results in the bookkeeping of this guidance, which is safe
+ * for concurrent use.</p>
+ *
+ * <p>Generated inputs are strings. Tests that take a single string,
+ * reader or input stream receive them directly (see
+ * {@link StructuredInputGuidance}); other tests decode their arguments
+ * from the UTF-8 bytes of the input.</p>
+ */
+public class RLGuidance implements StructuredInputGuidance {
 
-    // Currently, we only support single-threaded applications
-    // This field is used to ensure that
-    protected Thread appThread;
+    /** The worker used when this guidance is run directly. */
+    private final Worker mainWorker;
 
     /** A pseudo-random number generator for generating fresh values. */
     protected Random random = new Random();
@@ -37,10 +59,10 @@ public class RLGuidance implements Guidance {
     protected final long maxDurationMillis;
 
     /** The number of trials completed. */
-    protected long numTrials = 0;
+    protected final AtomicLong numTrials = new AtomicLong();
 
     /** The number of valid inputs. */
-    protected long numValid = 0;
+    protected final AtomicLong numValid = new AtomicLong();
 
     /** The directory where fuzzing results are written. */
     protected final File outputDirectory;
@@ -58,28 +80,24 @@ public class RLGuidance implements Guidance {
      */
     protected int numSavedInputs = 0;
 
-    /** Coverage statistics for a single run. */
-    protected Coverage runCoverage = new Coverage();
-
     /** Cumulative coverage statistics. */
     protected Coverage totalCoverage = new Coverage();
 
     /** Cumulative coverage for valid inputs. */
     protected Coverage validCoverage = new Coverage();
 
-//    protected Set<String> uniqueValidInputs = new HashSet<>();
-    protected Set<Integer> uniqueValidInputs = new HashSet<>();
-
+    /** Fingerprints of unique valid inputs */
+    protected FingerprintSet uniqueValidInputs = new FingerprintSet(MAX_FINGERPRINTS);
 
     /** Unique paths for valid inputs */
-    protected Set<Integer> uniquePaths = new HashSet<>();
+    protected FingerprintSet uniquePaths = new FingerprintSet(MAX_FINGERPRINTS);
 
     /** Unique branch sets for valid inputs */
-    protected Set<Integer> uniqueBranchSets = new HashSet<>();
+    protected FingerprintSet uniqueBranchSets = new FingerprintSet(MAX_FINGERPRINTS);
 
 
-    /** The set of unique failures found so far. */
-    protected Set<List<StackTraceElement>> uniqueFailures = new HashSet<>();
+    /** The set of unique failures found so far, as the frames of their stack traces. */
+    protected Set<List<String>> uniqueFailures = new HashSet<>();
 
     // ---------- LOGGING / STATS OUTPUT ------------
 
@@ -93,7 +111,7 @@ public class RLGuidance implements Guidance {
     protected final Date startTime = new Date();
 
     /** Time at last stats refresh. */
-    protected Date lastRefreshTime = startTime;
+    protected volatile Date lastRefreshTime = startTime;
 
     /** Total execs at last stats refresh. */
     protected long lastNumTrials = 0;
@@ -107,92 +125,361 @@ public class RLGuidance implements Guidance {
     /** The file where saved plot data is written. */
     protected File statsFile;
 
-    /** The currently executing input (for debugging purposes). */
-    protected String currentInput;
+    /** Writes plot data, saved inputs and failures in the background. */
+    private final AsyncWriter output = new AsyncWriter(1024);
 
     // ------------- TIMEOUT HANDLING ------------
 
-    /** Timeout for an individual run. */
-    protected long singleRunTimeoutMillis;
+    /** Wall-clock time budget of an individual run, in milliseconds (0 for none). */
+    protected long singleRunTimeoutMillis = Long.getLong("rl.guidance.TIMEOUT", 0);
+
+    /** CPU time budget of an individual run, in milliseconds (0 for none). */
+    protected long singleRunCpuTimeoutMillis = Long.getLong("rl.guidance.CPU_TIMEOUT", 0);
+
+    /**
+     * Time after which a run that exceeded its budget is stopped, if it
+     * has not stopped by itself, in milliseconds (see {@link Watchdog}).
+     */
+    static final long TIMEOUT_GRACE = Long.getLong("rl.guidance.TIMEOUT_GRACE", 1000);
+
+    /** Reward of a generator for an input whose run timed out. */
+    static final int TIMEOUT_REWARD = Integer.getInteger("rl.guidance.TIMEOUT_REWARD", -1);
+
+    /** Enforces the time budgets of runs, or null if they have none. */
+    private final Watchdog watchdog;
 
-    /** Date when last run was started. */
-    protected Date runStart;
+    /** Number of runs that timed out. */
+    protected final AtomicLong numTimeouts = new AtomicLong();
 
-    /** Number of conditional jumps since last run was started. */
-    protected long branchCount;
+    /** Wall-clock durations of executed runs, in nanoseconds. */
+    protected final LatencyHistogram runDurations = new LatencyHistogram();
 
     /** Maximum number of trials to run */
     protected Long maxTrials = Long.getLong("jqf.guidance.MAX_TRIALS");
 
+    // ------------- MULTI-PROCESS FUZZING ------------
+
+    /** Exchanges results with other processes, or null if fuzzing alone. */
+    protected RLSync sync;
+
+    /** Whether the final exchange and checkpoint have been made. */
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    // ------------- POLICY ------------
+
+    /** The policy learned by the generators, or null if unknown. Only used for stats. */
+    protected RLPolicy policy;
+
+    // ------------- CHECKPOINTS ------------
+
+    /** Periodically saves the state of this run, or null if it is not saved. */
+    protected RLCheckpoint checkpoint;
+
     // ----------- FUZZING HEURISTICS ------------
 
    /** Whether to use greybox information in rewards **/
     static final boolean USE_GREYBOX = Boolean.getBoolean("rl.guidance.USE_GREYBOX");
 
+    /**
+     * Maximum number of fingerprints stored per set of unique inputs, paths
+     * or branch sets, beyond which they are kept in a Bloom filter and their
+     * number is estimated (0 for no limit; see {@link FingerprintSet}).
+     */
+    static final int MAX_FINGERPRINTS = Integer.getInteger("rl.guidance.MAX_FINGERPRINTS", 0);
+
+    /**
+     * Whether to skip executing inputs that have been executed before, and
+     * replay their results instead: "exact", "bloom", or null to execute
+     * every input (see {@link InputCache}).
+     */
+    static final String INPUT_CACHE = System.getProperty("rl.guidance.INPUT_CACHE");
+
+    /**
+     * The maximum number of inputs remembered per result by an exact input
+     * cache, or the log2 of the number of bits per result of a Bloom filter.
+     */
+    static final int INPUT_CACHE_SIZE = Integer.getInteger("rl.guidance.INPUT_CACHE_SIZE",
+            "bloom".equals(INPUT_CACHE) ? 27 : MAX_FINGERPRINTS);
+
+    /** Results of executed inputs, or null if every input is executed. */
+    private final InputCache inputCache;
+
+    /** Number of trials whose result was replayed from the input cache. */
+    protected final AtomicLong numReplayed = new AtomicLong();
+
+    /**
+     * If greater than 1, executions are traced for coverage only when
+     * their input has not been executed before, and for one in this many
+     * executions of the other inputs. The other executions run with
+     * tracing switched off.
+     *
+     * <p>For a deterministic test, an input that ran before covers nothing
+     * new, so total and valid coverage are the same as when tracing every
+     * execution, as long as new inputs are traced.</p>
+     */
+    static final int COVERAGE_SAMPLE = Integer.getInteger("rl.guidance.COVERAGE_SAMPLE", 1);
+
+    /** Whether inputs that have not been executed before are always traced, when sampling. */
+    static final boolean TRACE_NEW_INPUTS =
+            Boolean.parseBoolean(System.getProperty("rl.guidance.TRACE_NEW_INPUTS", "true"));
+
+    /** Fingerprints of executed inputs, or null if every execution is traced. */
+    private final FingerprintSet executedInputs =
+            COVERAGE_SAMPLE > 1 && TRACE_NEW_INPUTS ? new FingerprintSet(MAX_FINGERPRINTS) : null;
+
+    /** Number of executions traced for coverage, when sampling. */
+    protected final AtomicLong numTraced = new AtomicLong();
+
     public RLGuidance(RLGenerator g, String testName, Duration duration, File outputDirectory) throws IOException {
-        this.generator = g;
+        this(g, testName, duration, outputDirectory, false);
+    }
+
+    /**
+     * Creates a guidance, possibly resuming a previous run.
+     *
+     * @param resume whether to keep the results of a previous run in the
+     *               output directory, whose state is then restored with
+     *               {@link RLCheckpoint#load}
+     */
+    public RLGuidance(RLGenerator g, String testName, Duration duration, File outputDirectory, boolean resume) throws IOException {
+        this(g, testName, duration, outputDirectory, resume,
+                INPUT_CACHE != null ? InputCache.create(INPUT_CACHE, INPUT_CACHE_SIZE) : null);
+    }
+
+    /**
+     * Creates a guidance that replays the results of inputs recorded in
+     * the given cache.
+     *
+     * @param inputCache the results of executed inputs, or null to
+     *                   execute every input
+     */
+    RLGuidance(RLGenerator g, String testName, Duration duration, File outputDirectory, boolean resume,
+               InputCache inputCache) throws IOException {
+        this.mainWorker = new Worker(g);
+        this.inputCache = inputCache;
         this.testName = testName;
         this.maxDurationMillis = duration != null ? duration.toMillis() : Long.MAX_VALUE;
         this.outputDirectory = outputDirectory;
-        prepareOutputDirectory();
+        if (singleRunTimeoutMillis > 0 || singleRunCpuTimeoutMillis > 0) {
+            this.watchdog = new Watchdog(singleRunTimeoutMillis, singleRunCpuTimeoutMillis, TIMEOUT_GRACE);
+        } else {
+            this.watchdog = null;
+        }
+        prepareOutputDirectory(resume);
+    }
+
+
+    /**
+     * Returns a new worker, which generates inputs with its own generator
+     * and records results in this guidance. Each worker must run in its
+     * own thread.
+     *
+     * @param g the generator of the worker
+     * @return a guidance for one thread of a parallel fuzzing run
+     */
+    public Worker newWorker(RLGenerator g) {
+        if (EdgeCounters.isEnabled()) {
+            // Edges of all threads are counted together
+            throw new IllegalStateException("Coverage-only instrumentation supports a single worker");
+        }
+        return new Worker(g);
+    }
+
+    /**
+     * Makes this guidance periodically exchange results and learned
+     * policy with other processes fuzzing the same test.
+     *
+     * @param sync the sync of this process
+     */
+    public void setSync(RLSync sync) {
+        this.sync = sync;
     }
 
+    /**
+     * Makes this guidance display the size of the policy learned by its
+     * generators, and how its Q-tables evict states.
+     *
+     * @param policy the policy of the generators
+     */
+    public void setPolicy(RLPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Makes this guidance periodically save the state of the run, and
+     * save it once more when the run ends.
+     *
+     * @param checkpoint the checkpoint of this run
+     */
+    public void setCheckpoint(RLCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
 
     @Override
     public InputStream getInput() throws IllegalStateException, GuidanceException {
-        runCoverage.clear();
-        currentInput = generator.generate();
-        return new ByteArrayInputStream(currentInput.getBytes(StandardCharsets.UTF_8));
+        return mainWorker.getInput();
+    }
+
+    @Override
+    public Object getStructuredInput() throws IllegalStateException, GuidanceException {
+        return mainWorker.getStructuredInput();
+    }
+
+    @Override
+    public void observeGenerated(Object[] args) {
+        mainWorker.observeGenerated(args);
+    }
+
+    @Override
+    public void observeTrialEnd() {
+        mainWorker.observeTrialEnd();
     }
 
     @Override
     public boolean hasInput() {
+        boolean hasInput;
         if (maxTrials != null){
-            if (numTrials >= maxTrials){
+            if (numTrials.get() >= maxTrials){
                 displayStats(true);
             }
-            return numTrials < maxTrials;
+            hasInput = numTrials.get() < maxTrials;
         } else {
             Date now = new Date();
             long elapsedMilliseconds = now.getTime() - startTime.getTime();
-            return elapsedMilliseconds < maxDurationMillis;
+            hasInput = elapsedMilliseconds < maxDurationMillis;
         }
+        if (!hasInput && stopped.compareAndSet(false, true)) {
+            // Publish and save the last results
+            output.flush();
+            if (sync != null) {
+                exchange();
+            }
+            if (checkpoint != null) {
+                saveCheckpoint();
+            }
+        }
+        return hasInput;
     }
 
 
+    /** Returns whether another trial may run after the next one, without stopping. */
+    private boolean hasTrialsAfterNext() {
+        if (maxTrials != null) {
+            return numTrials.get() + 1 < maxTrials;
+        } else {
+            return System.currentTimeMillis() - startTime.getTime() < maxDurationMillis;
+        }
+    }
+
     @Override
     public void handleResult(Result result, Throwable error) throws GuidanceException {
+        handleResult(mainWorker, result, error);
+    }
+
+    /**
+     * Writes all pending output files and releases them. Must be called
+     * once all workers have stopped.
+     */
+    public void close() {
+        if (watchdog != null) {
+            watchdog.close();
+        }
+        output.close();
+    }
+
+    /**
+     * Records the result of a run of a worker, and rewards its generator.
+     *
+     * <p>May be called concurrently by several workers.</p>
+     */
+    protected void handleResult(Worker worker, Result result, Throwable error) throws GuidanceException {
         // Stop timeout handling
-        this.runStart = null;
+        if (worker.running) {
+            worker.running = false;
+            worker.observeTrialEnd();
+            runDurations.record(System.nanoTime() - worker.runStart);
+            if (EdgeCounters.isEnabled() && worker.traced) {
+                worker.runCoverage.drainEdgeCounts();
+            }
+            if (worker.watch != null && worker.watch.isExpired()) {
+                // Trace the next run from a clean state
+                SingleSnoop.resetTracing();
+                if (EdgeCounters.isEnabled()) {
+                    // The run may have been stopped after incrementing a
+                    // counter, but before recording it
+                    EdgeCounters.clearAll();
+                }
+                if (worker.traced) {
+                    SingleSnoop.unblock();
+                }
+            }
+            if (result == Result.TIMEOUT) {
+                numTimeouts.incrementAndGet();
+                if (error instanceof ThreadDeath) {
+                    // Describe the budget that the stopped run exceeded
+                    TimeoutException timeout = worker.watch.timeout();
+                    timeout.setStackTrace(error.getStackTrace());
+                    error = timeout;
+                }
+            }
+        }
 
         // Increment run count
-        this.numTrials++;
+        this.numTrials.incrementAndGet();
 
         boolean valid = result == Result.SUCCESS;
 
         if (valid) {
             // Increment valid counter
-            numValid++;
+            numValid.incrementAndGet();
+        }
+
+        RLGenerator generator = worker.generator;
+        Coverage runCoverage = worker.runCoverage;
+        String currentInput = worker.currentInput;
+        long inputFingerprint = worker.inputFingerprint;
+
+        if (inputCache != null) {
+            inputCache.put(inputFingerprint, result);
         }
 
         if (result == Result.SUCCESS || result == Result.INVALID) {
 
-            // Coverage before
-            int nonZeroBefore = totalCoverage.getNonZeroCount();
-            int validNonZeroBefore = validCoverage.getNonZeroCount();
+            boolean newCoverage;
+            synchronized (this) {
+                // Coverage before
+                int nonZeroBefore = totalCoverage.getNonZeroCount();
+                int validNonZeroBefore = validCoverage.getNonZeroCount();
 
-            // Update total coverage
-            boolean coverageBitsUpdated = totalCoverage.updateBits(runCoverage);
+                // Update total coverage
+                totalCoverage.updateBits(runCoverage);
+                if (valid) {
+                    validCoverage.updateBits(runCoverage);
+                }
 
-            int nonZeroAfter = totalCoverage.getNonZeroCount();
+                // Coverage after
+                int nonZeroAfter = totalCoverage.getNonZeroCount();
+                int validNonZeroAfter = validCoverage.getNonZeroCount();
+                newCoverage = nonZeroAfter > nonZeroBefore || validNonZeroAfter > validNonZeroBefore;
+            }
 
             if (valid) {
-                validCoverage.updateBits(runCoverage);
-                if (!uniqueValidInputs.contains(currentInput.hashCode())){
-                    uniqueValidInputs.add(currentInput.hashCode());
-
-                    uniquePaths.add(runCoverage.hashCode());
-                    boolean has_new_branches_covered = uniqueBranchSets.add(runCoverage.nonZeroHashCode());
+                if (uniqueValidInputs.add(inputFingerprint)){
+
+                    // Without a trace, the path and branch set are unknown
+                    boolean has_new_branches_covered = false;
+                    long branchSet = 0;
+                    if (worker.traced) {
+                        uniquePaths.add(runCoverage.pathFingerprint());
+                        branchSet = runCoverage.branchSetFingerprint();
+                        has_new_branches_covered = uniqueBranchSets.add(branchSet);
+                    }
+                    if (sync != null) {
+                        sync.newValidInputs.add(inputFingerprint);
+                        if (has_new_branches_covered) {
+                            sync.newBranchSets.add(branchSet);
+                        }
+                    }
                     
                     if (USE_GREYBOX) {
                       // Greybox: only reward for inputs that cover new branches
@@ -216,13 +503,9 @@ public class RLGuidance implements Guidance {
             }
 
 
-            // Coverage after
-
-            int validNonZeroAfter = validCoverage.getNonZeroCount();
-
-            if (nonZeroAfter > nonZeroBefore || validNonZeroAfter > validNonZeroBefore) {
+            if (newCoverage) {
                 try {
-                    saveCurrentInput(valid);
+                    saveCurrentInput(currentInput, valid);
                 } catch (IOException e) {
                     throw new GuidanceException(e);
                 }
@@ -230,6 +513,10 @@ public class RLGuidance implements Guidance {
 
 
         } else if (result == Result.FAILURE || result == Result.TIMEOUT) {
+            if (result == Result.TIMEOUT) {
+                generator.update(TIMEOUT_REWARD);
+            }
+
             String msg = error.getMessage();
 
             // Get the root cause of the failure
@@ -238,28 +525,144 @@ public class RLGuidance implements Guidance {
                 rootCause = rootCause.getCause();
             }
 
-            // Attempt to add this to the set of unique failures
-            if (uniqueFailures.add(Arrays.asList(rootCause.getStackTrace()))) {
+            synchronized (this) {
+                // Attempt to add this to the set of unique failures
+                if (uniqueFailures.add(failureKey(rootCause))) {
 
-                // Save crash to disk
-                try {
-                    saveCurrentFailure();
-                } catch (IOException e) {
-                    throw new GuidanceException(e);
-                }
+                    // Save crash to disk
+                    try {
+                        saveCurrentFailure(currentInput);
+                    } catch (IOException e) {
+                        throw new GuidanceException(e);
+                    }
 
+                }
             }
 
         }
 
+        endTrial();
+    }
+
+    /**
+     * Records a trial whose result is replayed from the input cache, and
+     * rewards its generator as for an input that was executed before:
+     * such an input is not unique, and covers nothing new.
+     *
+     * <p>May be called concurrently by several workers.</p>
+     */
+    protected void handleReplay(Worker worker, Result result) throws GuidanceException {
+        numTrials.incrementAndGet();
+        numReplayed.incrementAndGet();
+        if (result == Result.SUCCESS) {
+            numValid.incrementAndGet();
+            worker.generator.update(0);
+        } else {
+            worker.generator.update(-1);
+        }
+
+        endTrial();
+    }
+
+    /** Displays stats, and exchanges results or saves a checkpoint if due. */
+    private void endTrial() throws GuidanceException {
         displayStats();
 
+        if (sync != null && sync.isDue()) {
+            exchange();
+        }
+
+        if (checkpoint != null && checkpoint.isDue()) {
+            saveCheckpoint();
+        }
+    }
+
+    private static List<String> failureKey(Throwable rootCause) {
+        List<String> frames = new ArrayList<>();
+        for (StackTraceElement frame : rootCause.getStackTrace()) {
+            frames.add(frame.toString());
+        }
+        return frames;
+    }
+
+    private void exchange() throws GuidanceException {
+        try {
+            sync.exchange(this);
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+    }
+
+    private void saveCheckpoint() throws GuidanceException {
+        try {
+            checkpoint.save(this);
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+    }
+
+    /** Writes the bookkeeping of this guidance, for {@link RLCheckpoint}. */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeLong(numTrials.get());
+        out.writeLong(numValid.get());
+        uniqueValidInputs.writeTo(out);
+        uniquePaths.writeTo(out);
+        uniqueBranchSets.writeTo(out);
+        synchronized (this) {
+            out.writeInt(numSavedInputs);
+            out.writeInt(uniqueFailures.size());
+            for (List<String> failure : uniqueFailures) {
+                out.writeInt(failure.size());
+                for (String frame : failure) {
+                    RLCheckpoint.writeString(out, frame);
+                }
+            }
+            writeCounts(out, totalCoverage);
+            writeCounts(out, validCoverage);
+        }
+    }
+
+    /** Restores the bookkeeping written by {@link #writeSnapshot(DataOutputStream)}. */
+    synchronized void readSnapshot(ByteBuffer in) {
+        numTrials.set(in.getLong());
+        numValid.set(in.getLong());
+        lastNumTrials = numTrials.get();
+        uniqueValidInputs.readFrom(in);
+        uniquePaths.readFrom(in);
+        uniqueBranchSets.readFrom(in);
+        numSavedInputs = in.getInt();
+        int numFailures = in.getInt();
+        for (int i = 0; i < numFailures; i++) {
+            String[] frames = new String[in.getInt()];
+            for (int f = 0; f < frames.length; f++) {
+                frames[f] = RLCheckpoint.readString(in);
+            }
+            uniqueFailures.add(Arrays.asList(frames));
+        }
+        readCounts(in, totalCoverage);
+        readCounts(in, validCoverage);
+    }
+
+    private static void writeCounts(DataOutputStream out, Coverage coverage) throws IOException {
+        out.writeInt(coverage.getNonZeroCount());
+        for (Object idx : coverage.getCovered()) {
+            out.writeInt((Integer) idx);
+            out.writeInt(coverage.getCount((Integer) idx));
+        }
+    }
+
+    private static void readCounts(ByteBuffer in, Coverage coverage) {
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            int idx = in.getInt();
+            coverage.setCount(idx, in.getInt());
+        }
     }
 
 
     /// CL Note: Below this is boiler-plate that probably doesn't need to be messed with
 
-    private void prepareOutputDirectory() throws IOException {
+    private void prepareOutputDirectory(boolean resume) throws IOException {
 
         // Create the output directory if it does not exist
         if (!outputDirectory.exists()) {
@@ -283,6 +686,10 @@ public class RLGuidance implements Guidance {
         this.statsFile = new File(outputDirectory, "plot_data");
         this.logFile = new File(outputDirectory, "fuzz.log");
 
+        if (resume) {
+            // Keep the results of the run being resumed
+            return;
+        }
 
         // Delete everything that we may have created in a previous run.
         // Trying to stay away from recursive delete of parent output directory in case there was a
@@ -297,7 +704,10 @@ public class RLGuidance implements Guidance {
             file.delete();
         }
 
-        appendLineToFile(statsFile, "# unix_time, unique_crashes, total_cov, valid_cov, total_inputs, valid_inputs, valid_paths, valid_branch_sets, unique_valid_inputs");
+        appendLineToFile(statsFile, "# unix_time, unique_crashes, total_cov, valid_cov, total_inputs, valid_inputs, valid_paths, valid_branch_sets, unique_valid_inputs" +
+                (inputCache != null ? ", replayed_inputs" : "") +
+                (COVERAGE_SAMPLE > 1 ? ", traced_inputs" : "") +
+                (watchdog != null ? ", timeouts, p50_run_us, p99_run_us, max_run_us" : ""));
 
 
     }
@@ -311,25 +721,21 @@ public class RLGuidance implements Guidance {
 
 
     /* Saves an interesting input to the queue. */
-    protected void saveCurrentInput(Boolean is_valid) throws IOException {
+    protected synchronized void saveCurrentInput(String currentInput, Boolean is_valid) throws IOException {
         String valid_str = is_valid ? "_v" : "";
         // First, save to disk (note: we issue IDs to everyone, but only write to disk  if valid)
         int newInputIdx = numSavedInputs++;
         String saveFileName = String.format("id_%06d%s", newInputIdx, valid_str);
         File saveFile = new File(savedInputsDirectory, saveFileName);
-        PrintWriter writer = new PrintWriter(saveFile);
-        writer.print(currentInput);
-        writer.flush();
+        output.writeFile(saveFile, currentInput);
     }
 
-    /* Saves an interesting input to the queue. */
-    protected void saveCurrentFailure() throws IOException {
+    /* Saves a failing input to the failures directory. */
+    protected synchronized void saveCurrentFailure(String currentInput) throws IOException {
         int newInputIdx = uniqueFailures.size();
         String saveFileName = String.format("id_%06d", newInputIdx);
         File saveFile = new File(savedFailuresDirectory, saveFileName);
-        PrintWriter writer = new PrintWriter(saveFile);
-        writer.print(currentInput);
-        writer.flush();
+        output.writeFile(saveFile, currentInput);
     }
 
     private void displayStats(){
@@ -340,16 +746,28 @@ public class RLGuidance implements Guidance {
     private void displayStats(boolean force) {
 
         Date now = new Date();
-        long intervalMilliseconds = now.getTime() - lastRefreshTime.getTime();
-        if (!force && intervalMilliseconds < STATS_REFRESH_TIME_PERIOD) {
+        if (!force && now.getTime() - lastRefreshTime.getTime() < STATS_REFRESH_TIME_PERIOD) {
             return;
         }
+        synchronized (this) {
+            // Another worker may have refreshed in the meantime
+            long intervalMilliseconds = now.getTime() - lastRefreshTime.getTime();
+            if (!force && intervalMilliseconds < STATS_REFRESH_TIME_PERIOD) {
+                return;
+            }
+            displayStats(now, Math.max(intervalMilliseconds, 1));
+        }
+    }
+
+    private void displayStats(Date now, long intervalMilliseconds) {
+        long numTrials = this.numTrials.get();
+        long numValid = this.numValid.get();
         long interlvalTrials = numTrials - lastNumTrials;
         long intervalExecsPerSec = interlvalTrials * 1000L / intervalMilliseconds;
         double intervalExecsPerSecDouble = interlvalTrials * 1000.0 / intervalMilliseconds;
         lastRefreshTime = now;
         lastNumTrials = numTrials;
-        long elapsedMilliseconds = now.getTime() - startTime.getTime();
+        long elapsedMilliseconds = Math.max(now.getTime() - startTime.getTime(), 1);
         long execsPerSec = numTrials * 1000L / elapsedMilliseconds;
 
 
@@ -378,45 +796,237 @@ public class RLGuidance implements Guidance {
                     uniqueValidInputs.size()*100.0/numTrials);
             console.printf("Unique valid paths:   %,d \n", uniquePaths.size());
             console.printf("''  non-zero paths:   %,d \n", uniqueBranchSets.size());
+            if (inputCache != null) {
+                long numReplayed = this.numReplayed.get();
+                console.printf("Replayed inputs:      %,d (%.2f%% hit rate)\n", numReplayed,
+                        numReplayed * 100.0 / numTrials);
+            }
+            if (COVERAGE_SAMPLE > 1) {
+                long numTraced = this.numTraced.get();
+                console.printf("Traced inputs:        %,d (%.2f%%)\n", numTraced, numTraced * 100.0 / numTrials);
+            }
+            console.printf("Run time:             %.2f ms p50 | %.2f ms p99 | %.2f ms p99.9 | %.2f ms max\n",
+                    runDurations.percentile(50) / 1e6, runDurations.percentile(99) / 1e6,
+                    runDurations.percentile(99.9) / 1e6, runDurations.max() / 1e6);
+            if (watchdog != null) {
+                console.printf("Timeouts:             %,d\n", numTimeouts.get());
+            }
+            if (policy != null) {
+                console.printf("Q-table states:       %,d\n", policy.numStates());
+                if (policy.isBounded()) {
+                    console.printf("''  evicted:          %,d (%.2f%% hit rate)\n", policy.numEvictions(),
+                            policy.hitRate() * 100.0);
+                }
+            }
         }
 
         String plotData = String.format("%d, %d, %d, %d, %d, %d, %d, %d, %d",
                 TimeUnit.MILLISECONDS.toSeconds(now.getTime()), uniqueFailures.size(), nonZeroCount, nonZeroValidCount,
                 numTrials, numValid, uniquePaths.size(), uniqueBranchSets.size(), uniqueValidInputs.size());
+        if (inputCache != null) {
+            plotData += ", " + numReplayed.get();
+        }
+        if (COVERAGE_SAMPLE > 1) {
+            plotData += ", " + numTraced.get();
+        }
+        if (watchdog != null) {
+            plotData += String.format(", %d, %d, %d, %d", numTimeouts.get(),
+                    TimeUnit.NANOSECONDS.toMicros(runDurations.percentile(50)),
+                    TimeUnit.NANOSECONDS.toMicros(runDurations.percentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(runDurations.max()));
+        }
         appendLineToFile(statsFile, plotData);
 
     }
 
     private void appendLineToFile(File file, String line) throws GuidanceException {
-        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
-            out.println(line);
-        } catch (IOException e) {
-            throw new GuidanceException(e);
-        }
-
+        output.appendLine(file, line);
     }
 
     @Override
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
-        if (appThread != null) {
-            throw new IllegalStateException(ZestGuidance.class +
-                    " only supports single-threaded apps at the moment");
+        return mainWorker.generateCallBack(thread);
+    }
+
+    /**
+     * Generates and runs inputs in a single thread. Each worker has its
+     * own generator and run coverage, and records its results in the
+     * enclosing guidance.
+     */
+    public class Worker implements StructuredInputGuidance {
+
+        private final RLGenerator generator;
+
+        // Currently, we only support single-threaded applications
+        // This field is used to ensure that
+        protected Thread appThread;
+
+        /** Coverage statistics for a single run. */
+        protected Coverage runCoverage = new Coverage();
+
+        /** The currently executing input (for debugging purposes). */
+        protected String currentInput;
+
+        /** Whether a run of the current input is in progress. */
+        protected boolean running;
+
+        /** Time when the last run was started, in nanoseconds. */
+        protected long runStart;
+
+        /** Times the runs of this worker, or null if they have no budget. */
+        protected Watchdog.Watch watch;
+
+        /** Whether the current run is timed by {@link #watch}. */
+        private boolean timed;
+
+        /** The fingerprint of the current input. */
+        protected long inputFingerprint;
+
+        /** Whether the current input is traced for coverage. */
+        protected boolean traced = true;
+
+        /** Number of executions that were considered for sampling. */
+        private long numSampled;
+
+        Worker(RLGenerator generator) {
+            this.generator = generator;
         }
-        appThread = thread;
 
-        return this::handleEvent;
-    }
+        @Override
+        public InputStream getInput() throws IllegalStateException, GuidanceException {
+            return new ByteArrayInputStream(getStructuredInput().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String getStructuredInput() throws IllegalStateException, GuidanceException {
+            while (true) {
+                currentInput = generator.generate();
+                inputFingerprint = Hashing.hash64(currentInput);
+                Result cached = inputCache != null ? inputCache.get(inputFingerprint) : null;
+                // The last trial is always executed, so that this returns an input
+                if (cached == null || !hasTrialsAfterNext()) {
+                    runCoverage.clear();
+                    if (COVERAGE_SAMPLE > 1) {
+                        sampleTracing();
+                    } else {
+                        traced = true;
+                    }
+                    startRun();
+                    return currentInput;
+                }
+                // Replay the result, without coverage or bookkeeping of unique inputs
+                traced = false;
+                RLGuidance.this.handleReplay(this, cached);
+            }
+        }
+
+        /** Starts timing the run of the current input. */
+        private void startRun() {
+            running = true;
+            if (EdgeCounters.isEnabled()) {
+                // Discard the edges of the generator
+                EdgeCounters.reset();
+            }
+            runStart = System.nanoTime();
+            if (watchdog != null) {
+                // The first run is not timed: it initializes most classes, and
+                // a class whose static initializer is stopped is unusable
+                timed = watch != null;
+                if (watch == null) {
+                    watch = watchdog.watch();
+                }
+            }
+        }
+
+        @Override
+        public void observeGenerated(Object[] args) {
+            // Arm the watch only once the test is about to run, where it
+            // may be stopped: a ThreadDeath thrown in the thread after
+            // observeTrialEnd() would escape the test and end fuzzing
+            if (timed) {
+                watch.arm();
+            }
+        }
+
+        @Override
+        public void observeTrialEnd() {
+            if (timed) {
+                timed = false;
+                watch.disarm();
+            }
+        }
+
+        /** Decides whether to trace the execution of the current input. */
+        private void sampleTracing() {
+            if (executedInputs != null && executedInputs.add(inputFingerprint)) {
+                traced = true;
+            } else {
+                traced = numSampled++ % COVERAGE_SAMPLE == 0;
+            }
+            if (traced) {
+                numTraced.incrementAndGet();
+                SingleSnoop.unblock();
+            } else {
+                SingleSnoop.block();
+            }
+        }
+
+        @Override
+        public boolean hasInput() {
+            return RLGuidance.this.hasInput();
+        }
+
+        @Override
+        public void handleResult(Result result, Throwable error) throws GuidanceException {
+            RLGuidance.this.handleResult(this, result, error);
+        }
+
+        @Override
+        public Consumer<TraceEvent> generateCallBack(Thread thread) {
+            // The tracer of the thread is spawned again after a timeout
+            if (appThread != null && appThread != thread) {
+                throw new IllegalStateException(ZestGuidance.class +
+                        " only supports single-threaded apps at the moment");
+            }
+            appThread = thread;
+
+            return new CoverageCallback();
+        }
+
+        /** Handles a trace event generated during test execution */
+        protected void handleEvent(TraceEvent e) {
+            // Collect totalCoverage
+            runCoverage.handleEvent(e);
+            checkBudget();
+        }
+
+        /** Stops runs that exceeded their budget. */
+        private void checkBudget() {
+            if (watch != null && watch.isExpired()) {
+                throw watch.timeout();
+            }
+        }
+
+        /**
+         * Collects the coverage of runs. Only coverage is needed, so the
+         * tracer passes branches and calls as primitive values.
+         */
+        private class CoverageCallback implements Consumer<TraceEvent>, IntBranchSink {
+            @Override
+            public void accept(TraceEvent e) {
+                handleEvent(e);
+            }
+
+            @Override
+            public void visitBranch(int iid, int arm) {
+                runCoverage.visitBranch(iid, arm);
+                checkBudget();
+            }
 
-    /** Handles a trace event generated during test execution */
-    protected void handleEvent(TraceEvent e) {
-        // Collect totalCoverage
-        runCoverage.handleEvent(e);
-        // Check for possible timeouts every so often
-        if (this.singleRunTimeoutMillis > 0 &&
-                this.runStart != null && (++this.branchCount) % 10_000 == 0) {
-            long elapsed = new Date().getTime() - runStart.getTime();
-            if (elapsed > this.singleRunTimeoutMillis) {
-                throw new TimeoutException(elapsed, this.singleRunTimeoutMillis);
+            @Override
+            public void visitCall(int iid) {
+                runCoverage.visitCall(iid);
+                checkBudget();
             }
         }
     }
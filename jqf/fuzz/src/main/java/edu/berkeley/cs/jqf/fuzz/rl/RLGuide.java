@@ -2,6 +2,8 @@ package edu.berkeley.cs.jqf.fuzz.rl;
 
 import com.pholser.junit.quickcheck.Pair;
 
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.AbstractMap.SimpleEntry;
 import java.lang.Math;
@@ -15,7 +17,7 @@ import java.lang.Math;
 */
 public class RLGuide implements Guide {
 
-    /**  Used in stateToString */
+    /**  Used in RLState#toString */
     public static final String stateDelim = " | ";
 
     /** Maps id to learning agent. Used for tracking tables for different action types. */
@@ -27,16 +29,72 @@ public class RLGuide implements Guide {
     /** Source of randomness, shared across all learners */
     private Random rand; // Source of randomness. Can be initialized with chosen seed.
 
+    /** Tokens and Q-tables of the learners, possibly shared with other guides */
+    private RLPolicy policy;
+
+    /** How learners choose actions and learn from rewards */
+    private RLAlgorithm algorithm = RLAlgorithm.MCC;
+
+    /** Exploration schedules given by generator parameters, or null */
+    private RLParams scheduleParams;
+
+    /** Applies finished episodes in the background, or null if updates are synchronous */
+    private AsyncUpdater updater;
+
     /** Construct with random seed */
     public RLGuide() {
         this.idToRL= new HashMap<>();
         rand = new Random();
+        policy = new RLPolicy(QTable.HASH, false);
+        policy.addGuide(this);
     }
 
     /** Construct with custom seed */
     public RLGuide(long seed) {
         this.idToRL= new HashMap<>();
         rand = new Random(seed);
+        policy = new RLPolicy(QTable.HASH, false);
+        policy.addGuide(this);
+    }
+
+    /**
+     * Construct from generator parameters.
+     *
+     * @param params: seed (optional),
+     *              algorithm, rewardScale, discount (optional; see {@link RLAlgorithm}),
+     *              schedule, schedule.ID (optional; see {@link ExplorationSchedule}),
+     *              qTable, maxStates, eviction, valueFunction, weightBits, learningRate
+     *              (optional; see {@link RLPolicy#create}),
+     *              policy (optional; an {@link RLPolicy} shared with other guides),
+     *              asyncUpdates (optional; whether to learn from finished episodes in a
+     *              background thread, which needs a concurrent policy),
+     *              maxStaleness (optional; the maximum number of episodes waiting to be learned from),
+     *              updateBatch (optional; the maximum number of episodes learned from at once)
+     */
+    public RLGuide(RLParams params) {
+        this.idToRL = new HashMap<>();
+        if (params.exists("seed")) {
+            rand = new Random((long) params.get("seed"));
+        } else {
+            rand = new Random();
+        }
+        algorithm = RLAlgorithm.create(params);
+        scheduleParams = params;
+        boolean async = params.exists("asyncUpdates") && (boolean) params.get("asyncUpdates");
+        if (params.exists(RLPolicy.PARAM)) {
+            policy = (RLPolicy) params.get(RLPolicy.PARAM);
+        } else {
+            policy = RLPolicy.create(params, async);
+        }
+        policy.addGuide(this);
+        if (async) {
+            if (!policy.isConcurrent()) {
+                throw new IllegalArgumentException("Asynchronous updates need a concurrent policy");
+            }
+            int maxStaleness = params.exists("maxStaleness") ? (int) params.get("maxStaleness") : 64;
+            int updateBatch = params.exists("updateBatch") ? (int) params.get("updateBatch") : 16;
+            updater = new AsyncUpdater(maxStaleness, updateBatch);
+        }
     }
 
     /**
@@ -47,10 +105,24 @@ public class RLGuide implements Guide {
         return addLearner(actionSpace, epsilon, epsilon, 1.0);
     }
 
-    /** With epsilon decay */
+    /**
+     * With epsilon decay: epsilon is multiplied by <tt>decay</tt> after every
+     * episode, down to <tt>minEpsilon</tt>. An exploration schedule given in
+     * the generator parameters for this learner takes precedence.
+     */
     public int addLearner(List<Object> actionSpace, double epsilon, double minEpsilon, double decay) {
+        ExplorationSchedule schedule = scheduleParams != null ? ExplorationSchedule.fromParams(scheduleParams, ctr) : null;
+        if (schedule == null) {
+            schedule = new ExplorationSchedule.Exponential(epsilon, minEpsilon, decay, false);
+        }
+        return addLearner(actionSpace, schedule);
+    }
+
+    /** With an exploration schedule */
+    public int addLearner(List<Object> actionSpace, ExplorationSchedule schedule) {
         assert !idToRL.containsKey(ctr);
-        RLLearner newLearner = new RLLearner(ctr, actionSpace, epsilon, minEpsilon, decay, rand);
+        RLLearner newLearner = new RLLearner(ctr, actionSpace, schedule, rand,
+                policy.learner(ctr, actionSpace), algorithm);
         idToRL.put(ctr, newLearner);
         return ctr++;
     }
@@ -66,7 +138,11 @@ public class RLGuide implements Guide {
     }
 
     public Object select(List<Object> actions, String[] stateArr, int id) {
-        String state = stateToString(stateArr);
+        RLLearner l = getLearner(id);
+        return l.select(actions, stateKey(stateArr));
+    }
+
+    public Object select(List<Object> actions, RLState state, int id) {
         RLLearner l = getLearner(id);
         return l.select(actions, state);
     }
@@ -80,17 +156,63 @@ public class RLGuide implements Guide {
     }
 
     public Object select(String[] stateArr, int id) {
-        String state = stateToString(stateArr);
         RLLearner l = getLearner(id);
-        return l.select(state);
+        return l.select(l.actionSpace, stateKey(stateArr));
+    }
+
+    public Object select(RLState state, int id) {
+        RLLearner l = getLearner(id);
+        return l.select(l.actionSpace, state);
+    }
+
+    /**
+     * Selects from all possible actions, returning the position of
+     * the chosen action in the action space of the learner.
+     */
+    public int selectIndex(RLState state, int id) {
+        RLLearner l = getLearner(id);
+        return l.selectIndex(l.actionSpace, state);
+    }
+
+    /** Selects from <tt>actions</tt>, returning the position of the chosen action. */
+    public int selectIndex(List<Object> actions, RLState state, int id) {
+        RLLearner l = getLearner(id);
+        return l.selectIndex(actions, state);
     }
 
-    /** Iteratively updates each learner */
+    /**
+     * Returns the interned id of a state token, for use with {@link RLState#push(int)}.
+     */
+    public int token(String name) {
+        return policy.tokens.id(name);
+    }
+
+    /** Creates an empty state whose window holds the last <tt>size</tt> tokens. */
+    public RLState newState(int size) {
+        return new RLState(size, policy.tokens);
+    }
+
+    /**
+     * Iteratively updates each learner. With asynchronous updates, the
+     * episodes are only handed over to the learning thread.
+     */
     public void update(int r) {
+        if (updater != null) {
+            updater.submit(idToRL.values(), r);
+        }
         for (RLLearner l : idToRL.values()) {
-            l.update(r);
+            if (updater == null) {
+                l.update(r);
+            }
             l.episode.clear();
-            l.epsilon = Math.min(l.minEpsilon, l.decay * l.epsilon);
+            l.advanceSchedule(r);
+        }
+    }
+
+    /** Waits until the learners have learned from all finished episodes. */
+    public void flush() {
+        if (updater != null) {
+            updater.flush();
         }
     }
 
@@ -107,20 +229,74 @@ public class RLGuide implements Guide {
         return idToRL.get(id);
     }
 
-    private String stateToString(String[] stateArr) {
-        String state = "";
-        for (int i = 0; i < stateArr.length; i++) {
-            String s = stateArr[i];
+    /**
+     * Returns the key of a state array. Null entries are skipped, so
+     * this is the same key as that of an RLState holding the non-null
+     * tokens of the array.
+     */
+    private long stateKey(String[] stateArr) {
+        long hash = 0;
+        for (String s : stateArr) {
             if (s != null) {
-                if (i != stateArr.length - 1) {
-                    s += stateDelim;
-                }
-                state += s;
+                hash = RLState.extend(hash, RLState.code(s));
             }
         }
-        return state;
+        return hash;
     }
     
+    /**
+     * Writes the epsilon and schedule clocks of each learner and the state of the source of
+     * randomness, for {@link RLPolicy#writeSnapshot(DataOutputStream)}.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        flush();
+        out.writeInt(ctr);
+        for (int id = 0; id < ctr; id++) {
+            RLLearner l = getLearner(id);
+            out.writeDouble(l.epsilon);
+            out.writeLong(l.trials);
+            out.writeLong(l.trialsSinceReward);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream randOut = new ObjectOutputStream(buffer)) {
+            randOut.writeObject(rand);
+        }
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+
+    /** Restores the state written by {@link #writeSnapshot(DataOutputStream)}. */
+    void readSnapshot(ByteBuffer in) throws IOException {
+        int numLearners = in.getInt();
+        if (numLearners != ctr) {
+            throw new IOException("Guide has " + numLearners + " learners in the snapshot, but " + ctr + " here");
+        }
+        for (int id = 0; id < ctr; id++) {
+            RLLearner l = getLearner(id);
+            l.epsilon = in.getDouble();
+            l.trials = in.getLong();
+            l.trialsSinceReward = in.getLong();
+        }
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        try (ObjectInputStream randIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            rand = (Random) randIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        for (RLLearner l : idToRL.values()) {
+            l.rand = rand;
+        }
+    }
+
+    /** Skips the state written by {@link #writeSnapshot(DataOutputStream)}. */
+    static void skipSnapshot(ByteBuffer in) {
+        int numLearners = in.getInt();
+        in.position(in.position() + numLearners * (8 + 8 + 8));
+        int randBytes = in.getInt();
+        in.position(in.position() + randBytes);
+    }
+
     /** Force the episode */
     public void seed(List<Pair<Integer, SimpleEntry<String,Object>>> episode) {
         for (Pair<Integer, SimpleEntry<String, Object>> idToAction : episode) {
@@ -131,7 +307,7 @@ public class RLGuide implements Guide {
 
     public boolean bernoulli(double p) {
         assert p <= 1;
-        return rand.nextDouble() <= 1;
+        return rand.nextDouble() < p;
     }
 
     /** Return integer in [0, 1, ..., bound). */
@@ -139,6 +315,11 @@ public class RLGuide implements Guide {
         return rand.nextInt(bound);
     }
 
+    /** Get current epsilon of corresponding learner. */
+    public double getLearnerEpsilon(int id) {
+        return getLearner(id).epsilon;
+    }
+
     /** Get action space of corresponding learner. */
     public List<Object> getActions(int id) {
         return new ArrayList<>(getLearner(id).actionSpace);
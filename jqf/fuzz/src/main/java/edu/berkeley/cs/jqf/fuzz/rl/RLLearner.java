@@ -7,176 +7,301 @@ package edu.berkeley.cs.jqf.fuzz.rl;
 import java.util.*;
 
 /**
- * And individual learner that learns using Monte Carlo control.
- * Stores our policy and Q-table.
+ * An individual learner, which chooses actions and learns from rewards
+ * with an {@link RLAlgorithm} (Monte Carlo control by default).
+ * Stores our policy and Q-table, or approximates Q values with a
+ * {@link HashedValueFunction}.
  */
 public class RLLearner {
+    /** Current exploration rate, following the schedule */
     double epsilon;
-    double decay;
-    double minEpsilon;
+    /** How epsilon changes over time */
+    private final ExplorationSchedule schedule;
+    /** Number of episodes so far */
+    long trials = 0;
+    /** Number of episodes since the last positive reward */
+    long trialsSinceReward = 0;
 
     /**
      * Space of possible actions
      */
     List<Object> actionSpace;
     /**
-     * Stores Q and C values. State maps to map which maps action to (C, Q) pairs.
+     * Stores Q and C values, keyed by interned state and action ids.
      */
-    private HashMap<String, HashMap> qcTable;
+    QTable qcTable;
+    /**
+     * Approximates Q values from features of states instead of the Q-table, or null
+     */
+    private final HashedValueFunction values;
+    /**
+     * Features of the state being selected in, if there is a value function
+     */
+    private long[] features = new long[1];
+    private int numFeatures = 0;
+    /**
+     * Returns seen since they were last sent to other processes, or null
+     */
+    private QTable returns;
+    /**
+     * Interned ids of actions, possibly shared with learners of other
+     * guides. Actions in the actionSpace get their position as id;
+     * other actions are added as they are seen.
+     */
+    private Interner<Object> actionIds;
+    /**
+     * Names of states of the current episode given as strings, for display purposes
+     */
+    private Map<Long, String> stateNames = new HashMap<>();
     /**
      * Current episode
      */
-    List<AbstractMap.SimpleEntry<String, Object>> episode;
+    Episode episode;
     /**
-     * Source of randomness
+     * Scratch array of positions of actions with maximal score, reused across selections
      */
-    private Random rand;
+    private int[] bestActions = new int[0];
+    /**
+     * Scratch arrays of scores and counts of actions, reused across selections
+     */
+    private double[] scores = new double[0];
+    private double[] counts = new double[0];
+    /**
+     * How actions are chosen and learned from
+     */
+    private final RLAlgorithm algorithm;
+    /**
+     * Source of randomness, shared with the other learners of the guide
+     */
+    Random rand;
 
     // Currently unused
     private int id;
 
-    RLLearner(int id, List<Object> actionSpace, double epsilon, double minEpsilon, double decay, Random rand) {
+    RLLearner(int id, List<Object> actionSpace, ExplorationSchedule schedule, Random rand,
+              RLPolicy.LearnerTables tables, RLAlgorithm algorithm) {
         this.id = id;
         this.actionSpace = actionSpace;
-        this.epsilon = epsilon;
-        this.minEpsilon = minEpsilon;
-        this.decay = decay;
+        this.schedule = schedule;
+        this.epsilon = schedule.epsilon(0);
         this.rand = rand;
 
-        this.episode = new ArrayList<>();
-        this.qcTable = new HashMap<>();
-
+        this.episode = new Episode();
+        this.qcTable = tables.qcTable;
+        this.values = tables.values;
+        this.returns = tables.returns;
+        this.actionIds = tables.actions;
+        this.algorithm = algorithm;
     }
 
     /*
-     * MCC update from episode and reward.
+     * Update from episode and reward.
     */
     void update(int r) {
-        AbstractMap.SimpleEntry<String, Object> saPair;
-        AbstractMap.SimpleEntry<Double, Double> qcPair;
-        int T = episode.size();
-        int G = r;
-        int W = 1;
-        for (int i = 0; i < T; i++) {
-            saPair = episode.get(T - i - 1);
-            String state = getState(saPair);
-            Object action = getAction(saPair);
-            qcPair = QC(state, action);
-
-            Double new_c = getC(qcPair) + W;
-            Double new_q = getQ(qcPair) + (W / new_c) * (G - getQ(qcPair));
-            updateQC(state, action, new_q, new_c);
+        // Names are only displayed for states of the current episode
+        stateNames.clear();
+        learn(episode, r);
+    }
+
+    /** Advances the exploration schedule after an episode with the given reward. */
+    void advanceSchedule(int r) {
+        trials++;
+        trialsSinceReward = r > 0 ? 0 : trialsSinceReward + 1;
+        epsilon = schedule.epsilon(schedule.plateau ? trialsSinceReward : trials);
+    }
+
+    /** Learns from the reward of a finished episode. */
+    void learn(Episode finished, int r) {
+        algorithm.update.finish(this, finished, r);
+    }
+
+    /** Moves the Q value of the (state, action) pair of a step of an episode towards a target. */
+    void addReturn(Episode episode, int step, double g) {
+        if (values != null) {
+            values.addReturn(episode.features(), episode.featureStart(step), episode.featureEnd(step),
+                    episode.action(step), g, 1);
+            return;
+        }
+        long state = episode.state(step);
+        int action = episode.action(step);
+        qcTable.addReturn(state, action, g, 1);
+        if (returns != null) {
+            returns.addReturn(state, action, g, 1);
         }
     }
 
+    /** Replaces the current episode by an empty one, and returns it. */
+    Episode takeEpisode(Episode empty) {
+        stateNames.clear();
+        Episode finished = episode;
+        episode = empty;
+        return finished;
+    }
 
     /*
-     * Select best action from given state.
-     * Uses epsilon-greedy strategy. Guided by qcTable Q values.
+     * Select action from given state with the selection policy of the algorithm.
      * Saves state action pair to episode.
      * */
-     Object select(List<Object> actions, String state) {
-        assert actions.size() > 0;
-        List<Object> best_actions = new ArrayList<>();
-        AbstractMap.SimpleEntry<String, Object> saPair;
-        Double best_Q = -Double.MAX_VALUE;
-
-        // Use all actions with probability epsilon
-        if (rand.nextDouble() <= epsilon || get_action_table(state) == null) {
-            best_actions = actions;
-        } else {
-            // Use actions with maximal Q-value
-            for (Object action : actions) {
-                Double q = getQ(QC(state, action));
-                if (q >= best_Q) {
-                    if (q > best_Q) {
-                        best_Q = q;
-                        best_actions.clear();
-                    }
-                    best_actions.add(action);
-                }
+    Object select(List<Object> actions, String state) {
+        return actions.get(selectIndex(actions, stateId(state)));
+    }
+
+    Object select(List<Object> actions, long state) {
+        return actions.get(selectIndex(actions, state));
+    }
+
+    Object select(List<Object> actions, RLState state) {
+        return actions.get(selectIndex(actions, state));
+    }
+
+    /** Same as select, but returns the position of the chosen action in <tt>actions</tt>. */
+    int selectIndex(List<Object> actions, long state) {
+        if (values != null) {
+            features[0] = state;
+            numFeatures = 1;
+        }
+        return choose(actions, state);
+    }
+
+    /**
+     * Same as select, but returns the position of the chosen action in <tt>actions</tt>.
+     * With a value function, the suffixes of the window are the features of the state.
+     */
+    int selectIndex(List<Object> actions, RLState state) {
+        if (values != null) {
+            if (features.length < state.windowSize()) {
+                features = new long[state.windowSize()];
             }
+            numFeatures = state.suffixHashes(features);
         }
-        // We return a random action from best_actions
-        int random_idx = rand.nextInt(best_actions.size());
-        Object chosen_action = best_actions.get(random_idx);
-        saPair = new AbstractMap.SimpleEntry<>(state, chosen_action);
-        episode.add(saPair);
-        return chosen_action;
+        return choose(actions, state.hash());
+    }
+
+    private int choose(List<Object> actions, long state) {
+        assert actions.size() > 0;
+        int chosen = algorithm.selection.select(this, actions, state);
+        episode.add(state, actionId(actions.get(chosen)), features, numFeatures);
+        algorithm.update.step(this, episode, actions);
+        return chosen;
     }
 
     /**
-     * Select from all choices (actionSpace)
+     * Returns whether Q values of a state are known, or whether actions
+     * should be chosen at random. A value function knows all states.
      */
-    Object select(String state) {
-        return select(actionSpace, state);
+    boolean knows(long state) {
+        return values != null || qcTable.containsState(state);
     }
 
-    void printEpisode() {
-        String printStr = "[";
-        for (AbstractMap.SimpleEntry<String, Object> saPair : episode) {
-            printStr += "(STATE: " + getState(saPair) + " ACTION: " + getAction(saPair).toString() + "), ";
+    /**
+     * Returns the Q value of an action in a state. With a value function,
+     * the state must be the one being selected in.
+     */
+    double getQ(long state, Object action) {
+        if (values != null) {
+            return values.getQ(features, 0, numFeatures, actionId(action));
         }
-        printStr += "]";
-        System.out.println(printStr);
+        return qcTable.getQ(state, actionId(action));
+    }
+
+    /** Returns the Q value of the (state, action) pair of a step of an episode. */
+    double getQ(Episode episode, int step) {
+        if (values != null) {
+            return values.getQ(episode.features(), episode.featureStart(step), episode.featureEnd(step),
+                    episode.action(step));
+        }
+        return qcTable.getQ(episode.state(step), episode.action(step));
     }
 
     /**
-     *  Returns SimpleEntry "pair" with "key" as Q value, "value" as C value
-     *  Use getQ and getC as helpers.
+     * Returns the C value of an action in a state. With a value function,
+     * the state must be the one being selected in.
      */
-    private AbstractMap.SimpleEntry<Double, Double>
-    QC(String state, Object action) {
-        HashMap<Object, AbstractMap.SimpleEntry> QC_action = get_action_table(state);
-        if (QC_action != null) {
-            if (QC_action.containsKey(action)) {
-                return QC_action.get(action);
-            }
+    double getC(long state, Object action) {
+        if (values != null) {
+            return values.getC(features, 0, numFeatures, actionId(action));
         }
-        return new AbstractMap.SimpleEntry<>(0., 0.);
+        return qcTable.getC(state, actionId(action));
     }
 
-    /** Returns action table for given state. Returns null if state not found. */
-    private HashMap<Object, AbstractMap.SimpleEntry>
-    get_action_table(String state) {
-        if (qcTable.containsKey(state)) {
-            return qcTable.get(state);
+    /** Returns a scratch array for the scores of <tt>n</tt> actions. */
+    double[] scores(int n) {
+        if (scores.length < n) {
+            scores = new double[n];
         }
-        return null;
-    }
-
-    private void updateQC(String state, Object action, Double q, Double c) {
-        AbstractMap.SimpleEntry<Double, Double> new_qc = new AbstractMap.SimpleEntry<>(q, c);
-        HashMap<Object, AbstractMap.SimpleEntry> QC_action;
-        QC_action = get_action_table(state);
-        if (QC_action == null) {
-            // Table for given state not found
-            // Create action table
-            QC_action = new HashMap<>();
-            // Add to qcTable
-            qcTable.put(state, QC_action);
+        return scores;
+    }
+
+    /** Returns a scratch array for the counts of <tt>n</tt> actions. */
+    double[] counts(int n) {
+        if (counts.length < n) {
+            counts = new double[n];
         }
-        QC_action.put(action, new_qc);
+        return counts;
     }
 
-    private Double getQ(AbstractMap.SimpleEntry<Double, Double> qcPair) {
-        return qcPair.getKey();
+    /** Returns a random position among the first <tt>n</tt> scores that are maximal. */
+    int randomBest(double[] scores, int n) {
+        if (bestActions.length < n) {
+            bestActions = new int[n];
+        }
+        int numBest = 0;
+        double best = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double score = scores[i];
+            if (score >= best) {
+                if (score > best) {
+                    best = score;
+                    numBest = 0;
+                }
+                bestActions[numBest++] = i;
+            }
+        }
+        // We return a random action from best actions
+        return bestActions[rand.nextInt(numBest)];
+    }
+
+    /**
+     * Select from all choices (actionSpace)
+     */
+    Object select(String state) {
+        return select(actionSpace, state);
     }
 
-    private Double getC(AbstractMap.SimpleEntry<Double, Double> qcPair) {
-        return qcPair.getValue();
+    void printEpisode() {
+        String printStr = "[";
+        for (int i = 0; i < episode.size(); i++) {
+            printStr += "(STATE: " + stateName(episode.state(i)) + " ACTION: " + actionIds.get(episode.action(i)).toString() + "), ";
+        }
+        printStr += "]";
+        System.out.println(printStr);
+    }
+
+    /** Returns the key of a state string, which is that of a single-token RLState. */
+    private long stateId(String state) {
+        long key = RLState.extend(0, RLState.code(state));
+        stateNames.put(key, state);
+        return key;
     }
 
-    private String getState(AbstractMap.SimpleEntry<String, Object> saPair  ) {
-        return saPair.getKey();
+    /** Returns the state string for keys of strings, or the hex key for other states. */
+    private String stateName(long state) {
+        String name = stateNames.get(state);
+        return name != null ? name : Long.toHexString(state);
     }
 
-    private Object getAction(AbstractMap.SimpleEntry<String, Object> saPair  ) {
-        return saPair.getValue();
+    /** Returns the interned id of an action. */
+    private int actionId(Object action) {
+        return actionIds.id(action);
     }
 
     public void forceAction(AbstractMap.SimpleEntry<String, Object> action) {
-        episode.add(action);
+        long state = stateId(action.getKey());
+        if (values != null) {
+            features[0] = state;
+            numFeatures = 1;
+        }
+        episode.add(state, actionId(action.getValue()), features, numFeatures);
     }
 
 }
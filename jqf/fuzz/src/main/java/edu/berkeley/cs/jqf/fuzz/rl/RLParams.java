@@ -15,6 +15,11 @@ public class RLParams {
         params = new HashMap<>();
     }
 
+    /* Copy another set of parameters (shallow copy) */
+    public RLParams(RLParams other) {
+        params = new HashMap<>(other.params);
+    }
+
     public void add(String name, Object value) {
         params.put(name, value);
     }
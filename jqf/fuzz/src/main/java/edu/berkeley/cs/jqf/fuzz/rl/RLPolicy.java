@@ -0,0 +1,561 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The learned part of an {@link RLGuide}: interned state tokens and, for
+ * each learner id, its Q-table and interned actions.
+ *
+ * <p>Every guide has a policy. A policy can also be created up front and
+ * handed to several guides through the {@link #PARAM} generator parameter,
+ * so that generators running in different worker threads learn from each
+ * other. Each guide keeps its own episodes, epsilon and randomness; the
+ * learners of guides sharing a policy are matched by id, so all of them
+ * must add their learners in the same order.</p>
+ *
+ * <p>Policies in different processes can learn from each other too: with
+ * {@link #recordReturns()}, the returns seen by learners are also
+ * recorded separately, so that they can be sent with
+ * {@link #writeReturns(DataOutputStream)} and merged into another policy
+ * with {@link #readReturns(DataInputStream)}. State keys do not depend on
+ * the order in which tokens were interned, so they are the same in every
+ * process.</p>
+ *
+ * <p>The Q-table of each learner can be bounded to a maximum number of
+ * states (see {@link BoundedQTable}), so that memory use stays flat
+ * during long campaigns. Alternatively, learners can approximate Q values
+ * with a fixed-size {@link HashedValueFunction}, which also generalizes
+ * to states that have not been seen.</p>
+ *
+ * <p>A policy also knows the guides that use it, so that
+ * {@link #writeSnapshot(DataOutputStream)} can save everything they
+ * learned, for {@link RLCheckpoint}.</p>
+ */
+public class RLPolicy {
+
+    /** Name of the generator parameter holding a shared policy. */
+    public static final String PARAM = "policy";
+
+    /** Number of stripes of concurrent Q-tables. */
+    private static final int NUM_STRIPES = 64;
+
+    private final String backend;
+
+    private final boolean concurrent;
+
+    /** Maximum number of states per learner, or 0 if unbounded */
+    private final int maxStates;
+
+    private final BoundedQTable.Eviction eviction;
+
+    /** Log2 of the number of weights of the value function of each learner, or 0 for Q-tables */
+    private final int weightBits;
+
+    /** Minimum step size of updates of value functions */
+    private final double learningRate;
+
+    /** All bounded tables, including the stripes of concurrent tables, for metrics */
+    private final List<BoundedQTable> boundedTables = new ArrayList<>();
+
+    /** Whether returns are also recorded for sending to other processes */
+    private boolean recording = false;
+
+    /** Interned state tokens */
+    final TokenTable tokens = new TokenTable();
+
+    /** Tables of each learner, indexed by learner id */
+    private final List<LearnerTables> learners = new ArrayList<>();
+
+    /** Guides using this policy, in the order they were created */
+    private final List<RLGuide> guides = new ArrayList<>();
+
+    /**
+     * Creates an empty policy.
+     *
+     * @param backend the Q-table backend (see {@link QTable#create})
+     * @param concurrent whether the policy is shared by several threads
+     */
+    public RLPolicy(String backend, boolean concurrent) {
+        this(backend, concurrent, 0, BoundedQTable.Eviction.LRU);
+    }
+
+    /**
+     * Creates an empty policy whose learners store a bounded number of states.
+     *
+     * @param backend the Q-table backend (see {@link QTable#create})
+     * @param concurrent whether the policy is shared by several threads
+     * @param maxStates the maximum number of states per learner, or 0 if unbounded;
+     *                  concurrent tables bound each of their stripes to an equal share
+     * @param eviction how the states to evict are chosen
+     */
+    public RLPolicy(String backend, boolean concurrent, int maxStates, BoundedQTable.Eviction eviction) {
+        this(backend, concurrent, maxStates, eviction, 0, 0);
+    }
+
+    /**
+     * Creates an empty policy whose learners approximate Q values with a
+     * {@link HashedValueFunction} of a fixed size, rather than Q-tables.
+     *
+     * @param concurrent whether the policy is shared by several threads
+     * @param weightBits the log2 of the number of weights per learner
+     * @param learningRate the minimum step size of updates
+     */
+    public RLPolicy(boolean concurrent, int weightBits, double learningRate) {
+        this(QTable.HASH, concurrent, 0, BoundedQTable.Eviction.LRU, weightBits, learningRate);
+    }
+
+    private RLPolicy(String backend, boolean concurrent, int maxStates, BoundedQTable.Eviction eviction,
+                     int weightBits, double learningRate) {
+        this.backend = backend;
+        this.concurrent = concurrent;
+        this.maxStates = maxStates;
+        this.eviction = eviction;
+        this.weightBits = weightBits;
+        this.learningRate = learningRate;
+        // Fail early on unknown backends
+        QTable.create(backend);
+    }
+
+    /**
+     * Creates an empty policy configured by generator parameters.
+     *
+     * @param params: qTable (optional; "hash" or "primitive"),
+     *              maxStates (optional; the maximum number of states per learner),
+     *              eviction (optional; "lru", "visits" or "variance", see {@link BoundedQTable.Eviction}),
+     *              valueFunction (optional; "table" for Q-tables, or "hashed" for a {@link HashedValueFunction}),
+     *              weightBits (optional; the log2 of the number of weights of hashed value functions, default 18),
+     *              learningRate (optional; the minimum step size of hashed value functions, default 0.05)
+     * @param concurrent whether the policy is shared by several threads
+     * @return a new policy
+     */
+    public static RLPolicy create(RLParams params, boolean concurrent) {
+        String valueFunction = params.exists("valueFunction") ? (String) params.get("valueFunction") : "table";
+        switch (valueFunction) {
+            case "table":
+                break;
+            case "hashed":
+                int weightBits = params.exists("weightBits") ? (int) params.get("weightBits") : 18;
+                double learningRate = params.exists("learningRate") ? (double) params.get("learningRate") : 0.05;
+                return new RLPolicy(concurrent, weightBits, learningRate);
+            default:
+                throw new IllegalArgumentException("Unknown value function: " + valueFunction);
+        }
+        String backend = params.exists("qTable") ? (String) params.get("qTable") : QTable.HASH;
+        int maxStates = params.exists("maxStates") ? (int) params.get("maxStates") : 0;
+        BoundedQTable.Eviction eviction = params.exists("eviction") ?
+                BoundedQTable.Eviction.of((String) params.get("eviction")) : BoundedQTable.Eviction.LRU;
+        return new RLPolicy(backend, concurrent, maxStates, eviction);
+    }
+
+    /** Creates the Q-table of a learner. */
+    private QTable newTable() {
+        if (!concurrent) {
+            return newTable(maxStates);
+        }
+        int stripeStates = (maxStates + NUM_STRIPES - 1) / NUM_STRIPES;
+        return new ConcurrentQTable(() -> newTable(stripeStates), NUM_STRIPES);
+    }
+
+    private QTable newTable(int maxStates) {
+        QTable table = QTable.create(backend);
+        if (maxStates <= 0) {
+            return table;
+        }
+        BoundedQTable bounded = new BoundedQTable(table, maxStates, eviction);
+        boundedTables.add(bounded);
+        return bounded;
+    }
+
+    /** Creates a table for recorded returns, which are drained regularly. */
+    private QTable newReturnsTable() {
+        return concurrent ? new ConcurrentQTable(backend, NUM_STRIPES) : QTable.create(backend);
+    }
+
+    /**
+     * Returns the tables of a learner, creating them on first use.
+     * The actions of <tt>actionSpace</tt> get their position as id.
+     */
+    synchronized LearnerTables learner(int id, List<Object> actionSpace) {
+        while (learners.size() <= id) {
+            learners.add(null);
+        }
+        LearnerTables tables = learners.get(id);
+        if (tables == null) {
+            tables = new LearnerTables(newTable(), recording ? newReturnsTable() : null,
+                    weightBits > 0 ? new HashedValueFunction(weightBits, learningRate) : null);
+            if (actionSpace != null) {
+                for (Object action : actionSpace) {
+                    tables.actions.id(action);
+                }
+                tables.numFixedActions = actionSpace.size();
+            }
+            learners.set(id, tables);
+        }
+        return tables;
+    }
+
+    /** Registers a guide using this policy. */
+    synchronized void addGuide(RLGuide guide) {
+        guides.add(guide);
+    }
+
+    /** Returns whether this policy can be shared by several threads. */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /** Returns whether the Q-tables of learners are bounded. */
+    public boolean isBounded() {
+        return maxStates > 0;
+    }
+
+    /** Returns the total number of states stored by all learners. */
+    public synchronized int numStates() {
+        int n = 0;
+        for (LearnerTables tables : learners) {
+            if (tables != null) {
+                n += tables.qcTable.numStates();
+            }
+        }
+        return n;
+    }
+
+    /** Returns the total number of states evicted from the Q-tables of all learners. */
+    public synchronized long numEvictions() {
+        long n = 0;
+        for (BoundedQTable table : boundedTables) {
+            n += table.numEvictions();
+        }
+        return n;
+    }
+
+    /**
+     * Returns the fraction of states looked up during selection that were
+     * stored, over all bounded Q-tables, or NaN if none were looked up.
+     */
+    public synchronized double hitRate() {
+        long lookups = 0, hits = 0;
+        for (BoundedQTable table : boundedTables) {
+            lookups += table.numLookups();
+            hits += table.numHits();
+        }
+        return (double) hits / lookups;
+    }
+
+    /**
+     * Starts recording the returns seen by learners, for
+     * {@link #writeReturns(DataOutputStream)}. Must be called before
+     * any learner is added.
+     */
+    public synchronized void recordReturns() {
+        assert learners.isEmpty();
+        if (weightBits > 0) {
+            throw new IllegalStateException("Returns of hashed value functions cannot be exchanged");
+        }
+        recording = true;
+    }
+
+    /**
+     * Writes the returns recorded since the previous call, and forgets them.
+     *
+     * <p>For each learner, the returns seen for every (state, action) pair
+     * are written as their count and average, i.e. as the C and Q values
+     * of a table that has only learned from these returns. Actions outside
+     * of the action space of a learner are written by name.</p>
+     *
+     * @param out the stream to write to
+     * @throws IOException if the returns cannot be written
+     */
+    public synchronized void writeReturns(DataOutputStream out) throws IOException {
+        assert recording;
+        out.writeInt(learners.size());
+        for (int id = 0; id < learners.size(); id++) {
+            LearnerTables tables = learners.get(id);
+            if (tables == null) {
+                out.writeInt(-1);
+                continue;
+            }
+
+            // Entries first, so that all their actions have been interned
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream entries = new DataOutputStream(buffer);
+            int[] numEntries = {0};
+            try {
+                tables.returns.drain((state, action, q, c) -> {
+                    try {
+                        entries.writeLong(state);
+                        entries.writeInt(action);
+                        entries.writeDouble(q);
+                        entries.writeDouble(c);
+                        numEntries[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            out.writeInt(id);
+            out.writeInt(tables.numFixedActions);
+            int numActions = tables.actions.size();
+            out.writeInt(numActions);
+            for (int a = tables.numFixedActions; a < numActions; a++) {
+                out.writeUTF(String.valueOf(tables.actions.get(a)));
+            }
+            out.writeInt(numEntries[0]);
+            buffer.writeTo(out);
+        }
+    }
+
+    /**
+     * Merges returns written by another process with
+     * {@link #writeReturns(DataOutputStream)} into this policy.
+     *
+     * <p>Q values are merged by count-weighted averaging, using the C
+     * values as counts. Named actions that this policy has not seen are
+     * added as strings. Returns are not recorded again, so they are not
+     * sent back to other processes.</p>
+     *
+     * @param in the stream to read from
+     * @throws IOException if the returns cannot be read, or if they
+     *                     come from learners with other action spaces
+     */
+    public synchronized void readReturns(DataInputStream in) throws IOException {
+        int numLearners = in.readInt();
+        for (int i = 0; i < numLearners; i++) {
+            int id = in.readInt();
+            if (id < 0) {
+                continue;
+            }
+            LearnerTables tables = id < learners.size() ? learners.get(id) : null;
+            int numFixedActions = in.readInt();
+            if (tables != null && tables.numFixedActions != numFixedActions) {
+                throw new IOException("Learner " + id + " has " + numFixedActions +
+                        " actions in the other process, but " + tables.numFixedActions + " here");
+            }
+            int numActions = in.readInt();
+            int[] localActions = new int[numActions];
+            for (int a = 0; a < numActions; a++) {
+                if (a < numFixedActions) {
+                    localActions[a] = a;
+                } else {
+                    String name = in.readUTF();
+                    localActions[a] = tables != null ? tables.actions.id(name) : -1;
+                }
+            }
+            int numEntries = in.readInt();
+            for (int e = 0; e < numEntries; e++) {
+                long state = in.readLong();
+                int action = in.readInt();
+                double q = in.readDouble();
+                double c = in.readDouble();
+                // Learners that do not exist here yet have nothing to merge into
+                if (tables != null && c > 0) {
+                    tables.qcTable.addReturn(state, localActions[action], q, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the complete state of this policy and of its guides.
+     *
+     * <p>For each learner, all Q and C values are written in chunks,
+     * followed by the names of the actions outside of its action space
+     * and the weights of its value function, if any.
+     * Then the epsilon of each learner and the randomness of each guide
+     * are written. Guides sharing this policy may keep learning while it
+     * is written; each entry is then either written before or after
+     * their update.</p>
+     *
+     * @param out the stream to write to
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(learners.size());
+        for (int id = 0; id < learners.size(); id++) {
+            LearnerTables tables = learners.get(id);
+            if (tables == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(id);
+            out.writeInt(tables.numFixedActions);
+            EntryWriter entries = new EntryWriter(out);
+            try {
+                tables.qcTable.forEach(entries);
+                entries.flush();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeInt(0);
+            // Names last, so that they include the actions of all entries
+            int numActions = tables.actions.size();
+            out.writeInt(numActions);
+            for (int a = tables.numFixedActions; a < numActions; a++) {
+                RLCheckpoint.writeString(out, String.valueOf(tables.actions.get(a)));
+            }
+            if (tables.values != null) {
+                out.writeInt(tables.values.size());
+                tables.values.writeTo(out);
+            } else {
+                out.writeInt(0);
+            }
+        }
+
+        out.writeInt(guides.size());
+        for (RLGuide guide : guides) {
+            guide.writeSnapshot(out);
+        }
+    }
+
+    /**
+     * Replaces the state of this policy and of its guides by a snapshot
+     * written with {@link #writeSnapshot(DataOutputStream)}.
+     *
+     * <p>Learners must have been added to the guides, with the same action
+     * spaces as when the snapshot was written. Guides beyond those in the
+     * snapshot keep their state.</p>
+     *
+     * @param in the buffer to read from, e.g. a mapped file
+     * @throws IOException if the snapshot comes from learners with other action spaces
+     */
+    public synchronized void readSnapshot(ByteBuffer in) throws IOException {
+        int numLearners = in.getInt();
+        for (int i = 0; i < numLearners; i++) {
+            int id = in.getInt();
+            if (id < 0) {
+                continue;
+            }
+            LearnerTables tables = id < learners.size() ? learners.get(id) : null;
+            if (tables == null) {
+                throw new IOException("Learner " + id + " of the snapshot has not been added");
+            }
+            int numFixedActions = in.getInt();
+            if (tables.numFixedActions != numFixedActions) {
+                throw new IOException("Learner " + id + " has " + numFixedActions +
+                        " actions in the snapshot, but " + tables.numFixedActions + " here");
+            }
+
+            // Skip the entries to read the action names first
+            int entriesStart = in.position();
+            int chunkSize;
+            while ((chunkSize = in.getInt()) > 0) {
+                in.position(in.position() + chunkSize * EntryWriter.ENTRY_BYTES);
+            }
+            int numActions = in.getInt();
+            int[] localActions = new int[numActions];
+            for (int a = 0; a < numActions; a++) {
+                localActions[a] = a < numFixedActions ? a : tables.actions.id(RLCheckpoint.readString(in));
+            }
+            int numWeights = in.getInt();
+            int valuesStart = in.position();
+            int valuesSize = tables.values != null ? tables.values.size() : 0;
+            if (numWeights != valuesSize) {
+                throw new IOException("Learner " + id + " has " + numWeights +
+                        " weights in the snapshot, but " + valuesSize + " here");
+            }
+            int end = valuesStart + numWeights * (8 + 8);
+
+            tables.qcTable.clear();
+            in.position(entriesStart);
+            while ((chunkSize = in.getInt()) > 0) {
+                for (int e = 0; e < chunkSize; e++) {
+                    long state = in.getLong();
+                    int action = in.getInt();
+                    double q = in.getDouble();
+                    double c = in.getDouble();
+                    tables.qcTable.put(state, localActions[action], q, c);
+                }
+            }
+            if (tables.values != null) {
+                in.position(valuesStart);
+                tables.values.readFrom(in);
+            }
+            in.position(end);
+        }
+
+        int numGuides = in.getInt();
+        for (int g = 0; g < numGuides; g++) {
+            if (g < guides.size()) {
+                guides.get(g).readSnapshot(in);
+            } else {
+                RLGuide.skipSnapshot(in);
+            }
+        }
+    }
+
+    /** Writes Q-table entries in chunks, each preceded by its number of entries. */
+    private static class EntryWriter implements QTable.EntryVisitor {
+        static final int ENTRY_BYTES = 8 + 4 + 8 + 8;
+        private static final int CHUNK_SIZE = 4096;
+
+        private final DataOutputStream out;
+        private final long[] states = new long[CHUNK_SIZE];
+        private final int[] actions = new int[CHUNK_SIZE];
+        private final double[] qs = new double[CHUNK_SIZE];
+        private final double[] cs = new double[CHUNK_SIZE];
+        private int size = 0;
+
+        EntryWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void visit(long state, int action, double q, double c) {
+            states[size] = state;
+            actions[size] = action;
+            qs[size] = q;
+            cs[size] = c;
+            if (++size == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (size == 0) {
+                return;
+            }
+            try {
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(states[i]);
+                    out.writeInt(actions[i]);
+                    out.writeDouble(qs[i]);
+                    out.writeDouble(cs[i]);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            size = 0;
+        }
+    }
+
+    /** The state shared by all learners with the same id. */
+    static class LearnerTables {
+        /** Stores Q and C values, keyed by state keys and interned action ids. */
+        final QTable qcTable;
+        /** Returns recorded since they were last written, or null if not recording */
+        final QTable returns;
+        /** Approximates Q values instead of qcTable, or null */
+        final HashedValueFunction values;
+        /** Interned actions */
+        final Interner<Object> actions = new Interner<>();
+        /** The number of actions in the action space, which are interned first */
+        int numFixedActions = 0;
+
+        LearnerTables(QTable qcTable, QTable returns, HashedValueFunction values) {
+            this.qcTable = qcTable;
+            this.returns = returns;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+
+import java.util.Arrays;
+
+/**
+ * A rolling window over the most recent state tokens, used as the
+ * state argument of {@link RLGuide#select(RLState, int)}.
+ *
+ * <p>Tokens are ids interned with {@link RLGuide#token(String)}. The
+ * window holds the last <tt>size</tt> pushed tokens, and a 64-bit hash
+ * of the window is updated incrementally on every push. This hash is
+ * the key under which learners store Q values, so pushing tokens and
+ * selecting actions does not allocate.</p>
+ *
+ * <p>The hash depends on the names of the tokens rather than on their
+ * ids, so the same window has the same key in every process (see
+ * {@link #code(String)}).</p>
+ *
+ * <p>Tokens that are unlikely to recur, such as hashes of generated
+ * text, can be pushed as raw codes with {@link #pushCode(long)}, so that
+ * they are not interned in the token table, which is never trimmed.</p>
+ *
+ * <p>All pushed tokens are kept on a stack, so {@link #pop()} restores
+ * the window as it was before the matching push. Recursive generators
+ * can therefore share one state object, as long as every method pops
+ * what it pushes (see {@link #depth()} and {@link #popTo(int)}).</p>
+ */
+public class RLState {
+
+    /** The token id of tokens pushed as raw codes. */
+    private static final int RAW = -1;
+
+    /** Multiplier of the polynomial rolling hash (must be odd). */
+    private static final long BASE = 0x100000001B3L;
+
+    /** The number of tokens in the window. */
+    private final int size;
+
+    /** BASE raised to the power of size, for removing the oldest token. */
+    private final long basePow;
+
+    /** Token names and codes */
+    private final TokenTable tokenTable;
+
+    /** Stack of all pushed tokens, or RAW for tokens pushed as codes. */
+    private int[] tokens = new int[64];
+
+    /** Stack of the codes of all pushed tokens. */
+    private long[] codes = new long[64];
+
+    /** hashes[d] is the hash of the window after d pushes. */
+    private long[] hashes = new long[65];
+
+    /** The number of tokens currently on the stack. */
+    private int depth = 0;
+
+    RLState(int size, TokenTable tokenTable) {
+        this.size = size;
+        this.tokenTable = tokenTable;
+        long pow = 1;
+        for (int i = 0; i < size; i++) {
+            pow *= BASE;
+        }
+        this.basePow = pow;
+    }
+
+    /**
+     * Returns the hash of a window after appending a token to it,
+     * without removing any token.
+     *
+     * @param hash the hash of the window
+     * @param code the code of the token to append
+     * @return the hash of the extended window
+     */
+    static long extend(long hash, long code) {
+        return hash * BASE + code;
+    }
+
+    /**
+     * Returns the 64-bit code of a token name, which is what the hash of
+     * a window is computed from.
+     *
+     * @param name the token name
+     * @return a well-mixed hash of the name
+     */
+    static long code(String name) {
+        return Hashing.hash64(name);
+    }
+
+    /**
+     * Pushes a token, evicting the oldest token from the window if it is full.
+     *
+     * @param token an interned token id
+     */
+    public void push(int token) {
+        push(token, tokenTable.code(token));
+    }
+
+    /**
+     * Pushes a token that is not interned, given its code, evicting the
+     * oldest token from the window if it is full. The window has the same
+     * hash as if a token with a name of that code had been pushed.
+     *
+     * @param code the code of the token, e.g. {@link #code(String)} of its name
+     */
+    public void pushCode(long code) {
+        push(RAW, code);
+    }
+
+    private void push(int token, long code) {
+        if (depth == tokens.length) {
+            tokens = Arrays.copyOf(tokens, depth * 2);
+            codes = Arrays.copyOf(codes, depth * 2);
+            hashes = Arrays.copyOf(hashes, depth * 2 + 1);
+        }
+        long hash = extend(hashes[depth], code);
+        if (depth >= size) {
+            hash -= codes[depth - size] * basePow;
+        }
+        tokens[depth] = token;
+        codes[depth++] = code;
+        hashes[depth] = hash;
+    }
+
+    /** Pops the most recently pushed token, restoring the previous window. */
+    public void pop() {
+        assert depth > 0;
+        depth--;
+    }
+
+    /**
+     * Returns the number of tokens pushed and not yet popped.
+     *
+     * @return the current depth of the token stack
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Pops tokens until the stack has the given depth.
+     *
+     * @param depth a depth previously returned by {@link #depth()}
+     */
+    public void popTo(int depth) {
+        assert depth <= this.depth;
+        this.depth = depth;
+    }
+
+    /** Pops all tokens. */
+    public void clear() {
+        this.depth = 0;
+    }
+
+    /**
+     * Returns the 64-bit hash of the tokens in the window.
+     *
+     * @return the hash of the window
+     */
+    public long hash() {
+        return hashes[depth];
+    }
+
+    /**
+     * Returns the number of tokens in a full window.
+     *
+     * @return the size of the window
+     */
+    public int windowSize() {
+        return size;
+    }
+
+    /**
+     * Writes the hashes of the suffixes of the window, from the whole
+     * window down to its most recent token. The first hash is always
+     * {@link #hash()}; the others are the keys of the same state with
+     * fewer tokens, which states differing only in older tokens share.
+     *
+     * @param out the array to write to, of length at least
+     *            max(1, {@link #windowSize()})
+     * @return the number of hashes written
+     */
+    int suffixHashes(long[] out) {
+        int n = Math.min(depth, size);
+        if (n == 0) {
+            out[0] = hash();
+            return 1;
+        }
+        long suffix = 0;
+        long pow = 1;
+        for (int k = 1; k <= n; k++) {
+            suffix += codes[depth - k] * pow;
+            pow *= BASE;
+            out[n - k] = suffix;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the tokens in the window, joined as by {@link RLGuide#stateDelim}.
+     * Tokens pushed as codes are shown as their hex code.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = Math.max(0, depth - size); i < depth; i++) {
+            if (sb.length() > 0) {
+                sb.append(RLGuide.stateDelim);
+            }
+            sb.append(tokens[i] == RAW ? Long.toHexString(codes[i]) : tokenTable.get(tokens[i]));
+        }
+        return sb.toString();
+    }
+}
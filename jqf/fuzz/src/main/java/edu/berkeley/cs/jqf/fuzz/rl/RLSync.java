@@ -0,0 +1,191 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.FingerprintSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exchanges learned policy and results with other RLCheck processes
+ * fuzzing the same test, through a shared directory.
+ *
+ * <p>Each process owns a subdirectory of the sync directory. On every
+ * exchange, it writes a numbered file with what it found since its
+ * previous exchange: the hashes of new valid inputs and branch sets,
+ * and the returns seen by its learners (see
+ * {@link RLPolicy#writeReturns}). It then merges the files that other
+ * processes have written since. Files are written to a temporary name
+ * and then renamed, so readers never see partial files.</p>
+ *
+ * <p>Each process also overwrites a status file with its execution
+ * counts and cumulative coverage, which {@link RLCoordinator} reports.</p>
+ */
+public class RLSync {
+
+    /** Name of the status file of each process. */
+    static final String STATUS_FILE = "status";
+
+    private static final String SYNC_FILE_FORMAT = "sync-%06d";
+
+    private final File syncDirectory;
+
+    private final File ownDirectory;
+
+    private final RLPolicy policy;
+
+    private final long periodMillis;
+
+    /** Number of the next file to write */
+    private int nextSeq = 0;
+
+    /** Number of the next file to read from each other process */
+    private final Map<String, Integer> peerSeqs = new HashMap<>();
+
+    /** Time of the last exchange */
+    private volatile long lastExchange = System.currentTimeMillis();
+
+    /** Fingerprints found by this process since the last exchange. */
+    final FingerprintSet newValidInputs = new FingerprintSet();
+    final FingerprintSet newBranchSets = new FingerprintSet();
+
+    /**
+     * Creates a sync for one process.
+     *
+     * @param syncDirectory the directory shared by all processes
+     * @param name          the name of this process, unique among them
+     * @param policy        the policy of this process, which must record returns
+     * @param periodMillis  the minimum time between two exchanges
+     * @throws IOException if the directory of this process cannot be created
+     */
+    public RLSync(File syncDirectory, String name, RLPolicy policy, long periodMillis) throws IOException {
+        this.syncDirectory = syncDirectory;
+        this.ownDirectory = new File(syncDirectory, name);
+        this.policy = policy;
+        this.periodMillis = periodMillis;
+
+        if (!ownDirectory.isDirectory() && !ownDirectory.mkdirs()) {
+            throw new IOException("Could not create sync directory " + ownDirectory.getAbsolutePath());
+        }
+        // Delete files from a previous run of this process
+        for (File file : ownDirectory.listFiles()) {
+            file.delete();
+        }
+    }
+
+    /** Returns whether the period since the last exchange has elapsed. */
+    boolean isDue() {
+        return System.currentTimeMillis() - lastExchange >= periodMillis;
+    }
+
+    /**
+     * Publishes what the guidance found since the last exchange, and
+     * merges what other processes published since.
+     *
+     * @param guidance the guidance of this process
+     * @throws IOException if a file cannot be written or read
+     */
+    synchronized void exchange(RLGuidance guidance) throws IOException {
+        lastExchange = System.currentTimeMillis();
+
+        // Publish new results
+        File syncFile = new File(ownDirectory, String.format(SYNC_FILE_FORMAT, nextSeq));
+        try (DataOutputStream out = create(syncFile)) {
+            writeHashes(out, newValidInputs);
+            writeHashes(out, newBranchSets);
+            policy.writeReturns(out);
+        }
+        publish(syncFile);
+        nextSeq++;
+
+        File statusFile = new File(ownDirectory, STATUS_FILE);
+        try (DataOutputStream out = create(statusFile)) {
+            out.writeLong(guidance.numTrials.get());
+            out.writeLong(guidance.numValid.get());
+            out.writeLong(guidance.uniqueValidInputs.size());
+            synchronized (guidance) {
+                out.writeInt(guidance.uniqueFailures.size());
+                writeCoverage(out, guidance.totalCoverage);
+                writeCoverage(out, guidance.validCoverage);
+            }
+        }
+        publish(statusFile);
+
+        // Merge results of other processes
+        File[] peers = syncDirectory.listFiles(File::isDirectory);
+        if (peers == null) {
+            return;
+        }
+        for (File peer : peers) {
+            if (peer.equals(ownDirectory)) {
+                continue;
+            }
+            int seq = peerSeqs.getOrDefault(peer.getName(), 0);
+            File file;
+            while ((file = new File(peer, String.format(SYNC_FILE_FORMAT, seq))).exists()) {
+                try (DataInputStream in = open(file)) {
+                    readHashes(in, guidance.uniqueValidInputs);
+                    readHashes(in, guidance.uniqueBranchSets);
+                    policy.readReturns(in);
+                }
+                seq++;
+            }
+            peerSeqs.put(peer.getName(), seq);
+        }
+    }
+
+    private static DataOutputStream create(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    }
+
+    private static void publish(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /** Writes and removes the fingerprints in a set. */
+    private static void writeHashes(DataOutputStream out, FingerprintSet hashes) throws IOException {
+        long[] drained = hashes.drain();
+        out.writeInt(drained.length);
+        for (long hash : drained) {
+            out.writeLong(hash);
+        }
+    }
+
+    static void readHashes(DataInputStream in, FingerprintSet hashes) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            hashes.add(in.readLong());
+        }
+    }
+
+    private static void writeCoverage(DataOutputStream out, Coverage coverage) throws IOException {
+        out.writeInt(coverage.getNonZeroCount());
+        for (Object idx : coverage.getCovered()) {
+            out.writeInt((Integer) idx);
+        }
+    }
+
+    static int[] readCoverage(DataInputStream in) throws IOException {
+        int[] covered = new int[in.readInt()];
+        for (int i = 0; i < covered.length; i++) {
+            covered[i] = in.readInt();
+        }
+        return covered;
+    }
+}
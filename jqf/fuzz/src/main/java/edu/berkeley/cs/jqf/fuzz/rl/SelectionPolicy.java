@@ -0,0 +1,151 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.List;
+
+/**
+ * How an {@link RLLearner} chooses an action in a state from its Q and C values.
+ *
+ * <p>The epsilon of the learner, which decays after every episode, controls
+ * how much each policy explores. Policies that add a bonus to Q values scale
+ * it by the <tt>rewardScale</tt> of the algorithm, i.e. the reward of a
+ * unique valid input.</p>
+ */
+interface SelectionPolicy {
+
+    /**
+     * Chooses an action.
+     *
+     * @param learner the learner choosing
+     * @param actions the actions to choose from (non-empty)
+     * @param state the current state key
+     * @return the position of the chosen action in <tt>actions</tt>
+     */
+    int select(RLLearner learner, List<Object> actions, long state);
+
+    /** Picks a random action with probability epsilon, and otherwise one with maximal Q value. */
+    class EpsilonGreedy implements SelectionPolicy {
+        @Override
+        public int select(RLLearner learner, List<Object> actions, long state) {
+            int n = actions.size();
+            // Use all actions with probability epsilon
+            if (learner.rand.nextDouble() <= learner.epsilon || !learner.knows(state)) {
+                return learner.rand.nextInt(n);
+            }
+            double[] scores = learner.scores(n);
+            for (int i = 0; i < n; i++) {
+                scores[i] = learner.getQ(state, actions.get(i));
+            }
+            return learner.randomBest(scores, n);
+        }
+    }
+
+    /**
+     * Picks actions with probabilities proportional to exp(Q / T), where the
+     * temperature T is epsilon times the reward scale.
+     */
+    class Softmax implements SelectionPolicy {
+        private final double rewardScale;
+
+        Softmax(double rewardScale) {
+            this.rewardScale = rewardScale;
+        }
+
+        @Override
+        public int select(RLLearner learner, List<Object> actions, long state) {
+            int n = actions.size();
+            if (!learner.knows(state)) {
+                return learner.rand.nextInt(n);
+            }
+            double[] scores = learner.scores(n);
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                scores[i] = learner.getQ(state, actions.get(i));
+                max = Math.max(max, scores[i]);
+            }
+            double temperature = learner.epsilon * rewardScale;
+            if (temperature <= 0) {
+                return learner.randomBest(scores, n);
+            }
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                scores[i] = Math.exp((scores[i] - max) / temperature);
+                sum += scores[i];
+            }
+            double x = learner.rand.nextDouble() * sum;
+            for (int i = 0; i < n - 1; i++) {
+                x -= scores[i];
+                if (x < 0) {
+                    return i;
+                }
+            }
+            return n - 1;
+        }
+    }
+
+    /**
+     * Treats each state as a bandit: tries every action once, then picks the
+     * action with the highest upper confidence bound
+     * Q + c * sqrt(ln N / C), where N is the number of visits of the state
+     * and c is epsilon times the reward scale.
+     */
+    class Ucb1 implements SelectionPolicy {
+        private final double rewardScale;
+
+        Ucb1(double rewardScale) {
+            this.rewardScale = rewardScale;
+        }
+
+        @Override
+        public int select(RLLearner learner, List<Object> actions, long state) {
+            int n = actions.size();
+            if (!learner.knows(state)) {
+                return learner.rand.nextInt(n);
+            }
+            double[] scores = learner.scores(n);
+            double[] counts = learner.counts(n);
+            double visits = 0;
+            for (int i = 0; i < n; i++) {
+                Object action = actions.get(i);
+                scores[i] = learner.getQ(state, action);
+                counts[i] = learner.getC(state, action);
+                visits += counts[i];
+            }
+            double c = learner.epsilon * rewardScale;
+            double logVisits = Math.log(Math.max(visits, 1));
+            for (int i = 0; i < n; i++) {
+                scores[i] = counts[i] == 0 ? Double.POSITIVE_INFINITY : scores[i] + c * Math.sqrt(logVisits / counts[i]);
+            }
+            return learner.randomBest(scores, n);
+        }
+    }
+
+    /**
+     * Samples a value for each action around its Q value, with a spread of
+     * epsilon times the reward scale that shrinks with the number of visits
+     * C, and picks the action with the highest sample.
+     */
+    class Thompson implements SelectionPolicy {
+        private final double rewardScale;
+
+        Thompson(double rewardScale) {
+            this.rewardScale = rewardScale;
+        }
+
+        @Override
+        public int select(RLLearner learner, List<Object> actions, long state) {
+            int n = actions.size();
+            if (!learner.knows(state)) {
+                return learner.rand.nextInt(n);
+            }
+            double[] scores = learner.scores(n);
+            double spread = learner.epsilon * rewardScale;
+            for (int i = 0; i < n; i++) {
+                Object action = actions.get(i);
+                double q = learner.getQ(state, action);
+                double c = learner.getC(state, action);
+                scores[i] = q + spread * learner.rand.nextGaussian() / Math.sqrt(c + 1);
+            }
+            return learner.randomBest(scores, n);
+        }
+    }
+}
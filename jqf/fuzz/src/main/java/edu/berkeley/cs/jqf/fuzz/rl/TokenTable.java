@@ -0,0 +1,27 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.Arrays;
+
+/**
+ * Interned state tokens, together with the code of each token
+ * (see {@link RLState#code(String)}), so that pushing a token only
+ * needs an array lookup.
+ */
+class TokenTable extends Interner<String> {
+    private volatile long[] codes = new long[64];
+
+    @Override
+    protected void added(int id, String name) {
+        long[] c = codes;
+        if (id >= c.length) {
+            c = Arrays.copyOf(c, c.length * 2);
+        }
+        c[id] = RLState.code(name);
+        codes = c;
+    }
+
+    /** Returns the code of an interned token. */
+    long code(int token) {
+        return codes[token];
+    }
+}
@@ -0,0 +1,92 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import java.util.List;
+
+/**
+ * How an {@link RLLearner} updates its Q values from rewards.
+ *
+ * <p>The reward of an input is only known at the end of its episode.
+ * Every update moves the Q value of a (state, action) pair towards a
+ * target by 1/C, i.e. Q is the average of all targets seen.</p>
+ */
+interface UpdateRule {
+
+    /**
+     * Called after each selection, with the chosen (state, action) pair
+     * last in the episode.
+     *
+     * @param learner the learner that selected
+     * @param episode the current episode
+     * @param actions the actions that were chosen from
+     */
+    default void step(RLLearner learner, Episode episode, List<Object> actions) {
+    }
+
+    /**
+     * Called with the reward of a finished episode. May be called in
+     * another thread than the one selecting (see {@link AsyncUpdater}).
+     *
+     * @param learner the learner of the episode
+     * @param episode the finished episode
+     * @param reward the reward of the input
+     */
+    void finish(RLLearner learner, Episode episode, int reward);
+
+    /** Monte Carlo control: every step of an episode moves towards the reward. */
+    class MonteCarlo implements UpdateRule {
+        @Override
+        public void finish(RLLearner learner, Episode episode, int reward) {
+            int T = episode.size();
+            for (int i = 0; i < T; i++) {
+                learner.addReturn(episode, T - i - 1, reward);
+            }
+        }
+    }
+
+    /**
+     * Temporal-difference learning: each step moves towards the discounted
+     * value of the next step as soon as it is chosen, and the last step
+     * towards the reward. The value of the next step is the maximal Q value
+     * of its state (Q-learning) or the Q value of the chosen action (SARSA).
+     */
+    class TemporalDifference implements UpdateRule {
+        private final double discount;
+        private final boolean onPolicy;
+
+        /**
+         * @param discount the discount of the value of the next step
+         * @param onPolicy true for SARSA, false for Q-learning
+         */
+        TemporalDifference(double discount, boolean onPolicy) {
+            this.discount = discount;
+            this.onPolicy = onPolicy;
+        }
+
+        @Override
+        public void step(RLLearner learner, Episode episode, List<Object> actions) {
+            int t = episode.size() - 1;
+            if (t < 1) {
+                return;
+            }
+            long next = episode.state(t);
+            double value;
+            if (onPolicy) {
+                value = learner.getQ(episode, t);
+            } else {
+                value = Double.NEGATIVE_INFINITY;
+                for (Object action : actions) {
+                    value = Math.max(value, learner.getQ(next, action));
+                }
+            }
+            learner.addReturn(episode, t - 1, discount * value);
+        }
+
+        @Override
+        public void finish(RLLearner learner, Episode episode, int reward) {
+            int T = episode.size();
+            if (T > 0) {
+                learner.addReturn(episode, T - 1, reward);
+            }
+        }
+    }
+}
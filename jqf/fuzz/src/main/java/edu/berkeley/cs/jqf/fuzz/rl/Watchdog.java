@@ -0,0 +1,201 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Enforces budgets of wall-clock and CPU time on runs of a test, from a
+ * background thread.
+ *
+ * <p>Each thread running the test has a {@link Watch}, which is armed
+ * while the test method runs. When a run exceeds a budget, its watch
+ * expires; an instrumented run notices this at its next trace event and
+ * throws a {@link TimeoutException}. A run that is still going after a
+ * grace period, for example because it is not instrumented or not traced,
+ * is stopped with {@link Thread#stop()}, which throws a
+ * {@link ThreadDeath} in the running thread. Stopping a thread may leave
+ * the objects it was modifying inconsistent, or a class whose static
+ * initializer it was running unusable, so the grace period should leave
+ * instrumented runs the time to stop by themselves.</p>
+ *
+ * <p>A run is only stopped while its watch is armed, holding the lock of
+ * the watch, and {@link Watch#disarm()} takes that lock, so once it
+ * returns no {@link ThreadDeath} is pending. The watch must therefore be
+ * armed and disarmed where the test thread handles {@link ThreadDeath}.</p>
+ */
+class Watchdog {
+
+    /** The timing of runs in one thread. */
+    class Watch {
+        private final Thread thread;
+
+        /** Start of the current run, in nanoseconds, if armed */
+        private long startNanos;
+        private long startCpuNanos;
+        private boolean armed;
+
+        /** Whether the current run is stopped, or asked to stop */
+        private volatile boolean expired;
+        private boolean stopped;
+        private long expiredNanos;
+        private long elapsedMillis;
+        private long limitMillis;
+
+        Watch(Thread thread) {
+            this.thread = thread;
+        }
+
+        /** Starts timing a run. Must be called by the thread of this watch. */
+        void arm() {
+            long cpuNanos = cpuLimitMillis > 0 ? threads.getCurrentThreadCpuTime() : 0;
+            synchronized (this) {
+                startNanos = System.nanoTime();
+                startCpuNanos = cpuNanos;
+                expired = false;
+                stopped = false;
+                armed = true;
+            }
+        }
+
+        /** Stops timing the current run. Must be called by the thread of this watch. */
+        void disarm() {
+            while (true) {
+                try {
+                    synchronized (this) {
+                        armed = false;
+                        return;
+                    }
+                } catch (ThreadDeath e) {
+                    // The run was stopped as it ended, which is no longer needed
+                }
+            }
+        }
+
+        /** Returns whether the current run exceeded a budget. */
+        boolean isExpired() {
+            return expired;
+        }
+
+        /** Returns an exception describing the budget that the current run exceeded. */
+        synchronized TimeoutException timeout() {
+            return new TimeoutException(elapsedMillis, limitMillis);
+        }
+
+        /** Checks the budgets of the current run, and stops it if needed. */
+        private synchronized void check(long now) {
+            if (!armed || stopped) {
+                return;
+            }
+            if (!expired) {
+                long elapsed = (now - startNanos) / 1_000_000;
+                if (wallLimitMillis > 0 && elapsed > wallLimitMillis) {
+                    expire(now, elapsed, wallLimitMillis);
+                } else if (cpuLimitMillis > 0) {
+                    long cpu = (threads.getThreadCpuTime(thread.getId()) - startCpuNanos) / 1_000_000;
+                    if (cpu > cpuLimitMillis) {
+                        expire(now, cpu, cpuLimitMillis);
+                    }
+                }
+            } else if ((now - expiredNanos) / 1_000_000 >= graceMillis) {
+                stopped = true;
+                stop(thread);
+            }
+        }
+
+        private void expire(long now, long elapsed, long limit) {
+            expired = true;
+            expiredNanos = now;
+            elapsedMillis = elapsed;
+            limitMillis = limit;
+        }
+    }
+
+    private final long wallLimitMillis;
+
+    private final long cpuLimitMillis;
+
+    private final long graceMillis;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final List<Watch> watches = new CopyOnWriteArrayList<>();
+
+    private final Thread thread;
+
+    /** Whether stopping threads failed, in which case it is not tried again */
+    private volatile boolean cannotStop;
+
+    /**
+     * Starts a watchdog thread.
+     *
+     * @param wallLimitMillis the wall-clock time budget of a run (0 for none)
+     * @param cpuLimitMillis the CPU time budget of a run (0 for none)
+     * @param graceMillis the time after which a run that exceeded a budget
+     *                    is stopped
+     */
+    Watchdog(long wallLimitMillis, long cpuLimitMillis, long graceMillis) {
+        if (cpuLimitMillis > 0 && !threads.isThreadCpuTimeSupported()) {
+            throw new IllegalStateException("Thread CPU time is not supported by this JVM");
+        }
+        if (cpuLimitMillis > 0) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+        this.wallLimitMillis = wallLimitMillis;
+        this.cpuLimitMillis = cpuLimitMillis;
+        this.graceMillis = graceMillis;
+        this.thread = new Thread(this::run, "rl-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates a watch for runs in the current thread.
+     *
+     * @return the watch
+     */
+    Watch watch() {
+        Watch watch = new Watch(Thread.currentThread());
+        watches.add(watch);
+        return watch;
+    }
+
+    /** Stops the watchdog thread. */
+    void close() {
+        thread.interrupt();
+    }
+
+    private void run() {
+        // Check often enough to notice a run exceeding the smallest budget by 10%
+        long minLimit = Math.min(wallLimitMillis > 0 ? wallLimitMillis : Long.MAX_VALUE,
+                cpuLimitMillis > 0 ? cpuLimitMillis : Long.MAX_VALUE);
+        long period = Math.max(1, Math.min(100, Math.min(minLimit, graceMillis > 0 ? graceMillis : minLimit) / 10));
+        try {
+            while (true) {
+                Thread.sleep(period);
+                long now = System.nanoTime();
+                for (Watch watch : watches) {
+                    watch.check(now);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop watching
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void stop(Thread thread) {
+        if (cannotStop) {
+            return;
+        }
+        try {
+            thread.stop();
+        } catch (UnsupportedOperationException e) {
+            cannotStop = true;
+            System.err.println("Runs that exceed their time budget cannot be stopped in this JVM: " + e);
+        }
+    }
+}
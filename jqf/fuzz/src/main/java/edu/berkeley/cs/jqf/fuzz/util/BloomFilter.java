@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of 64-bit values, which tells in a fixed amount of
+ * memory whether a value has probably been added to it.
+ *
+ * <p>Each value sets {@link #NUM_HASHES} bits, derived from its mixed
+ * hash by double hashing. With 2<sup>b</sup> bits, the probability of a
+ * false positive after adding n values is about
+ * (1 - e<sup>-4n/2<sup>b</sup></sup>)<sup>4</sup>, e.g. 2.4% when n is
+ * an eighth of the bits. There are no false negatives.</p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public class BloomFilter {
+
+    /** Number of bits set per value */
+    public static final int NUM_HASHES = 4;
+
+    private final AtomicLongArray words;
+
+    private final long mask;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param bits the log2 of the number of bits, in [6, 36]
+     */
+    public BloomFilter(int bits) {
+        if (bits < 6 || bits > 36) {
+            throw new IllegalArgumentException("Number of bits must be in [6, 36]: " + bits);
+        }
+        this.words = new AtomicLongArray(1 << (bits - 6));
+        this.mask = (1L << bits) - 1;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, which need not be well mixed
+     */
+    public void add(long value) {
+        long h = Hashing.mix64(value);
+        long step = (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++, h += step) {
+            long bit = h & mask;
+            int word = (int) (bit >>> 6);
+            long bitMask = 1L << bit;
+            long old;
+            while (((old = words.get(word)) & bitMask) == 0 && !words.compareAndSet(word, old, old | bitMask)) {
+                // Retry
+            }
+        }
+    }
+
+    /**
+     * Returns whether a value has probably been added.
+     *
+     * @param value the value
+     * @return <tt>false</tt> if the value has certainly not been added
+     */
+    public boolean mightContain(long value) {
+        long h = Hashing.mix64(value);
+        long step = (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++, h += step) {
+            long bit = h & mask;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bits of this filter.
+     *
+     * @return a new array of the bits, 64 per element
+     */
+    public long[] toLongArray() {
+        long[] result = new long[words.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = words.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the values of a filter of the same size to this one.
+     *
+     * @param bits the bits of the other filter, as by {@link #toLongArray()}
+     */
+    public void merge(long[] bits) {
+        if (bits.length != words.length()) {
+            throw new IllegalArgumentException("Cannot merge Bloom filters of different sizes");
+        }
+        for (int i = 0; i < bits.length; i++) {
+            long old;
+            while (!words.compareAndSet(i, old = words.get(i), old | bits[i])) {
+                // Retry
+            }
+        }
+    }
+}
@@ -32,8 +32,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeCounters;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.IntBranchSink;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
 
@@ -42,13 +44,13 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
  *
  * @author Rohan Padhye
  */
-public class Coverage implements TraceEventVisitor {
+public class Coverage implements TraceEventVisitor, IntBranchSink {
 
     /** The size of the coverage map. */
     private final int COVERAGE_MAP_SIZE = (1 << 16) - 1; // Minus one to reduce collisions
 
     /** The coverage counts for each edge. */
-    private final Counter counter = new NonZeroCachingCounter(COVERAGE_MAP_SIZE);
+    private final NonZeroCachingCounter counter = new NonZeroCachingCounter(COVERAGE_MAP_SIZE);
 
     /** Creates a new coverage map. */
     public Coverage() {
@@ -61,7 +63,9 @@ public class Coverage implements TraceEventVisitor {
      * @param that the coverage map to copy
      */
     public Coverage(Coverage that) {
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
+        int n = that.counter.getNonZeroSize();
+        for (int i = 0; i < n; i++) {
+            int idx = that.counter.getNonZeroIndexAt(i);
             this.counter.setAtIndex(idx, that.counter.getAtIndex(idx));
         }
     }
@@ -89,12 +93,34 @@ public class Coverage implements TraceEventVisitor {
 
     @Override
     public void visitBranchEvent(BranchEvent b) {
-        counter.increment(b.getIid() * 31 + b.getArm());
+        visitBranch(b.getIid(), b.getArm());
     }
 
     @Override
     public void visitCallEvent(CallEvent e) {
-        counter.increment(e.getIid());
+        visitCall(e.getIid());
+    }
+
+    @Override
+    public void visitBranch(int iid, int arm) {
+        counter.increment(iid * 31 + arm);
+    }
+
+    @Override
+    public void visitCall(int iid) {
+        counter.increment(iid);
+    }
+
+    /**
+     * Adds the edge counts of classes instrumented for coverage only, and
+     * resets them to zero.
+     *
+     * <p>Their counters (see {@link EdgeCounters}) are indexed like the
+     * coverage map. Only the counters of edges taken since they were last
+     * drained are visited.</p>
+     */
+    public void drainEdgeCounts() {
+        EdgeCounters.drain(counter::incrementAtIndex);
     }
 
     /**
@@ -115,10 +141,38 @@ public class Coverage implements TraceEventVisitor {
         return counter.getNonZeroIndices();
     }
 
+    /**
+     * Returns the count of an edge.
+     *
+     * @param idx the index of the edge in the coverage map
+     * @return the count of the edge
+     */
+    public int getCount(int idx) {
+        return counter.getAtIndex(idx);
+    }
+
+    /**
+     * Sets the count of an edge, e.g. to restore a saved coverage map.
+     *
+     * @param idx the index of the edge in the coverage map
+     * @param count the new count of the edge
+     */
+    public void setCount(int idx, int count) {
+        counter.setAtIndex(idx, count);
+    }
+
 
+    /**
+     * Returns the edges covered by this coverage map but not by another one.
+     *
+     * @param baseline the coverage map to compare with
+     * @return the indices of the edges that are only covered by <tt>this</tt>
+     */
     public Collection<?> computeNewCoverage(Coverage baseline) {
         Collection<Integer> newCoverage = new ArrayList<>();
-        for (int idx : this.counter.getNonZeroIndices()) {
+        int n = this.counter.getNonZeroSize();
+        for (int i = 0; i < n; i++) {
+            int idx = this.counter.getNonZeroIndexAt(i);
             if (baseline.counter.getAtIndex(idx) == 0) {
                 newCoverage.add(idx);
             }
@@ -178,13 +232,37 @@ public class Coverage implements TraceEventVisitor {
      *         of <tt>this</tt>, causing <tt>this</tt> to change.
      */
     public boolean updateBits(Coverage that) {
+        return updateBits(that, null);
+    }
+
+    /**
+     * Updates this coverage with bits from the parameter, and collects
+     * the edges that it newly covers.
+     *
+     * <p>Only the edges covered by <tt>that</tt> are visited, so the cost
+     * of an update is proportional to the coverage of a single run rather
+     * than to the size of the coverage map.</p>
+     *
+     * @param that the run coverage whose bits to OR
+     * @param newCoverage if not null, the indices of the edges not covered
+     *                    by <tt>this</tt> before the update are added to it
+     *
+     * @return <tt>true</tt> iff <tt>that</tt> is not a subset
+     *         of <tt>this</tt>, causing <tt>this</tt> to change.
+     */
+    public boolean updateBits(Coverage that, Collection<? super Integer> newCoverage) {
         boolean changed = false;
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
+        int n = that.counter.getNonZeroSize();
+        for (int i = 0; i < n; i++) {
+            int idx = that.counter.getNonZeroIndexAt(i);
             int before = this.counter.getAtIndex(idx);
             int after = before | hob(that.counter.getAtIndex(idx));
             if (after != before) {
                 this.counter.setAtIndex(idx, after);
                 changed = true;
+                if (before == 0 && newCoverage != null) {
+                    newCoverage.add(idx);
+                }
             }
         }
         return changed;
@@ -201,4 +279,35 @@ public class Coverage implements TraceEventVisitor {
         return counter.getNonZeroIndices().hashCode();
     }
 
+    /**
+     * Returns a 64-bit fingerprint of the edge counts in the coverage map.
+     *
+     * <p>Unlike {@link #hashCode()}, this only visits the covered edges,
+     * and is unlikely to collide among the paths of billions of runs.</p>
+     *
+     * @return a fingerprint of the (edge, count) pairs
+     */
+    public long pathFingerprint() {
+        long fingerprint = 0;
+        int n = counter.getNonZeroSize();
+        for (int i = 0; i < n; i++) {
+            int idx = counter.getNonZeroIndexAt(i);
+            fingerprint += Hashing.mix64(((long) idx << 32) | (counter.getAtIndex(idx) & 0xFFFFFFFFL));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the set of edges that have been
+     * covered at least once.
+     *
+     * <p>Unlike {@link #nonZeroHashCode()}, this does not depend on the
+     * order in which edges were first covered, and takes constant time.</p>
+     *
+     * @return a fingerprint of the covered edges
+     */
+    public long branchSetFingerprint() {
+        return counter.getNonZeroFingerprint();
+    }
+
 }
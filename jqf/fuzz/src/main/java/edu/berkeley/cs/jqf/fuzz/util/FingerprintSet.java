@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A set of 64-bit fingerprints, e.g. of inputs or of the coverage of
+ * runs, used to tell whether something has been seen before.
+ *
+ * <p>Fingerprints are stored unboxed in an open-addressing table. With
+ * well-mixed 64-bit fingerprints (see {@link Hashing#hash64} and
+ * {@link Coverage#pathFingerprint()}), a set of a billion elements has
+ * a collision with a probability of about 3%, whereas 32-bit hash codes
+ * already collide in sets of 100,000 elements.</p>
+ *
+ * <p>A set can be bounded to a maximum number of stored fingerprints.
+ * When a bounded set overflows, it moves its fingerprints to a
+ * {@link BloomFilter} of 32 bits per fingerprint of the bound, which
+ * tells membership from then on, and counts distinct fingerprints with a
+ * {@link HyperLogLog} sketch. {@link #add(long)} then never tells that
+ * a fingerprint is new twice, but may tell that a new fingerprint was
+ * seen, with a probability below 2.4% until four times the bound have
+ * been added; {@link #size()} is an estimate.</p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public class FingerprintSet {
+
+    private static final int MIN_CAPACITY = 64;
+
+    /** Maximum number of stored fingerprints, or 0 if unbounded */
+    private final int maxSize;
+
+    /** Open-addressing table of fingerprints, in which 0 marks empty slots */
+    private long[] table = new long[MIN_CAPACITY];
+
+    /** Number of stored non-zero fingerprints */
+    private int numStored = 0;
+
+    /** Whether the fingerprint 0 is stored, which cannot be in the table */
+    private boolean hasZero = false;
+
+    /** Counts all fingerprints added since the first overflow, or null */
+    private HyperLogLog sketch = null;
+
+    /** Tells whether fingerprints were added since the first overflow, or null */
+    private BloomFilter seen = null;
+
+    /** Creates an empty unbounded set. */
+    public FingerprintSet() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty set.
+     *
+     * @param maxSize the maximum number of stored fingerprints, or 0 if unbounded
+     */
+    public FingerprintSet(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private int slot(long fingerprint) {
+        int mask = table.length - 1;
+        int i = (int) Hashing.mix64(fingerprint) & mask;
+        while (table[i] != 0 && table[i] != fingerprint) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Adds a fingerprint.
+     *
+     * @param fingerprint the fingerprint
+     * @return <tt>true</tt> iff the fingerprint was not in the set
+     */
+    public synchronized boolean add(long fingerprint) {
+        if (seen != null) {
+            sketch.add(fingerprint);
+            if (seen.mightContain(fingerprint)) {
+                return false;
+            }
+            seen.add(fingerprint);
+            return true;
+        }
+        if (fingerprint == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+        } else {
+            int i = slot(fingerprint);
+            if (table[i] != 0) {
+                return false;
+            }
+            table[i] = fingerprint;
+            numStored++;
+            if (numStored * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+        }
+        if (maxSize > 0 && storedSize() > maxSize) {
+            overflow();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a fingerprint is in the set.
+     *
+     * @param fingerprint the fingerprint
+     * @return <tt>true</tt> iff the fingerprint was added, or probably
+     *         was once the set has overflowed
+     */
+    public synchronized boolean contains(long fingerprint) {
+        if (seen != null) {
+            return seen.mightContain(fingerprint);
+        }
+        return fingerprint == 0 ? hasZero : table[slot(fingerprint)] != 0;
+    }
+
+    /**
+     * Returns the number of distinct fingerprints added. This is an
+     * estimate once a bounded set has overflowed.
+     *
+     * @return the number of fingerprints
+     */
+    public synchronized long size() {
+        return sketch == null ? storedSize() : sketch.estimate();
+    }
+
+    /**
+     * Returns whether {@link #size()} is exact, i.e. the set has never overflowed.
+     *
+     * @return <tt>true</tt> iff all added fingerprints are stored
+     */
+    public synchronized boolean isExact() {
+        return sketch == null;
+    }
+
+    /**
+     * Returns the stored fingerprints, which are none once the set has
+     * overflowed.
+     *
+     * @return a new array of the stored fingerprints, in no particular order
+     */
+    public synchronized long[] toArray() {
+        long[] result = new long[storedSize()];
+        int n = 0;
+        if (hasZero) {
+            result[n++] = 0;
+        }
+        for (long fingerprint : table) {
+            if (fingerprint != 0) {
+                result[n++] = fingerprint;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes and returns the stored fingerprints.
+     *
+     * @return the stored fingerprints, as by {@link #toArray()}
+     */
+    public synchronized long[] drain() {
+        long[] result = toArray();
+        clearStored();
+        return result;
+    }
+
+    /**
+     * Writes the stored fingerprints, and the sketch and filter if any.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the set cannot be written
+     */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        long[] fingerprints = toArray();
+        out.writeInt(fingerprints.length);
+        for (long fingerprint : fingerprints) {
+            out.writeLong(fingerprint);
+        }
+        byte[] registers = sketch != null ? sketch.getRegisters() : new byte[0];
+        out.writeInt(registers.length);
+        out.write(registers);
+        long[] words = seen != null ? seen.toLongArray() : new long[0];
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Adds the fingerprints, sketch and filter written with {@link #writeTo}.
+     *
+     * @param in the buffer to read from
+     */
+    public synchronized void readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        for (int i = 0; i < n; i++) {
+            add(in.getLong());
+        }
+        byte[] registers = new byte[in.getInt()];
+        in.get(registers);
+        long[] words = new long[in.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.getLong();
+        }
+        if (registers.length > 0) {
+            if (sketch == null) {
+                overflow(Long.numberOfTrailingZeros(words.length) + 6);
+            }
+            sketch.merge(registers);
+            seen.merge(words);
+        }
+    }
+
+    private int storedSize() {
+        return numStored + (hasZero ? 1 : 0);
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        for (long fingerprint : old) {
+            if (fingerprint != 0) {
+                table[slot(fingerprint)] = fingerprint;
+            }
+        }
+    }
+
+    private void overflow() {
+        // 32 bits per fingerprint of the bound
+        int bits = 64 - Long.numberOfLeadingZeros(32L * maxSize - 1);
+        overflow(Math.max(6, Math.min(36, bits)));
+    }
+
+    /** Moves the stored fingerprints to a filter of 2<sup>bits</sup> bits and a sketch. */
+    private void overflow(int bits) {
+        sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        seen = new BloomFilter(bits);
+        for (long fingerprint : toArray()) {
+            sketch.add(fingerprint);
+            seen.add(fingerprint);
+        }
+        clearStored();
+        table = new long[MIN_CAPACITY];
+    }
+
+    private void clearStored() {
+        Arrays.fill(table, 0);
+        numStored = 0;
+        hasZero = false;
+    }
+}
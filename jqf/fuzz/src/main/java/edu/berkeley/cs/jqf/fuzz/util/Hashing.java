@@ -84,4 +84,33 @@ public class Hashing {
         return knuth(x*31 + y, bound);
     }
 
+    /**
+     * Returns a well-mixed 64-bit hash of a 64-bit value, using the
+     * finalizer of splitmix64. Distinct inputs have distinct outputs.
+     *
+     * @param x the input value to hash
+     * @return the hash value
+     */
+    public static long mix64(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Returns a 64-bit hash of a string, using FNV-1a followed by
+     * {@link #mix64(long)}. Unlike {@link String#hashCode()}, collisions
+     * are unlikely among billions of strings.
+     *
+     * @param s the string to hash
+     * @return the hash value
+     */
+    public static long hash64(CharSequence s) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        return mix64(h);
+    }
+
 }
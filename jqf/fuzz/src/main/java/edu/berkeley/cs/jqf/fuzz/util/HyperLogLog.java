@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+/**
+ * Estimates the number of distinct 64-bit values added to it, in a
+ * fixed amount of memory.
+ *
+ * <p>This is the HyperLogLog sketch of Flajolet et al., with the usual
+ * linear-counting correction for small cardinalities. With precision
+ * <tt>p</tt>, it uses 2<sup>p</sup> one-byte registers and has a
+ * relative standard error of about 1.04 / 2<sup>p/2</sup>, e.g. 0.8%
+ * for the default precision of 14.</p>
+ *
+ * <p>Instances are not thread-safe.</p>
+ */
+public class HyperLogLog {
+
+    /** The default precision, using 16 KB of registers. */
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+
+    private final byte[] registers;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param precision the log2 of the number of registers, in [4, 24]
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 24) {
+            throw new IllegalArgumentException("Precision must be in [4, 24]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, which need not be well mixed
+     * @return <tt>true</tt> iff the sketch changed, in which case the
+     *         value has certainly not been added before
+     */
+    public boolean add(long value) {
+        long h = Hashing.mix64(value);
+        int idx = (int) (h >>> (64 - precision));
+        // Position of the first one bit of the remaining bits, capped by a sentinel bit
+        int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[idx]) {
+            registers[idx] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the estimated number of distinct values added.
+     *
+     * @return the estimated cardinality
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += Math.scalb(1.0, -r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Returns the registers of this sketch, e.g. to save it.
+     *
+     * @return the live registers
+     */
+    public byte[] getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Merges registers saved from a sketch of the same precision.
+     *
+     * @param other the registers of the other sketch
+     */
+    public void merge(byte[] other) {
+        if (other.length != registers.length) {
+            throw new IllegalArgumentException("Cannot merge sketches of different precisions");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = (byte) Math.max(registers[i], other[i]);
+        }
+    }
+}
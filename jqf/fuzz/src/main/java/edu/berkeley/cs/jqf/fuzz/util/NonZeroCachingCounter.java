@@ -28,7 +28,9 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -39,26 +41,73 @@ import java.util.List;
  * <p>This version of counter is used by classes such as
  * {@link Coverage}, which require frequent queries of
  * the non-zero locations.</p>
+ *
+ * <p>The non-zero indices are kept in a primitive array, in the order
+ * in which they became non-zero, so that callers can visit them with
+ * {@link #getNonZeroIndexAt(int)} without boxing.</p>
+ *
+ * <p>An order-independent fingerprint of the set of non-zero indices is
+ * also maintained as indices become zero or non-zero, so that the set
+ * can be fingerprinted without visiting it (see
+ * {@link #getNonZeroFingerprint()}).</p>
  */
 public class NonZeroCachingCounter extends Counter {
 
     private int nonZeroCount;
 
-    private Collection<Integer> nonZeroIndices;
+    private int[] nonZeroIndices;
+
+    /** The sum of the mixed hashes of all non-zero indices */
+    private long nonZeroFingerprint;
+
+    /** A view of the first nonZeroCount entries of nonZeroIndices */
+    private final List<Integer> nonZeroIndexList = new AbstractList<Integer>() {
+        @Override
+        public Integer get(int i) {
+            if (i >= nonZeroCount) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + nonZeroCount);
+            }
+            return nonZeroIndices[i];
+        }
+
+        @Override
+        public int size() {
+            return nonZeroCount;
+        }
+    };
 
     public NonZeroCachingCounter(int size) {
         super(size);
         this.nonZeroCount = 0;
-        this.nonZeroIndices = new ArrayList<>();
+        this.nonZeroIndices = new int[64];
     }
 
     @Override
     public void clear() {
-        for (int idx : nonZeroIndices) {
-            counts[idx] = 0;
+        for (int i = 0; i < nonZeroCount; i++) {
+            counts[nonZeroIndices[i]] = 0;
         }
         this.nonZeroCount = 0;
-        this.nonZeroIndices.clear();
+        this.nonZeroFingerprint = 0;
+    }
+
+    private void addNonZeroIndex(int index) {
+        if (nonZeroCount == nonZeroIndices.length) {
+            nonZeroIndices = Arrays.copyOf(nonZeroIndices, nonZeroCount * 2);
+        }
+        nonZeroIndices[nonZeroCount++] = index;
+        nonZeroFingerprint += Hashing.mix64(index);
+    }
+
+    private void removeNonZeroIndex(int index) {
+        for (int i = 0; i < nonZeroCount; i++) {
+            if (nonZeroIndices[i] == index) {
+                System.arraycopy(nonZeroIndices, i + 1, nonZeroIndices, i, nonZeroCount - i - 1);
+                nonZeroCount--;
+                nonZeroFingerprint -= Hashing.mix64(index);
+                return;
+            }
+        }
     }
 
 
@@ -67,8 +116,7 @@ public class NonZeroCachingCounter extends Counter {
         int newValue = super.incrementAtIndex(index, delta);
         // A count becomes non-zero if it was incremented to delta
         if (newValue == delta) {
-            nonZeroIndices.add(index);
-            nonZeroCount++;
+            addNonZeroIndex(index);
         }
         return newValue;
     }
@@ -78,16 +126,39 @@ public class NonZeroCachingCounter extends Counter {
         return nonZeroCount;
     }
 
+    /**
+     * Returns a non-zero index.
+     *
+     * @param i the position of the index, less than {@link #getNonZeroSize()}
+     * @return the <tt>i</tt>-th index that became non-zero
+     */
+    public int getNonZeroIndexAt(int i) {
+        return nonZeroIndices[i];
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the set of non-zero indices, which
+     * does not depend on the order in which they became non-zero.
+     *
+     * @return the sum of the mixed hashes of the non-zero indices
+     */
+    public long getNonZeroFingerprint() {
+        return nonZeroFingerprint;
+    }
+
+    /**
+     * Returns the non-zero indices, as a view that changes with this counter.
+     */
     @Override
     public Collection<Integer> getNonZeroIndices() {
-        return nonZeroIndices;
+        return nonZeroIndexList;
     }
 
     @Override
     public Collection<Integer> getNonZeroValues() {
         List<Integer> values = new ArrayList<>(size /2);
-        for (int idx : nonZeroIndices) {
-            int count = counts[idx];
+        for (int i = 0; i < nonZeroCount; i++) {
+            int count = counts[nonZeroIndices[i]];
             assert (count != 0);
             values.add(count);
         }
@@ -99,8 +170,9 @@ public class NonZeroCachingCounter extends Counter {
         int oldValue = counts[index];
         super.setAtIndex(index, newValue);
         if (oldValue == 0 && newValue != 0) {
-            nonZeroIndices.add(index);
-            nonZeroCount++;
+            addNonZeroIndex(index);
+        } else if (oldValue != 0 && newValue == 0) {
+            removeNonZeroIndex(index);
         }
     }
 
@@ -28,6 +28,10 @@
  */
 package edu.berkeley.cs.jqf.fuzz.guidance;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.random.NoGuidance;
@@ -80,6 +84,52 @@ public class GuidanceTest {
         public void timeout(int x) {
             throw new TimeoutException();
         }
+
+        @Fuzz
+        public void structuredString(String s) {
+            Assert.assertEquals(STRUCTURED_INPUT, s);
+        }
+
+        @Fuzz
+        public void structuredInputStream(InputStream in) throws IOException {
+            byte[] bytes = new byte[64];
+            int n = in.read(bytes);
+            Assert.assertEquals(STRUCTURED_INPUT, new String(bytes, 0, n, StandardCharsets.UTF_8));
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    private static final String STRUCTURED_INPUT = "<project>\u00e9</project>";
+
+    /** Generates one input, which tests taking a string or stream receive as is */
+    public static class OneStructuredInput implements StructuredInputGuidance {
+        private boolean done = false;
+
+        @Override
+        public Object getStructuredInput() {
+            done = true;
+            return STRUCTURED_INPUT;
+        }
+
+        @Override
+        public InputStream getInput() {
+            done = true;
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public boolean hasInput() {
+            return !done;
+        }
+
+        @Override
+        public void handleResult(Result result, Throwable error) {
+        }
+
+        @Override
+        public Consumer<TraceEvent> generateCallBack(Thread thread) {
+            return e -> {};
+        }
     }
 
     @Spy
@@ -134,4 +184,15 @@ public class GuidanceTest {
                 ArgumentMatchers.isA(RuntimeException.class));
     }
 
+    @Test
+    public void testStructuredInput() {
+        for (String method : new String[] { "structuredString", "structuredInputStream" }) {
+            StructuredInputGuidance structured = Mockito.spy(new OneStructuredInput());
+            GuidedFuzzing.run(GuidanceTestFuzzer.class, method, structured, null);
+            Mockito.verify(structured).getStructuredInput();
+            Mockito.verify(structured, Mockito.never()).getInput();
+            Mockito.verify(structured).handleResult(Result.SUCCESS, null);
+        }
+    }
+
 }
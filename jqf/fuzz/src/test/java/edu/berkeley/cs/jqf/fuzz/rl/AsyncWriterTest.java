@@ -0,0 +1,49 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class AsyncWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesFilesInOrder() throws IOException {
+        File plot = new File(folder.getRoot(), "plot_data");
+        File input = new File(folder.getRoot(), "id_000000");
+        AsyncWriter writer = new AsyncWriter(4);
+        for (int i = 0; i < 100; i++) {
+            writer.appendLine(plot, "line " + i);
+        }
+        writer.writeFile(input, "first");
+        writer.writeFile(input, "\u00e9");
+        writer.flush();
+        List<String> lines = Files.readAllLines(plot.toPath());
+        assertEquals(100, lines.size());
+        assertEquals("line 99", lines.get(99));
+        assertEquals("\u00e9", new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8));
+
+        writer.appendLine(plot, "last");
+        writer.close();
+        assertEquals("last", Files.readAllLines(plot.toPath()).get(100));
+        try {
+            writer.appendLine(plot, "closed");
+            fail("Writes after close must fail");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
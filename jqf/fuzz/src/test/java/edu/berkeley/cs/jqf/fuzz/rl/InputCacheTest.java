@@ -0,0 +1,129 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class InputCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Generates the given inputs in order, and records its rewards. */
+    private static class FixedGenerator implements RLGenerator {
+        private final Iterator<String> inputs;
+        private final List<Integer> rewards = new ArrayList<>();
+
+        FixedGenerator(String... inputs) {
+            this.inputs = Arrays.asList(inputs).iterator();
+        }
+
+        @Override
+        public void init(RLParams params) {
+        }
+
+        @Override
+        public String generate() {
+            return inputs.next();
+        }
+
+        @Override
+        public void update(int r) {
+            rewards.add(r);
+        }
+    }
+
+    private RLGuidance guidance(RLGenerator generator, InputCache cache) throws IOException {
+        RLGuidance guidance = new RLGuidance(generator, "test", null, folder.getRoot(), false, cache);
+        guidance.maxTrials = 10L;
+        return guidance;
+    }
+
+    @Test
+    public void replaysDeterministicResults() {
+        for (String type : new String[] { "exact", "bloom" }) {
+            InputCache cache = InputCache.create(type, type.equals("exact") ? 0 : 16);
+            for (long input = 0; input < 1000; input++) {
+                cache.put(input, input % 2 == 0 ? Result.SUCCESS : Result.INVALID);
+            }
+            cache.put(1000, Result.FAILURE);
+            cache.put(1001, Result.TIMEOUT);
+            for (long input = 0; input < 1000; input++) {
+                assertEquals(input % 2 == 0 ? Result.SUCCESS : Result.INVALID, cache.get(input));
+            }
+            if (type.equals("exact")) {
+                assertNull(cache.get(1000));
+                assertNull(cache.get(1001));
+                assertNull(cache.get(-1));
+            }
+        }
+    }
+
+    @Test
+    public void ambiguousResultsAreUnknown() {
+        InputCache exact = InputCache.create("exact", 0);
+        exact.put(1, Result.SUCCESS);
+        exact.put(1, Result.INVALID);
+        assertNull(exact.get(1));
+
+        // Fill the valid filter, so that it contains every input
+        InputCache bloom = InputCache.create("bloom", 6);
+        for (long input = 0; input < 1000; input++) {
+            bloom.put(input, Result.SUCCESS);
+        }
+        bloom.put(-1, Result.INVALID);
+        assertEquals(Result.SUCCESS, bloom.get(-2));
+        assertNull(bloom.get(-1));
+    }
+
+    @Test
+    public void guidanceRewardsReplayedInputsAsRepeats() throws IOException {
+        InputCache cache = InputCache.create("exact", 0);
+        cache.put(Hashing.hash64("a"), Result.SUCCESS);
+        cache.put(Hashing.hash64("b"), Result.INVALID);
+        FixedGenerator generator = new FixedGenerator("a", "b", "c");
+        RLGuidance guidance = guidance(generator, cache);
+        try {
+            assertEquals("c", guidance.getStructuredInput());
+            assertEquals(Arrays.asList(0, -1), generator.rewards);
+            assertEquals(2, guidance.numReplayed.get());
+            assertEquals(2, guidance.numTrials.get());
+            assertEquals(1, guidance.numValid.get());
+            assertEquals(0, guidance.uniqueValidInputs.size());
+        } finally {
+            guidance.close();
+        }
+    }
+
+    @Test
+    public void guidanceExecutesBloomFalsePositives() throws IOException {
+        InputCache cache = InputCache.create("bloom", 6);
+        for (long input = 0; input < 1000; input++) {
+            cache.put(input, Result.SUCCESS);
+        }
+        cache.put(Hashing.hash64("x"), Result.INVALID);
+        FixedGenerator generator = new FixedGenerator("x");
+        RLGuidance guidance = guidance(generator, cache);
+        try {
+            // Not replayed as valid, though the valid filter contains it
+            assertEquals("x", guidance.getStructuredInput());
+            assertEquals(0, guidance.numReplayed.get());
+            assertTrue(generator.rewards.isEmpty());
+        } finally {
+            guidance.close();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package edu.berkeley.cs.jqf.fuzz.rl;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RLGuideTest {
+
+    private static RLGuide guide(String backend) {
+        RLParams params = new RLParams();
+        params.add("seed", 42L);
+        params.add("qTable", backend);
+        return new RLGuide(params);
+    }
+
+    /** Runs a few episodes that reward choosing "b" after "a", and returns all choices made. */
+    private static List<Object> play(RLGuide guide) {
+        List<Object> actions = Arrays.asList("a", "b", "c", "d");
+        int id = guide.addLearner(actions, 0.25);
+        List<Object> choices = new ArrayList<>();
+        for (int episode = 0; episode < 500; episode++) {
+            String state = "start";
+            int reward = 0;
+            for (int step = 0; step < 5; step++) {
+                Object choice = guide.select(state, id);
+                if (state.equals("a") && choice.equals("b")) {
+                    reward += 10;
+                }
+                choices.add(choice);
+                state = (String) choice;
+            }
+            guide.update(reward);
+        }
+        return choices;
+    }
+
+    @Test
+    public void backendsMakeSameChoices() {
+        assertEquals(play(guide(QTable.HASH)), play(guide(QTable.PRIMITIVE)));
+    }
+
+    @Test
+    public void primitiveTableGrows() {
+        QTable table = QTable.create(QTable.PRIMITIVE);
+        for (long state = 0; state < 5000; state++) {
+            table.put(state * 31, (int) (state % 20), state, 1);
+        }
+        assertEquals(5000, table.numStates());
+        for (long state = 0; state < 5000; state++) {
+            assertTrue(table.containsState(state * 31));
+            assertEquals(state, table.getQ(state * 31, (int) (state % 20)), 0);
+            assertEquals(0, table.getQ(state * 31, (int) (state % 20) + 1), 0);
+        }
+        assertFalse(table.containsState(-1));
+    }
+
+    @Test
+    public void rollingStateHashesWindow() {
+        RLGuide guide = new RLGuide(0);
+        int a = guide.token("a"), b = guide.token("b"), c = guide.token("c");
+        RLState state = guide.newState(2);
+        state.push(a);
+        state.push(b);
+        long ab = state.hash();
+        state.push(c);
+        long bc = state.hash();
+        assertNotEquals(ab, bc);
+        assertEquals("b | c", state.toString());
+        state.pop();
+        assertEquals(ab, state.hash());
+
+        RLState other = guide.newState(2);
+        other.push(c);
+        other.push(b);
+        other.push(c);
+        assertEquals(bc, other.hash());
+        other.popTo(0);
+        assertEquals(0, other.hash());
+    }
+
+    @Test
+    public void rawCodesHashLikeInternedTokens() {
+        RLPolicy policy = new RLPolicy(QTable.PRIMITIVE, true);
+        RLParams params = new RLParams();
+        params.add(RLPolicy.PARAM, policy);
+        RLGuide guide = new RLGuide(params);
+        RLState interned = guide.newState(2);
+        RLState raw = guide.newState(2);
+        for (String name : new String[] { "a", "func=f(x)", "args=1,2", "b" }) {
+            interned.push(guide.token(name));
+            raw.pushCode(RLState.code(name));
+            assertEquals(interned.hash(), raw.hash());
+        }
+        long[] expected = new long[2];
+        long[] actual = new long[2];
+        assertEquals(interned.suffixHashes(expected), raw.suffixHashes(actual));
+        assertArrayEquals(expected, actual);
+        raw.pop();
+        raw.push(guide.token("b"));
+        assertEquals(Long.toHexString(RLState.code("args=1,2")) + " | b", raw.toString());
+
+        // Pushing raw codes interns nothing
+        int size = policy.tokens.size();
+        raw.pushCode(RLState.code("c"));
+        assertEquals(size, policy.tokens.size());
+    }
+
+    @Test
+    public void stateArraysAndRollingStatesShareQValues() {
+        RLGuide guide = new RLGuide(0);
+        List<Object> actions = Arrays.asList("x", "y");
+        int id = guide.addLearner(actions, 0);
+        RLState state = guide.newState(3);
+        state.push(guide.token("a"));
+        state.push(guide.token("b"));
+        for (int i = 0; i < 10; i++) {
+            Object choice = guide.select(new String[]{null, "a", "b"}, id);
+            guide.update(choice.equals("y") ? 1 : 0);
+        }
+        // Once "y" has been rewarded, greedy selection must pick it in both representations
+        assertEquals("y", guide.select(state, id));
+        assertEquals("y", guide.select(new String[]{null, "a", "b"}, id));
+    }
+
+    @Test
+    public void sharedPolicyKeepsEveryReturn() throws InterruptedException {
+        RLPolicy policy = new RLPolicy(QTable.PRIMITIVE, true);
+        List<Object> actions = Arrays.asList("x", "y");
+        Thread[] workers = new Thread[4];
+        for (int w = 0; w < workers.length; w++) {
+            RLParams params = new RLParams();
+            params.add("seed", (long) w);
+            params.add(RLPolicy.PARAM, policy);
+            RLGuide guide = new RLGuide(params);
+            int id = guide.addLearner(actions, 1);
+            workers[w] = new Thread(() -> {
+                RLState state = guide.newState(1);
+                state.push(guide.token("s"));
+                for (int i = 0; i < 10000; i++) {
+                    guide.select(state, id);
+                    guide.update(1);
+                }
+            });
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // Every worker interned "s" to the same token, and no update was lost
+        RLParams params = new RLParams();
+        params.add(RLPolicy.PARAM, policy);
+        RLGuide guide = new RLGuide(params);
+        RLState state = guide.newState(1);
+        state.push(guide.token("s"));
+        QTable table = policy.learner(0, actions).qcTable;
+        assertEquals(1, table.numStates());
+        assertEquals(40000, table.getC(state.hash(), 0) + table.getC(state.hash(), 1), 0);
+        assertEquals(1, table.getQ(state.hash(), 0), 1e-9);
+    }
+
+    @Test
+    public void policiesMergeReturnsOfOtherProcesses() throws IOException {
+        List<Object> actions = Arrays.asList("x", "y");
+        RLGuide[] guides = new RLGuide[2];
+        RLPolicy[] policies = new RLPolicy[2];
+        for (int p = 0; p < 2; p++) {
+            policies[p] = new RLPolicy(QTable.PRIMITIVE, false);
+            policies[p].recordReturns();
+            RLParams params = new RLParams();
+            params.add("seed", (long) p);
+            params.add(RLPolicy.PARAM, policies[p]);
+            guides[p] = new RLGuide(params);
+            guides[p].addLearner(actions, 1);
+            guides[p].addLearner(null, 1);
+            // Tokens are interned in different orders
+            guides[p].token(p == 0 ? "a" : "b");
+        }
+
+        // Process 0 sees a return of 3 for x, process 1 sees 1 for x, twice
+        RLState state0 = guides[0].newState(2);
+        state0.push(guides[0].token("s"));
+        RLState state1 = guides[1].newState(2);
+        state1.push(guides[1].token("s"));
+        assertEquals(state0.hash(), state1.hash());
+        while (!guides[0].select(state0, 0).equals("x")) {
+            guides[0].clearEpisode(0);
+        }
+        guides[0].select(Arrays.asList("z"), state0, 1);
+        guides[0].update(3);
+        for (int i = 0; i < 2; i++) {
+            while (!guides[1].select(state1, 0).equals("x")) {
+                guides[1].clearEpisode(0);
+            }
+            guides[1].update(1);
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        policies[0].writeReturns(new DataOutputStream(buffer));
+        policies[1].readReturns(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+
+        QTable table = policies[1].learner(0, actions).qcTable;
+        assertEquals(3, table.getC(state1.hash(), 0), 0);
+        assertEquals((3 + 1 + 1) / 3.0, table.getQ(state1.hash(), 0), 1e-9);
+        // Actions outside of the action space are matched by name
+        RLPolicy.LearnerTables named = policies[1].learner(1, null);
+        assertEquals(3, named.qcTable.getQ(state1.hash(), named.actions.id("z")), 0);
+
+        // Returns are only written once
+        buffer.reset();
+        policies[0].writeReturns(new DataOutputStream(buffer));
+        policies[1].readReturns(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+        assertEquals(3, table.getC(state1.hash(), 0), 0);
+    }
+
+    @Test
+    public void snapshotResumesLearning() throws IOException {
+        List<Object> actions = Arrays.asList("a", "b", "c");
+        RLGuide[] guides = new RLGuide[2];
+        RLPolicy[] policies = new RLPolicy[2];
+        for (int p = 0; p < 2; p++) {
+            policies[p] = new RLPolicy(QTable.PRIMITIVE, false);
+            RLParams params = new RLParams();
+            params.add("seed", (long) p);
+            params.add(RLPolicy.PARAM, policies[p]);
+            guides[p] = new RLGuide(params);
+            guides[p].addLearner(actions, 0.5, 0.1, 0.9);
+            guides[p].addLearner(null, 0.5);
+        }
+
+        // Only the first guide learns before the snapshot
+        RLState state = guides[0].newState(2);
+        for (int episode = 0; episode < 50; episode++) {
+            state.push(guides[0].token(String.valueOf(episode % 7)));
+            Object choice = guides[0].select(state, 0);
+            guides[0].select(Arrays.asList("x", "y"), state, 1);
+            guides[0].update(choice.equals("b") ? 1 : 0);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        policies[0].writeSnapshot(new DataOutputStream(buffer));
+        policies[1].readSnapshot(ByteBuffer.wrap(buffer.toByteArray()));
+
+        // Both guides then make the same choices
+        RLState[] states = {guides[0].newState(2), guides[1].newState(2)};
+        for (int episode = 0; episode < 50; episode++) {
+            Object[] choices = new Object[2];
+            Object[] named = new Object[2];
+            for (int p = 0; p < 2; p++) {
+                states[p].push(guides[p].token(String.valueOf(episode % 5)));
+                choices[p] = guides[p].select(states[p], 0);
+                named[p] = guides[p].select(Arrays.asList("y", "x"), states[p], 1);
+            }
+            assertEquals(choices[0], choices[1]);
+            assertEquals(named[0], named[1]);
+            for (int p = 0; p < 2; p++) {
+                guides[p].update(choices[p].equals("b") ? 1 : 0);
+            }
+        }
+    }
+
+    @Test
+    public void boundedTablesEvictLeastValuableStates() {
+        for (String backend : Arrays.asList(QTable.HASH, QTable.PRIMITIVE)) {
+            for (BoundedQTable.Eviction eviction : BoundedQTable.Eviction.values()) {
+                BoundedQTable table = new BoundedQTable(QTable.create(backend), 32, eviction);
+                for (long state = 0; state < 32; state++) {
+                    // Both visits and the spread of Q values grow with the state
+                    table.put(state, 0, 0, state + 1);
+                    table.put(state, 1, state, 1);
+                }
+                // Only LRU sees that the first states were selected from since
+                assertTrue(table.containsState(0));
+                assertTrue(table.containsState(1));
+                assertFalse(table.containsState(100));
+
+                // A batch of 32 / 16 states makes room for a new one
+                table.put(32, 0, 1, 1);
+                assertEquals(31, table.numStates());
+                assertEquals(2, table.numEvictions());
+                long firstKept = eviction == BoundedQTable.Eviction.LRU ? 0 : 2;
+                long firstEvicted = eviction == BoundedQTable.Eviction.LRU ? 2 : 0;
+                assertTrue(backend + " " + eviction, table.containsState(firstKept));
+                assertFalse(backend + " " + eviction, table.containsState(firstEvicted));
+                assertFalse(backend + " " + eviction, table.containsState(firstEvicted + 1));
+                assertEquals(31, table.getQ(31, 1), 0);
+                assertEquals(0, table.getQ(firstEvicted + 1, 1), 0);
+                assertEquals(3, table.numHits());
+                assertEquals(6, table.numLookups());
+            }
+        }
+    }
+
+    @Test
+    public void asynchronousUpdatesLearnTheSameValues() {
+        List<Object> actions = Arrays.asList("a", "b", "c");
+        RLPolicy[] policies = new RLPolicy[2];
+        for (int p = 0; p < 2; p++) {
+            boolean async = p == 1;
+            policies[p] = new RLPolicy(QTable.PRIMITIVE, async);
+            RLParams params = new RLParams();
+            params.add("seed", 42L);
+            params.add(RLPolicy.PARAM, policies[p]);
+            params.add("asyncUpdates", async);
+            params.add("maxStaleness", 4);
+            params.add("updateBatch", 3);
+            RLGuide guide = new RLGuide(params);
+            // Choices are random, so they do not depend on how up to date Q values are
+            int id = guide.addLearner(actions, 1);
+            RLState state = guide.newState(2);
+            for (int episode = 0; episode < 1000; episode++) {
+                int reward = 0;
+                for (int step = 0; step < 10; step++) {
+                    Object choice = guide.select(state, id);
+                    state.push(guide.token((String) choice));
+                    reward += choice.equals("a") ? 1 : 0;
+                }
+                guide.update(reward);
+            }
+            guide.flush();
+        }
+
+        QTable expected = policies[0].learner(0, actions).qcTable;
+        QTable actual = policies[1].learner(0, actions).qcTable;
+        assertEquals(expected.numStates(), actual.numStates());
+        expected.forEach((state, action, q, c) -> {
+            assertEquals(q, actual.getQ(state, action), 1e-9);
+            assertEquals(c, actual.getC(state, action), 0);
+        });
+    }
+
+    @Test
+    public void everyAlgorithmLearnsTwoStepTask() {
+        List<Object> actions = Arrays.asList("a", "b", "c");
+        for (String algorithm : Arrays.asList("mcc", "qlearning", "sarsa", "ucb1", "thompson", "softmax")) {
+            RLParams params = new RLParams();
+            params.add("seed", 42L);
+            params.add(RLAlgorithm.PARAM, algorithm);
+            RLGuide guide = new RLGuide(params);
+            int id = guide.addLearner(actions, 0.2);
+            // Choosing "b" twice is rewarded
+            int rewarded = 0;
+            for (int episode = 0; episode < 2000; episode++) {
+                Object first = guide.select("start", id);
+                Object second = guide.select("after " + first, id);
+                int reward = first.equals("b") && second.equals("b") ? 10 : 0;
+                guide.update(reward);
+                if (episode >= 1800 && reward > 0) {
+                    rewarded++;
+                }
+            }
+            assertTrue(algorithm + " rewarded " + rewarded + " times", rewarded > 100);
+        }
+    }
+
+    @Test
+    public void hashedValueFunctionsGeneralizeToUnseenStates() throws IOException {
+        List<Object> actions = Arrays.asList("a", "b");
+        RLParams params = new RLParams();
+        params.add("seed", 42L);
+        params.add("valueFunction", "hashed");
+        params.add("weightBits", 12);
+        RLPolicy[] policies = new RLPolicy[2];
+        RLGuide[] guides = new RLGuide[2];
+        for (int i = 0; i < 2; i++) {
+            policies[i] = RLPolicy.create(params, false);
+            RLParams guideParams = new RLParams(params);
+            guideParams.add(RLPolicy.PARAM, policies[i]);
+            guides[i] = new RLGuide(guideParams);
+            guides[i].addLearner(actions, ExplorationSchedule.parse("linear:1:0:200"));
+        }
+
+        // "a" is rewarded after "last", whatever came before it
+        RLState state = guides[0].newState(2);
+        for (int episode = 0; episode < 400; episode++) {
+            state.clear();
+            state.push(guides[0].token("before" + episode));
+            state.push(guides[0].token("last"));
+            guides[0].update(guides[0].select(state, 0).equals("a") ? 20 : 0);
+        }
+
+        // Weights are restored from snapshots
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            policies[0].writeSnapshot(out);
+        }
+        policies[1].readSnapshot(ByteBuffer.wrap(buffer.toByteArray()));
+
+        for (RLGuide guide : guides) {
+            state = guide.newState(2);
+            for (int i = 0; i < 20; i++) {
+                state.clear();
+                state.push(guide.token("unseen" + i));
+                state.push(guide.token("last"));
+                assertEquals("a", guide.select(state, 0));
+                guide.update(0);
+            }
+        }
+    }
+
+    @Test
+    public void explorationSchedulesDecayEpsilon() {
+        assertEquals(0.5, ExplorationSchedule.parse("linear:1:0:10").epsilon(5), 1e-9);
+        assertEquals(0, ExplorationSchedule.parse("linear:1:0:10").epsilon(20), 1e-9);
+        assertEquals(0.25, ExplorationSchedule.parse("exponential:1:0.1:0.5").epsilon(2), 1e-9);
+        assertEquals(0.1, ExplorationSchedule.parse("exponential:1:0.1:0.5").epsilon(10), 1e-9);
+        assertEquals(0.5, ExplorationSchedule.parse("step:1:0:0.5:10").epsilon(19), 1e-9);
+        assertEquals(0.3, ExplorationSchedule.parse("constant:0.3@plateau").epsilon(1000), 1e-9);
+
+        RLParams params = new RLParams();
+        params.add("seed", 42L);
+        params.add(ExplorationSchedule.PARAM + ".1", "linear:1:0:4@plateau");
+        RLGuide guide = new RLGuide(params);
+        List<Object> actions = Arrays.asList("a", "b");
+        int decaying = guide.addLearner(actions, 0.5, 0.1, 0.5);
+        int scheduled = guide.addLearner(actions, 0.5);
+        for (int i = 0; i < 2; i++) {
+            guide.update(0);
+        }
+        // Epsilon decays to the minimum instead of jumping there
+        assertEquals(0.125, guide.getLearnerEpsilon(decaying), 1e-9);
+        assertEquals(0.5, guide.getLearnerEpsilon(scheduled), 1e-9);
+        // Progress restarts plateau schedules
+        guide.update(20);
+        assertEquals(0.1, guide.getLearnerEpsilon(decaying), 1e-9);
+        assertEquals(1, guide.getLearnerEpsilon(scheduled), 1e-9);
+
+        int heads = 0;
+        for (int i = 0; i < 1000; i++) {
+            heads += guide.bernoulli(0.1) ? 1 : 0;
+        }
+        assertTrue(heads > 50 && heads < 150);
+    }
+}
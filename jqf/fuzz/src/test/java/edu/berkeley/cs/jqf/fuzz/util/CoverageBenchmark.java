@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+
+/**
+ * Microbenchmark of merging the coverage of a run into total coverage,
+ * as guidances do after every run.
+ *
+ * <p>Compares the sparse {@link Coverage#updateBits(Coverage, java.util.Collection)},
+ * which visits the edges covered by the run, with a dense merge that
+ * visits every slot of the coverage map, for runs of different sizes.
+ * This is not a unit test; run it with</p>
+ *
+ * <pre>java -cp ... edu.berkeley.cs.jqf.fuzz.util.CoverageBenchmark [iterations]</pre>
+ */
+public class CoverageBenchmark {
+
+    /** The number of distinct runs merged in turn. */
+    private static final int NUM_RUNS = 64;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        System.out.printf("%10s %14s %14s %8s%n", "edges/run", "dense ns/op", "sparse ns/op", "speedup");
+        for (int edges : new int[] {100, 500, 2000, 10000}) {
+            Coverage[] runs = newRuns(edges, new Random(edges));
+
+            // Warm up both paths, then measure
+            measure(runs, iterations, true);
+            measure(runs, iterations, false);
+            double dense = measure(runs, iterations, true);
+            double sparse = measure(runs, iterations, false);
+            System.out.printf("%10d %14.0f %14.0f %7.1fx%n", edges, dense, sparse, dense / sparse);
+        }
+    }
+
+    private static Coverage[] newRuns(int edges, Random random) {
+        Coverage[] runs = new Coverage[NUM_RUNS];
+        for (int r = 0; r < NUM_RUNS; r++) {
+            runs[r] = new Coverage();
+            for (int e = 0; e < edges; e++) {
+                BranchEvent event = new BranchEvent(random.nextInt(1 << 20), null, 0, random.nextInt(2));
+                for (int hits = random.nextInt(4); hits >= 0; hits--) {
+                    runs[r].handleEvent(event);
+                }
+            }
+        }
+        return runs;
+    }
+
+    /** Returns the average time in nanoseconds of merging a run and collecting its new coverage. */
+    private static double measure(Coverage[] runs, int iterations, boolean dense) {
+        Coverage total = new Coverage();
+        List<Integer> newCoverage = new ArrayList<>();
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Coverage run = runs[i % NUM_RUNS];
+            newCoverage.clear();
+            if (dense) {
+                denseUpdateBits(total, run, newCoverage);
+            } else {
+                total.updateBits(run, newCoverage);
+            }
+            checksum += newCoverage.size();
+            if (i % NUM_RUNS == NUM_RUNS - 1) {
+                total.clear();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            throw new AssertionError();
+        }
+        return (double) elapsed / iterations;
+    }
+
+    /** Merges coverage by visiting every slot of the map, as guidances used to. */
+    private static void denseUpdateBits(Coverage total, Coverage run, List<Integer> newCoverage) {
+        for (int idx = 0; idx < total.size(); idx++) {
+            int before = total.getCount(idx);
+            int count = run.getCount(idx);
+            int after = before | (count == 0 ? 0 : Integer.highestOneBit(count));
+            if (after != before) {
+                total.setCount(idx, after);
+                if (before == 0) {
+                    newCoverage.add(idx);
+                }
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeCounters;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReadEvent;
@@ -39,6 +40,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
 /**
  * @author Rohan Padhye
  */
@@ -79,6 +85,24 @@ public class CoverageTest {
         Assert.assertEquals(5, c.getNonZeroCount());
     }
 
+    @Test
+    public void primitiveEventsCountLikeEventObjects() {
+        Coverage objects = new Coverage();
+        Coverage primitives = new Coverage();
+        objects.handleEvent(callEvent(1));
+        objects.handleEvent(branchEvent(3, 2));
+        objects.handleEvent(branchEvent(3, 2));
+        objects.handleEvent(branchEvent(4, -1));
+        primitives.visitCall(1);
+        primitives.visitBranch(3, 2);
+        primitives.visitBranch(3, 2);
+        primitives.visitBranch(4, -1);
+        Assert.assertEquals(new HashSet<>(objects.getCovered()), new HashSet<>(primitives.getCovered()));
+        for (Object idx : objects.getCovered()) {
+            Assert.assertEquals(objects.getCount((Integer) idx), primitives.getCount((Integer) idx));
+        }
+    }
+
     @Test
     public void testCoverageUpdateBits1() {
         Coverage c1 = new Coverage();
@@ -177,4 +201,108 @@ public class CoverageTest {
         Assert.assertTrue(changed); // Because hob(3) and hob(1) are different
         Assert.assertEquals(c2.getNonZeroCount(), total.getNonZeroCount());
     }
+
+    @Test
+    public void testCoverageUpdateBitsCollectsNewCoverage() {
+        Coverage c1 = new Coverage();
+        Coverage c2 = new Coverage();
+        Coverage total = new Coverage();
+        TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(3, 1) };
+        TraceEvent[] newEvents = { callEvent(1), callEvent(4), branchEvent(3, 0) };
+
+        for (TraceEvent e : baseEvents) {
+            c1.handleEvent(e);
+            c2.handleEvent(e);
+        }
+
+        for (TraceEvent e : newEvents) {
+            c2.handleEvent(e);
+        }
+
+        total.updateBits(c1);
+        Collection<?> expected = c2.computeNewCoverage(total);
+        List<Integer> newCoverage = new ArrayList<>();
+        boolean changed = total.updateBits(c2, newCoverage);
+
+        Assert.assertTrue(changed);
+        Assert.assertEquals(2, newCoverage.size());
+        Assert.assertEquals(new HashSet<>(expected), new HashSet<>(newCoverage));
+        Assert.assertTrue(c2.computeNewCoverage(total).isEmpty());
+
+        // Copies have the same counts
+        Coverage copy = new Coverage(c2);
+        Assert.assertEquals(c2.getNonZeroCount(), copy.getNonZeroCount());
+        Assert.assertEquals(c2.hashCode(), copy.hashCode());
+        Assert.assertEquals(c2.nonZeroHashCode(), copy.nonZeroHashCode());
+    }
+
+    @Test
+    public void testFingerprintsAreOrderIndependent() {
+        Coverage c1 = new Coverage();
+        Coverage c2 = new Coverage();
+        c1.handleEvent(callEvent(1));
+        c1.handleEvent(branchEvent(3, 1));
+        c1.handleEvent(callEvent(1));
+        c2.handleEvent(branchEvent(3, 1));
+        c2.handleEvent(callEvent(1));
+
+        // Same branch set, different paths
+        Assert.assertEquals(c1.branchSetFingerprint(), c2.branchSetFingerprint());
+        Assert.assertNotEquals(c1.pathFingerprint(), c2.pathFingerprint());
+
+        c2.handleEvent(callEvent(1));
+        Assert.assertEquals(c1.pathFingerprint(), c2.pathFingerprint());
+        Assert.assertEquals(c1.branchSetFingerprint(), new Coverage(c1).branchSetFingerprint());
+
+        c2.handleEvent(callEvent(2));
+        Assert.assertNotEquals(c1.branchSetFingerprint(), c2.branchSetFingerprint());
+        c2.clear();
+        Assert.assertEquals(new Coverage().branchSetFingerprint(), c2.branchSetFingerprint());
+    }
+
+    /** Increments an edge counter like code instrumented for coverage only. */
+    private static void hit(int edge) {
+        if (EdgeCounters.counts[edge]++ == 0) {
+            EdgeCounters.touch(edge);
+        }
+    }
+
+    @Test
+    public void drainEdgeCountsAddsAndResetsCounts() {
+        EdgeCounters.reset();
+        Coverage c = new Coverage();
+        hit(0);
+        hit(0);
+        hit(42);
+        for (int i = 0; i < 3; i++) {
+            hit(c.size() - 1);
+        }
+        c.handleEvent(callEvent(1));
+        int before = c.getNonZeroCount();
+
+        c.drainEdgeCounts();
+        Assert.assertEquals(before + 3, c.getNonZeroCount());
+        Assert.assertEquals(2, c.getCount(0));
+        Assert.assertEquals(3, c.getCount(c.size() - 1));
+        Assert.assertArrayEquals(new int[c.size()], EdgeCounters.counts);
+
+        // Draining again adds nothing
+        long fingerprint = c.branchSetFingerprint();
+        c.drainEdgeCounts();
+        Assert.assertEquals(fingerprint, c.branchSetFingerprint());
+
+        // Reset counts are not drained
+        hit(42);
+        EdgeCounters.reset();
+        Assert.assertArrayEquals(new int[c.size()], EdgeCounters.counts);
+        c.drainEdgeCounts();
+        Assert.assertEquals(fingerprint, c.branchSetFingerprint());
+
+        // Increments that were not recorded are only cleared by clearAll
+        EdgeCounters.counts[7]++;
+        EdgeCounters.reset();
+        Assert.assertEquals(1, EdgeCounters.counts[7]);
+        EdgeCounters.clearAll();
+        Assert.assertArrayEquals(new int[c.size()], EdgeCounters.counts);
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FingerprintSetTest {
+
+    @Test
+    public void addIsExact() {
+        FingerprintSet set = new FingerprintSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // Include 0 and many duplicates
+            long fingerprint = random.nextInt(5000) - 100;
+            Assert.assertEquals(expected.add(fingerprint), set.add(fingerprint));
+        }
+        Assert.assertTrue(set.isExact());
+        Assert.assertEquals(expected.size(), set.size());
+        Assert.assertTrue(set.contains(0));
+        long[] stored = set.toArray();
+        Arrays.sort(stored);
+        long[] sorted = expected.stream().mapToLong(Long::longValue).sorted().toArray();
+        Assert.assertArrayEquals(sorted, stored);
+    }
+
+    @Test
+    public void drainRemovesFingerprints() {
+        FingerprintSet set = new FingerprintSet();
+        set.add(1);
+        set.add(2);
+        Assert.assertEquals(2, set.drain().length);
+        Assert.assertEquals(0, set.size());
+        Assert.assertTrue(set.add(1));
+    }
+
+    @Test
+    public void boundedSetEstimatesSize() {
+        FingerprintSet set = new FingerprintSet(1000);
+        for (long i = 0; i < 100000; i++) {
+            set.add(Hashing.mix64(i));
+            set.add(Hashing.mix64(i)); // duplicates are not counted
+        }
+        Assert.assertFalse(set.isExact());
+        Assert.assertTrue(set.toArray().length <= 1000);
+        // The standard error with the default precision is below 1%
+        Assert.assertEquals(100000, set.size(), 3000);
+    }
+
+    @Test
+    public void boundedSetRemembersFingerprints() {
+        FingerprintSet set = new FingerprintSet(1000);
+        int n = 4000;
+        int falsePositives = 0;
+        for (long i = 0; i < n; i++) {
+            if (!set.add(Hashing.mix64(i))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertFalse(set.isExact());
+        Assert.assertTrue(falsePositives < n * 0.024);
+        // Fingerprints added before and after the overflow are not new again
+        for (long i = 0; i < n; i++) {
+            Assert.assertFalse(set.add(Hashing.mix64(i)));
+            Assert.assertTrue(set.contains(Hashing.mix64(i)));
+        }
+    }
+
+    @Test
+    public void snapshotRestoresFingerprints() throws IOException {
+        FingerprintSet exact = new FingerprintSet();
+        FingerprintSet bounded = new FingerprintSet(100);
+        for (long i = 0; i < 1000; i++) {
+            exact.add(i);
+            bounded.add(i);
+        }
+        FingerprintSet exactCopy = new FingerprintSet();
+        FingerprintSet boundedCopy = new FingerprintSet(100);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            exact.writeTo(out);
+            bounded.writeTo(out);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        exactCopy.readFrom(in);
+        boundedCopy.readFrom(in);
+        Assert.assertEquals(exact.size(), exactCopy.size());
+        Assert.assertTrue(exactCopy.contains(999));
+        Assert.assertEquals(bounded.size(), boundedCopy.size());
+        Assert.assertFalse(boundedCopy.isExact());
+        Assert.assertTrue(boundedCopy.contains(0));
+        Assert.assertTrue(boundedCopy.contains(999));
+    }
+
+    @Test
+    public void hyperLogLogMergeIsUnion() {
+        HyperLogLog a = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        HyperLogLog b = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        for (long i = 0; i < 20000; i++) {
+            a.add(i);
+            b.add(i + 10000);
+        }
+        a.merge(b.getRegisters());
+        Assert.assertEquals(30000, a.estimate(), 900);
+    }
+}
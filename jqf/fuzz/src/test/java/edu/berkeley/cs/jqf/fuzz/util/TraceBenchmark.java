@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.events.IntBranchSink;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+
+/**
+ * Microbenchmark of collecting coverage from instrumented code, as
+ * guidances do during every run.
+ *
+ * <p>Feeds the instructions that instrumented code logs for branches and
+ * calls to {@link SingleSnoop}, and measures the events handled per second
+ * and the bytes allocated per event, with a callback that takes
+ * {@link TraceEvent} objects and with one that is an
+ * {@link IntBranchSink}. This is not a unit test; run it with</p>
+ *
+ * <pre>java -cp ... edu.berkeley.cs.jqf.fuzz.util.TraceBenchmark [events] [events|sink]...</pre>
+ */
+public class TraceBenchmark {
+
+    /** Callback collecting coverage from event objects. */
+    private static class EventCallback implements Consumer<TraceEvent> {
+        final Coverage coverage = new Coverage();
+
+        @Override
+        public void accept(TraceEvent e) {
+            coverage.handleEvent(e);
+        }
+    }
+
+    /** Callback collecting coverage from primitive values. */
+    private static class SinkCallback extends EventCallback implements IntBranchSink {
+        @Override
+        public void visitBranch(int iid, int arm) {
+            coverage.visitBranch(iid, arm);
+        }
+
+        @Override
+        public void visitCall(int iid) {
+            coverage.visitCall(iid);
+        }
+    }
+
+    /** One call every this many branches */
+    private static final int BRANCHES_PER_CALL = 8;
+
+    public static void main(String[] args) {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] modes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+                : new String[] {"events", "sink"};
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        System.out.printf("%8s %16s %14s %10s%n", "callback", "events/s", "bytes/event", "edges");
+        for (String mode : modes) {
+            // Warm up, then measure
+            run(mode, events);
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            int edges = run(mode, events);
+            long elapsed = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+            System.out.printf("%8s %16.0f %14.1f %10d%n", mode,
+                    events * 1e9 / elapsed, (double) bytes / events, edges);
+        }
+    }
+
+    /** Traces a run with the given number of branch and call events, and returns the edges covered. */
+    private static int run(String mode, int events) {
+        EventCallback callback = mode.equals("sink") ? new SinkCallback() : new EventCallback();
+        SingleSnoop.setCallbackGenerator(t -> callback);
+        SingleSnoop.resetTracing();
+        SingleSnoop.startSnooping("Bench#run");
+
+        SingleSnoop.METHOD_BEGIN("Bench", "run", "()V");
+        for (int i = 0; i < events; i++) {
+            int iid = i & 1023;
+            if (i % (BRANCHES_PER_CALL + 1) == BRANCHES_PER_CALL) {
+                SingleSnoop.INVOKESTATIC(iid, 1, "Bench", "callee", "()V");
+                SingleSnoop.METHOD_BEGIN("Bench", "callee", "()V");
+                SingleSnoop.RETURN(iid, 2);
+                SingleSnoop.INVOKEMETHOD_END();
+            } else {
+                SingleSnoop.GETVALUE_boolean((i & 4) != 0);
+                // Vary the kind of branch, as instrumented code does
+                switch (i & 3) {
+                    case 0: SingleSnoop.IFEQ(iid, 1, 0); break;
+                    case 1: SingleSnoop.IFNE(iid, 1, 0); break;
+                    case 2: SingleSnoop.IF_ICMPLT(iid, 1, 0); break;
+                    default: SingleSnoop.IFNULL(iid, 1, 0); break;
+                }
+            }
+        }
+        SingleSnoop.RETURN(0, 3);
+        SingleSnoop.block();
+        return callback.coverage.getNonZeroCount();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.concurrent.locks.LockSupport;
+
+import edu.berkeley.cs.jqf.instrument.util.FastBlockingQueue;
+import janala.logger.inst.Instruction;
+
+/**
+ * Traces the instructions of one application thread in a background
+ * thread.
+ *
+ * <p>The application thread only appends each instruction to a
+ * {@link FastBlockingQueue}. The tracing thread takes them in order and
+ * passes them to a {@link ThreadTracer}, which runs its handlers and the
+ * callback of the guidance. Both threads yield while the queue is full or
+ * empty, so that this also works on a single core. A tracing thread that
+ * stays idle, e.g. while the next input is generated, parks until the
+ * application thread logs an instruction.</p>
+ *
+ * <p>An exception thrown by the callback is thrown in the application
+ * thread when it logs its next instruction, instead of that instruction.
+ * {@link #flush()} waits until every logged instruction is traced, so
+ * that the effects of the callback are visible to the application
+ * thread.</p>
+ */
+final class AsyncTracer {
+
+    /** Number of empty polls after which the tracing thread yields */
+    private static final int SPINS = 100;
+
+    /** Time after which a tracing thread that found no instruction parks, in nanoseconds */
+    private static final long IDLE_NANOS = 1_000_000;
+
+    /** Maximum time the tracing thread stays parked, in nanoseconds */
+    private static final long PARK_NANOS = 10_000_000;
+
+    private final ThreadTracer tracer;
+
+    private final FastBlockingQueue<Instruction> queue;
+
+    private final Thread thread;
+
+    /**
+     * Whether the tracing thread is waiting for instructions. It is only
+     * cleared before taking an instruction from the queue, so the queue
+     * being empty and the tracing thread idle means that every logged
+     * instruction is traced.
+     */
+    private volatile boolean idle = true;
+
+    /** Exception thrown by the callback and not yet rethrown, if any */
+    private volatile RuntimeException failure;
+
+    /**
+     * Whether the tracing thread is parked, or about to park. Cleared by
+     * the application thread when it unparks the tracing thread.
+     */
+    private volatile boolean parked;
+
+    private volatile boolean closed;
+
+    /**
+     * Starts a tracing thread.
+     *
+     * @param tracer the tracer of the application thread
+     * @param capacity the maximum number of instructions waiting to be traced
+     */
+    AsyncTracer(ThreadTracer tracer, int capacity) {
+        this.tracer = tracer;
+        this.queue = new FastBlockingQueue<>(capacity + 1);
+        // Snooping is always blocked in threads with this prefix
+        this.thread = new Thread(this::run, "__JWIG_TRACER__" + tracer.tracee.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hands an instruction over to the tracing thread.
+     *
+     * @param ins the instruction executed by the application thread
+     */
+    void log(Instruction ins) {
+        RuntimeException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+        while (queue.isFull()) {
+            Thread.yield();
+        }
+        queue.put(ins);
+        if (parked) {
+            parked = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Waits until all logged instructions are traced. An exception thrown
+     * by the callback meanwhile is discarded. Must be called by the
+     * application thread.
+     */
+    void flush() {
+        while (!(queue.isEmpty() && idle)) {
+            Thread.yield();
+        }
+        failure = null;
+    }
+
+    /** Traces all logged instructions, and stops the tracing thread. */
+    void close() {
+        flush();
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        int spins = 0;
+        long idleSince = 0;
+        while (!closed) {
+            if (idle) {
+                if (queue.isEmpty()) {
+                    if (++spins > SPINS) {
+                        if (spins == SPINS + 1) {
+                            idleSince = System.nanoTime();
+                        } else if (System.nanoTime() - idleSince > IDLE_NANOS) {
+                            park();
+                            continue;
+                        }
+                        Thread.yield();
+                    }
+                    continue;
+                }
+                idle = false;
+                spins = 0;
+            }
+            Instruction ins = queue.remove(0);
+            if (ins == null) {
+                idle = true;
+                continue;
+            }
+            try {
+                tracer.consume(ins);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks the tracing thread until an instruction is logged. The queue
+     * is checked after setting {@link #parked}, and {@link #parked} is
+     * checked after putting an instruction, so either the instruction is
+     * seen here or the tracing thread is unparked.
+     */
+    private void park() {
+        parked = true;
+        if (queue.isEmpty() && !closed) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        parked = false;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.Arrays;
+
+/**
+ * Counters of the edges hit by classes instrumented for coverage only.
+ *
+ * <p>When <tt>janala.coverageOnly</tt> is set, instrumented classes do
+ * not report their instructions to {@link SingleSnoop}. Instead, each
+ * conditional jump, switch and call site increments, in place, the
+ * counter of the edge it takes in {@link #counts}. The index of each
+ * edge is computed when the class is instrumented. A counter that was
+ * zero is also recorded with {@link #touch(int)}, so that draining and
+ * resetting the counters take time proportional to the number of edges
+ * taken, rather than to the number of counters.</p>
+ *
+ * <p>Counters are shared by all threads, and are not updated atomically.
+ * They count every edge taken since they were last drained, not only
+ * those taken inside the entry point of tracing. Edges taken concurrently
+ * by several threads may be missed.</p>
+ */
+public final class EdgeCounters {
+
+    /** The number of counters, which matches the size of a coverage map. */
+    public static final int SIZE = (1 << 16) - 1;
+
+    /** The counts of each edge, incremented by instrumented code. */
+    public static final int[] counts = new int[SIZE];
+
+    /** The indices of the counters that became non-zero since the last drain. */
+    private static final int[] touched = new int[SIZE];
+
+    /** The number of indices in {@link #touched}. */
+    private static int numTouched;
+
+    private static volatile boolean enabled;
+
+    private EdgeCounters() {}
+
+    /** Records that classes are instrumented for coverage only. */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Returns whether classes are instrumented for coverage only, in
+     * which case their edges are counted here instead of being traced.
+     *
+     * @return whether edge counters are in use
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records that a counter became non-zero. This is called by
+     * instrumented code, after incrementing a counter that was zero.
+     *
+     * @param index the index of the counter
+     */
+    public static void touch(int index) {
+        int n = numTouched;
+        if (n < SIZE) {
+            touched[n] = index;
+            numTouched = n + 1;
+        }
+    }
+
+    /** Receives the counts of drained edges. */
+    public interface Sink {
+        /**
+         * Receives the count of an edge.
+         *
+         * @param index the index of the edge
+         * @param count its non-zero count
+         */
+        void add(int index, int count);
+    }
+
+    /**
+     * Passes the count of each edge taken since the last drain to a sink,
+     * and resets the counters to zero.
+     *
+     * @param sink the sink of the counts
+     */
+    public static void drain(Sink sink) {
+        int n = numTouched;
+        for (int i = 0; i < n; i++) {
+            int index = touched[i];
+            int count = counts[index];
+            if (count != 0) {
+                counts[index] = 0;
+                sink.add(index, count);
+            }
+        }
+        numTouched = 0;
+    }
+
+    /**
+     * Resets all counters to zero, including those whose increment was
+     * not recorded with {@link #touch(int)}, e.g. because the thread was
+     * stopped in between. Such counters would otherwise never be drained
+     * or reset again.
+     */
+    public static void clearAll() {
+        Arrays.fill(counts, 0);
+        numTouched = 0;
+    }
+
+    /** Resets the counters of the edges taken since the last drain to zero. */
+    public static void reset() {
+        int n = numTouched;
+        for (int i = 0; i < n; i++) {
+            counts[touched[i]] = 0;
+        }
+        numTouched = 0;
+    }
+}
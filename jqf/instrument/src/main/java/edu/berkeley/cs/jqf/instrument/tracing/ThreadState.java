@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+/**
+ * The tracing state of one thread: whether snooping is blocked, and the
+ * tracer of the thread.
+ *
+ * <p>This is looked up by every instrumented instruction, so the state of
+ * each thread is cached in a small table indexed by thread ID, in front
+ * of a {@link ThreadLocal}. A slot is only written by threads whose IDs
+ * map to it, so that threads of a parallel session do not contend for
+ * it. The fields other than {@link #thread} are only used by the thread
+ * itself.</p>
+ */
+final class ThreadState {
+
+    static final int TABLE_SIZE = 256;
+
+    private static final ThreadState[] table = new ThreadState[TABLE_SIZE];
+
+    private static final ThreadLocal<ThreadState> states = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState(Thread.currentThread());
+        }
+    };
+
+    final Thread thread;
+
+    /** Whether instructions of this thread are not snooped, e.g. while snooping one */
+    boolean blocked;
+
+    /** The tracer of this thread, spawned when first needed */
+    ThreadTracer tracer;
+
+    /** The background tracer of this thread, if tracing asynchronously */
+    AsyncTracer asyncTracer;
+
+    private ThreadState(Thread thread) {
+        this.thread = thread;
+        String threadName = thread.getName();
+        if (threadName.startsWith("__JWIG_TRACER__")) {
+            blocked = true; // Always block snooping on the tracing thread to prevent cycles
+        } else if (SingleSnoop.threadsToUnblock.synchronizedRemove(thread)) {
+            blocked = false; // Snoop on threads that were added to the queue explicitly
+        } else {
+            blocked = true; // Block all other threads (e.g. JVM cleanup threads)
+        }
+    }
+
+    /**
+     * Returns the state of the current thread.
+     *
+     * @return the state of the current thread
+     */
+    static ThreadState current() {
+        Thread thread = Thread.currentThread();
+        int slot = (int) thread.getId() & (TABLE_SIZE - 1);
+        ThreadState state = table[slot];
+        if (state == null || state.thread != thread) {
+            state = states.get();
+            table[slot] = state;
+        }
+        return state;
+    }
+}
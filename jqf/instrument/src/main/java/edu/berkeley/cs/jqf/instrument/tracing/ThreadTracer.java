@@ -36,6 +36,7 @@ import java.util.function.Consumer;
 import edu.berkeley.cs.jqf.instrument.tracing.events.AllocEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.IntBranchSink;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReadEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
@@ -57,6 +58,8 @@ public class ThreadTracer {
     protected final String entryPointClass;
     protected final String entryPointMethod;
     protected final Consumer<TraceEvent> callback;
+    // The callback, if it takes branch and call events as primitive values
+    protected final IntBranchSink sink;
     private final Deque<IVisitor> handlers = new ArrayDeque<>();
 
     // Values set by GETVALUE_* instructions inserted by Janala
@@ -93,6 +96,7 @@ public class ThreadTracer {
         }
         this.traceGenerators = Boolean.getBoolean("jqf.traceGenerators");
         this.callback = callback;
+        this.sink = callback instanceof IntBranchSink ? (IntBranchSink) callback : null;
         this.handlers.push(new BaseHandler());
     }
 
@@ -125,6 +129,38 @@ public class ThreadTracer {
         }
     }
 
+    /**
+     * Emits a branch event, as primitive values if the callback is an
+     * {@link IntBranchSink}.
+     */
+    protected final void emitBranch(int iid, MemberRef method, int lineNum, int arm) {
+        if (sink == null) {
+            emit(new BranchEvent(iid, method, lineNum, arm));
+            return;
+        }
+        try {
+            sink.visitBranch(iid, arm);
+        } catch (RuntimeException ex) {
+            callBackException = ex;
+        }
+    }
+
+    /**
+     * Emits a call event, as primitive values if the callback is an
+     * {@link IntBranchSink}.
+     */
+    protected final void emitCall(int iid, MemberRef containingMethod, int lineNum, MemberRef invokedMethod) {
+        if (sink == null) {
+            emit(new CallEvent(iid, containingMethod, lineNum, invokedMethod));
+            return;
+        }
+        try {
+            sink.visitCall(iid);
+        } catch (RuntimeException ex) {
+            callBackException = ex;
+        }
+    }
+
     /**
      * Handles tracing of a single bytecode instruction.
      *
@@ -133,6 +169,75 @@ public class ThreadTracer {
     protected final void consume(Instruction ins) {
         // Apply the visitor at the top of the stack
         ins.visit(handlers.peek());
+        rethrowCallBackException();
+    }
+
+    /**
+     * Handles a GETVALUE_boolean instruction, without allocating it.
+     *
+     * <p>Values are recorded whatever the handler, as each one is read
+     * right after it is set, by the instruction that it precedes.</p>
+     *
+     * @param v the value
+     */
+    final void consumeValue(boolean v) {
+        values.booleanValue = v;
+    }
+
+    /**
+     * Handles a GETVALUE_int instruction, without allocating it.
+     *
+     * @param v the value
+     */
+    final void consumeValue(int v) {
+        values.intValue = v;
+    }
+
+    /**
+     * Handles a conditional jump, without allocating it.
+     *
+     * @param iid the instruction ID
+     * @param mid the line number
+     */
+    final void consumeConditionalBranch(int iid, int mid) {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).branch(iid, mid, values.booleanValue ? 1 : 0);
+            rethrowCallBackException();
+        }
+    }
+
+    /**
+     * Handles a TABLESWITCH instruction, without allocating it.
+     *
+     * @param iid the instruction ID
+     * @param mid the line number
+     * @param numCases the number of cases, excluding the default
+     */
+    final void consumeTableSwitch(int iid, int mid, int numCases) {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).branch(iid, mid, tableSwitchArm(values.intValue, numCases));
+            rethrowCallBackException();
+        }
+    }
+
+    /**
+     * Handles a LOOKUPSWITCH instruction, without allocating it.
+     *
+     * @param iid the instruction ID
+     * @param mid the line number
+     * @param keys the keys of the cases
+     */
+    final void consumeLookupSwitch(int iid, int mid, int[] keys) {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).branch(iid, mid, lookupSwitchArm(values.intValue, keys));
+            rethrowCallBackException();
+        }
+    }
+
+    private void rethrowCallBackException() {
         if (callBackException != null) {
             RuntimeException e = callBackException;
             callBackException = null;
@@ -140,6 +245,24 @@ public class ThreadTracer {
         }
     }
 
+    /** Returns the arm of a TABLESWITCH taken for a value, or -1 for the default. */
+    private static int tableSwitchArm(int value, int numCases) {
+        if (value >= 0 && value < numCases) {
+            return value;
+        }
+        return -1;
+    }
+
+    /** Returns the arm of a LOOKUPSWITCH taken for a value, or -1 for the default. */
+    private static int lookupSwitchArm(int value, int[] cases) {
+        for (int i = 0; i < cases.length; i++) {
+            if (value == cases[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
 
     private static boolean isReturnOrMethodThrow(Instruction inst) {
         return  inst instanceof ARETURN ||
@@ -189,7 +312,7 @@ public class ThreadTracer {
             String method = begin.getName();
             if ((clazz.equals(entryPointClass) && method.equals(entryPointMethod)) ||
                     (traceGenerators && clazz.endsWith("Generator") && method.equals("generate")) ) {
-                emit(new CallEvent(0, null, 0, begin));
+                emitCall(0, null, 0, begin);
                 handlers.push(new TraceEventGeneratingHandler(begin, 0));
             } else {
                 // Ignore all top-level calls that are not the entry point
@@ -225,7 +348,7 @@ public class ThreadTracer {
                 // Trace continues with callee
                 int invokerIid = invokeTarget != null ? ((Instruction) invokeTarget).iid : -1;
                 int invokerMid = invokeTarget != null ? ((Instruction) invokeTarget).mid : -1;
-                emit(new CallEvent(invokerIid, this.method, invokerMid, begin));
+                emitCall(invokerIid, this.method, invokerMid, begin);
                 handlers.push(new TraceEventGeneratingHandler(begin, depth+1));
             } else {
                 // Class loading or static initializer
@@ -245,7 +368,9 @@ public class ThreadTracer {
                 // Handle end of super() or this() call
                 if (invokingSuperOrThis) {
                     while (true) { // will break when outer caller of <init> found
-                        emit(new ReturnEvent(-1, this.method, -1));
+                        if (sink == null) {
+                            emit(new ReturnEvent(-1, this.method, -1));
+                        }
                         handlers.pop();
                         IVisitor handler = handlers.peek();
                         // We should not reach the BaseHandler without finding
@@ -324,24 +449,24 @@ public class ThreadTracer {
             // The branch taken-or-not would have been set by a previous
             // GETVALUE instruction
             boolean taken = values.booleanValue;
-            emit(new BranchEvent(iid, this.method, lineNum, taken ? 1 : 0));
+            branch(iid, lineNum, taken ? 1 : 0);
 
             super.visitConditionalBranch(ins);
         }
 
+        /** Emits a branch event for an arm of a branch or switch in this method. */
+        void branch(int iid, int lineNum, int arm) {
+            emitBranch(iid, this.method, lineNum, arm);
+        }
+
         @Override
         public void visitTABLESWITCH(TABLESWITCH tableSwitch) {
             int iid = tableSwitch.iid;
             int lineNum = tableSwitch.mid;
             int value = values.intValue;
             int numCases = tableSwitch.labels.length;
-            // Compute arm index or else default
-            int arm = -1;
-            if (value >= 0 && value < numCases) {
-                arm = value;
-            }
-            // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
+            // Emit a branch instruction corresponding to the arm, or else default
+            branch(iid, lineNum, tableSwitchArm(value, numCases));
 
             super.visitTABLESWITCH(tableSwitch);
         }
@@ -352,16 +477,8 @@ public class ThreadTracer {
             int lineNum = lookupSwitch.mid;
             int value = values.intValue;
             int[] cases = lookupSwitch.keys;
-            // Compute arm index or else default
-            int arm = -1;
-            for (int i = 0; i < cases.length; i++) {
-                if (value == cases[i]) {
-                    arm = i;
-                    break;
-                }
-            }
-            // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
+            // Emit a branch instruction corresponding to the arm, or else default
+            branch(iid, lineNum, lookupSwitchArm(value, cases));
 
             super.visitLOOKUPSWITCH(lookupSwitch);
         }
@@ -373,7 +490,7 @@ public class ThreadTracer {
             int objectId = heapload.objectId;
             String field = heapload.field;
             // Log the object access (unless it was a NPE)
-            if (objectId != 0) {
+            if (objectId != 0 && sink == null) {
                 emit(new ReadEvent(iid, this.method, lineNum, objectId, field));
             }
 
@@ -384,7 +501,9 @@ public class ThreadTracer {
         public void visitNEW(NEW newInst) {
             int iid = newInst.iid;
             int lineNum = newInst.mid;
-            emit(new AllocEvent(iid, this.method, lineNum, 1));
+            if (sink == null) {
+                emit(new AllocEvent(iid, this.method, lineNum, 1));
+            }
 
             super.visitNEW(newInst);
         }
@@ -394,14 +513,18 @@ public class ThreadTracer {
             int iid = newArray.iid;
             int lineNum = newArray.mid;
             int size = values.intValue;
-            emit(new AllocEvent(iid, this.method, lineNum, size));
+            if (sink == null) {
+                emit(new AllocEvent(iid, this.method, lineNum, size));
+            }
 
             super.visitNEWARRAY(newArray);
         }
 
         @Override
         public void visitReturnOrMethodThrow(Instruction ins) {
-            emit(new ReturnEvent(ins.iid, this.method, ins.mid));
+            if (sink == null) {
+                emit(new ReturnEvent(ins.iid, this.method, ins.mid));
+            }
             handlers.pop();
 
             super.visitReturnOrMethodThrow(ins);
@@ -35,12 +35,275 @@ import janala.logger.inst.Instruction;
 /** @author Rohan Padhye */
 class TraceLogger extends AbstractLogger {
 
-    private final ThreadLocal<ThreadTracer> tracer
-            = ThreadLocal.withInitial(() -> ThreadTracer.spawn(Thread.currentThread()));
+    /** Whether to trace each thread in a background thread */
+    static final boolean ASYNC = Boolean.getBoolean("jqf.tracing.ASYNC");
+
+    /** Maximum number of instructions waiting to be traced, per thread */
+    static final int ASYNC_QUEUE_SIZE = Integer.getInteger("jqf.tracing.ASYNC_QUEUE_SIZE", 1 << 16);
+
+    /** Returns the tracer of the current thread, spawning it if needed. */
+    private static ThreadTracer tracer() {
+        ThreadState state = ThreadState.current();
+        ThreadTracer t = state.tracer;
+        if (t == null) {
+            t = ThreadTracer.spawn(state.thread);
+            state.tracer = t;
+        }
+        return t;
+    }
 
     @Override
     protected void log(Instruction instruction) {
-        tracer.get().consume(instruction);
+        if (ASYNC) {
+            ThreadState state = ThreadState.current();
+            AsyncTracer t = state.asyncTracer;
+            if (t == null) {
+                t = new AsyncTracer(ThreadTracer.spawn(state.thread), ASYNC_QUEUE_SIZE);
+                state.asyncTracer = t;
+            }
+            t.log(instruction);
+        } else {
+            tracer().consume(instruction);
+        }
+    }
+
+    /*
+     * Without a tracing thread, values and branches are passed to the
+     * tracer as primitives, instead of allocating an instruction for each.
+     */
+
+    @Override
+    public void GETVALUE_boolean(boolean v) {
+        if (ASYNC) {
+            super.GETVALUE_boolean(v);
+        } else {
+            tracer().consumeValue(v);
+        }
+    }
+
+    @Override
+    public void GETVALUE_int(int v) {
+        if (ASYNC) {
+            super.GETVALUE_int(v);
+        } else {
+            tracer().consumeValue(v);
+        }
+    }
+
+    @Override
+    public void TABLESWITCH(int iid, int mid, int min, int max, int dflt, int[] labels) {
+        if (ASYNC) {
+            super.TABLESWITCH(iid, mid, min, max, dflt, labels);
+        } else {
+            tracer().consumeTableSwitch(iid, mid, labels.length);
+        }
+    }
+
+    @Override
+    public void LOOKUPSWITCH(int iid, int mid, int dflt, int[] keys, int[] labels) {
+        if (ASYNC) {
+            super.LOOKUPSWITCH(iid, mid, dflt, keys, labels);
+        } else {
+            tracer().consumeLookupSwitch(iid, mid, keys);
+        }
+    }
+
+    @Override
+    public void IFEQ(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFEQ(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFNE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFNE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFLT(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFLT(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFGE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFGE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFGT(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFGT(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFLE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFLE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ICMPEQ(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ICMPEQ(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ICMPNE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ICMPNE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ICMPLT(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ICMPLT(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ICMPGE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ICMPGE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ICMPGT(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ICMPGT(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ICMPLE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ICMPLE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ACMPEQ(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ACMPEQ(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IF_ACMPNE(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IF_ACMPNE(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFNULL(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFNULL(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    @Override
+    public void IFNONNULL(int iid, int mid, int label) {
+        if (ASYNC) {
+            super.IFNONNULL(iid, mid, label);
+        } else {
+            tracer().consumeConditionalBranch(iid, mid);
+        }
+    }
+
+    /*
+     * Values of other types are not used by the tracer.
+     */
+
+    @Override
+    public void GETVALUE_double(double v) {
+    }
+
+    @Override
+    public void GETVALUE_long(long v) {
+    }
+
+    @Override
+    public void GETVALUE_Object(Object v) {
+    }
+
+    @Override
+    public void GETVALUE_byte(byte v) {
+    }
+
+    @Override
+    public void GETVALUE_char(char v) {
+    }
+
+    @Override
+    public void GETVALUE_float(float v) {
+    }
+
+    @Override
+    public void GETVALUE_short(short v) {
+    }
+
+    @Override
+    public void GETVALUE_void() {
+    }
+
+    /** Waits until the instructions logged by the current thread are traced. */
+    void drain() {
+        AsyncTracer t = ThreadState.current().asyncTracer;
+        if (t != null) {
+            t.flush();
+        }
+    }
+
+    /** Discards the tracer of the current thread, which is spawned again when needed. */
+    void reset() {
+        ThreadState state = ThreadState.current();
+        if (state.asyncTracer != null) {
+            state.asyncTracer.close();
+            state.asyncTracer = null;
+        }
+        state.tracer = null;
     }
 
 }
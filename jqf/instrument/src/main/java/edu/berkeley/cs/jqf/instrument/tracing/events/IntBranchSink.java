@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing.events;
+
+/**
+ * A consumer of branch and call events as primitive values.
+ *
+ * <p>If the callback of a traced thread (see
+ * {@link edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop#setCallbackGenerator})
+ * implements this interface, branch and call events are passed to it
+ * through these methods instead of as {@link TraceEvent} objects, and no
+ * other events are generated. Tracing then allocates no events, which
+ * suits callbacks that only collect coverage.</p>
+ */
+public interface IntBranchSink {
+
+    /**
+     * Handles a branch, as a {@link BranchEvent} would.
+     *
+     * @param iid the instruction ID of the branch
+     * @param arm the arm taken
+     */
+    void visitBranch(int iid, int arm);
+
+    /**
+     * Handles a call, as a {@link CallEvent} would.
+     *
+     * @param iid the instruction ID of the call site
+     */
+    void visitCall(int iid);
+}
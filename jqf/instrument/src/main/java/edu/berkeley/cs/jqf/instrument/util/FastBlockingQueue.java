@@ -82,6 +82,8 @@ public final class FastBlockingQueue<T> {
         }
         @SuppressWarnings("unchecked")
         T item = (T) buffer[consumer];
+        // Do not keep consumed items alive
+        buffer[consumer] = null;
         consumer = increment(consumer);
         return item;
     }
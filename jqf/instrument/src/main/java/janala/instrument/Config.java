@@ -17,6 +17,7 @@ class Config {
   public final String[] includeInst;
   public final boolean instrumentHeapLoad;
   public final boolean instrumentAlloc;
+  public final boolean coverageOnly;
   public final String instrumentationCacheDir;
 
   private Config() {
@@ -41,6 +42,7 @@ class Config {
 
       instrumentHeapLoad = Boolean.parseBoolean(properties.getProperty("janala.instrumentHeapLoad", "false"));
       instrumentAlloc = Boolean.parseBoolean(properties.getProperty("janala.instrumentAlloc", "false"));
+      coverageOnly = Boolean.parseBoolean(properties.getProperty("janala.coverageOnly", "false"));
 
       String excludeInstStr = properties.getProperty("janala.excludes", "");
       if (excludeInstStr.length() > 0) {
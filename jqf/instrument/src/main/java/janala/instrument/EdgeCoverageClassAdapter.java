@@ -0,0 +1,27 @@
+package janala.instrument;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Instruments a class for coverage only, with {@link EdgeCoverageMethodAdapter}.
+ */
+public class EdgeCoverageClassAdapter extends ClassVisitor {
+  private final String className;
+
+  public EdgeCoverageClassAdapter(ClassVisitor cv, String className) {
+    super(Opcodes.ASM5, cv);
+    this.className = className;
+  }
+
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String desc,
+      String signature, String[] exceptions) {
+    MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
+    if (mv != null) {
+      return new EdgeCoverageMethodAdapter(mv, className, name, desc);
+    }
+    return null;
+  }
+}
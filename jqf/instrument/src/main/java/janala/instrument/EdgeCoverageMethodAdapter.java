@@ -0,0 +1,134 @@
+package janala.instrument;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Instruments a method for coverage only.
+ *
+ * <p>Unlike {@link SnoopInstructionMethodAdapter}, which reports every
+ * instruction to the tracer, this only instruments the instructions that
+ * coverage is made of. Each arm of a conditional jump or switch, and each
+ * call site, increments the counter of its edge in
+ * {@link edu.berkeley.cs.jqf.instrument.tracing.EdgeCounters}, with
+ * inline bytecode, and calls it only when the counter was zero. The index of each edge is a hash of the
+ * method, the position of the instruction in the method, and the arm.</p>
+ */
+public class EdgeCoverageMethodAdapter extends MethodVisitor implements Opcodes {
+  static final String COUNTERS_CLASS = "edu/berkeley/cs/jqf/instrument/tracing/EdgeCounters";
+  static final int SIZE = (1 << 16) - 1;
+
+  private final int methodHash;
+  private int site = 0;
+
+  public EdgeCoverageMethodAdapter(MethodVisitor mv, String className,
+      String methodName, String descriptor) {
+    super(ASM5, mv);
+    this.methodHash = (className + "#" + methodName + descriptor).hashCode();
+  }
+
+  /** Returns the index of the counter of an arm of the current instruction. */
+  private int edge(int arm) {
+    int h = methodHash * 31 + site;
+    h = h * 31 + arm;
+    // Finalizer of MurmurHash3, so that nearby instructions spread out
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return Integer.remainderUnsigned(h, SIZE);
+  }
+
+  /**
+   * Adds code that increments the counter of an arm of the current
+   * instruction, and records the counter when it was zero.
+   */
+  private void addIncrement(int arm) {
+    int edge = edge(arm);
+    Label counted = new Label();
+    mv.visitFieldInsn(GETSTATIC, COUNTERS_CLASS, "counts", "[I");
+    Utils.addBipushInsn(mv, edge);
+    mv.visitInsn(DUP2);
+    mv.visitInsn(IALOAD);
+    mv.visitInsn(DUP_X2);
+    mv.visitInsn(ICONST_1);
+    mv.visitInsn(IADD);
+    mv.visitInsn(IASTORE);
+    mv.visitJumpInsn(IFNE, counted);
+    Utils.addBipushInsn(mv, edge);
+    mv.visitMethodInsn(INVOKESTATIC, COUNTERS_CLASS, "touch", "(I)V", false);
+    mv.visitLabel(counted);
+  }
+
+  @Override
+  public void visitJumpInsn(int opcode, Label label) {
+    if (opcode == GOTO || opcode == JSR) {
+      mv.visitJumpInsn(opcode, label);
+      return;
+    }
+    Label taken = new Label();
+    Label fallthrough = new Label();
+
+    mv.visitJumpInsn(opcode, taken);
+    addIncrement(0);
+    mv.visitJumpInsn(GOTO, fallthrough);
+
+    mv.visitLabel(taken);
+    addIncrement(1);
+    mv.visitJumpInsn(GOTO, label);
+
+    mv.visitLabel(fallthrough);
+    site++;
+  }
+
+  @Override
+  public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+    Label[] trampolines = new Label[labels.length];
+    Label dfltTrampoline = new Label();
+    for (int i = 0; i < labels.length; i++) {
+      trampolines[i] = new Label();
+    }
+    mv.visitTableSwitchInsn(min, max, dfltTrampoline, trampolines);
+    addSwitchTrampolines(dflt, dfltTrampoline, labels, trampolines);
+    site++;
+  }
+
+  @Override
+  public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+    Label[] trampolines = new Label[labels.length];
+    Label dfltTrampoline = new Label();
+    for (int i = 0; i < labels.length; i++) {
+      trampolines[i] = new Label();
+    }
+    mv.visitLookupSwitchInsn(dfltTrampoline, keys, trampolines);
+    addSwitchTrampolines(dflt, dfltTrampoline, labels, trampolines);
+    site++;
+  }
+
+  /** Adds the trampolines of each case of a switch, whose index is its arm, and of its default arm. */
+  private void addSwitchTrampolines(Label dflt, Label dfltTrampoline, Label[] labels, Label[] trampolines) {
+    mv.visitLabel(dfltTrampoline);
+    addIncrement(-1);
+    mv.visitJumpInsn(GOTO, dflt);
+    for (int i = 0; i < labels.length; i++) {
+      mv.visitLabel(trampolines[i]);
+      addIncrement(i);
+      mv.visitJumpInsn(GOTO, labels[i]);
+    }
+  }
+
+  @Override
+  public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+    addIncrement(0);
+    site++;
+    mv.visitMethodInsn(opcode, owner, name, desc, itf);
+  }
+
+  @Override
+  public void visitMaxs(int maxStack, int maxLocals) {
+    // Recomputed by the class writer
+    mv.visitMaxs(maxStack + 5, maxLocals);
+  }
+}
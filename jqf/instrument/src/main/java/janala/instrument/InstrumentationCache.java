@@ -0,0 +1,342 @@
+package janala.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A content-addressed cache of instrumented classes, in a single archive
+ * file shared by all the JVMs that use it.
+ *
+ * <p>A class is looked up by a hash of its original bytes, of the
+ * instrumentation settings, and of the classes that instrument it (the
+ * class adapters, the snoop class whose probes they call, and ASM), so
+ * that a changed class, setting or version of JQF simply misses. The
+ * archive is a header followed by records appended one after the
+ * other:</p>
+ *
+ * <pre>
+ *   header: magic (int), version (int), end of the last record (long)
+ *   record: key (16 bytes), length (int), CRC-32 of the bytes (int), bytes
+ * </pre>
+ *
+ * <p>Writers append a record and then advance the end in the header,
+ * holding an exclusive lock on the header, so records are never modified
+ * once visible. Readers memory-map the archive, and index the records
+ * they have not seen yet whenever a lookup misses. Processes can
+ * therefore read and write the archive concurrently. A record torn by a
+ * crash ends the records, and is overwritten by the next one appended.
+ * The file is grown ahead of the end by half its size at a time, so that
+ * readers remap it only a logarithmic number of times, and it never grows
+ * past 2 GB, the largest mapping; classes that do not fit are not
+ * cached.</p>
+ *
+ * <p>Instrumented bytes also depend on the class hierarchy seen when
+ * computing stack map frames, which is assumed to be the same for all
+ * users of an archive.</p>
+ */
+class InstrumentationCache {
+  private static final int MAGIC = 0x4a514643; // "JQFC"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 16;
+  private static final int END_OFFSET = 8;
+  private static final int RECORD_HEADER_SIZE = 24;
+  private static final long MAX_SIZE = Integer.MAX_VALUE;
+  private static final long MIN_GROWTH = 1 << 20;
+
+  /** Classes whose code determines the instrumented bytes */
+  private static final String[] INSTRUMENTER_CLASSES = {
+      "janala/instrument/SnoopInstructionTransformer",
+      "janala/instrument/SnoopInstructionClassAdapter",
+      "janala/instrument/SnoopInstructionMethodAdapter",
+      "janala/instrument/EdgeCoverageClassAdapter",
+      "janala/instrument/EdgeCoverageMethodAdapter",
+      "janala/instrument/GlobalStateForInstrumentation",
+      "janala/instrument/SafeClassWriter",
+      "janala/instrument/TryCatchBlock",
+      "janala/instrument/Utils",
+      "edu/berkeley/cs/jqf/instrument/tracing/EdgeCounters",
+      Config.instance.analysisClass,
+      "org/objectweb/asm/ClassReader",
+      "org/objectweb/asm/ClassWriter",
+      "org/objectweb/asm/MethodWriter",
+      "org/objectweb/asm/Frame",
+      "org/objectweb/asm/SymbolTable",
+  };
+
+  /** Digest of the settings and instrumenter, hashed into every key. */
+  private static final byte[] SETTINGS = settings();
+
+  /** A 128-bit key. */
+  private static final class Key {
+    final long hi;
+    final long lo;
+
+    Key(long hi, long lo) {
+      this.hi = hi;
+      this.lo = lo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).hi == hi && ((Key) o).lo == lo;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (hi ^ (hi >>> 32));
+    }
+  }
+
+  private final File file;
+  private final FileChannel channel;
+
+  /** Offset of the record of each key seen so far */
+  private final Map<Key, Long> index = new HashMap<>();
+
+  /** End of the records indexed so far */
+  private long indexed = HEADER_SIZE;
+
+  /** The archive, mapped up to at least {@link #indexed} */
+  private MappedByteBuffer map;
+
+  private InstrumentationCache(File file, FileChannel channel) {
+    this.file = file;
+    this.channel = channel;
+  }
+
+  /**
+   * Opens an archive, creating it if needed.
+   *
+   * @param file the archive
+   * @return the cache
+   * @throws IOException if the archive cannot be opened, or is not an
+   *         archive of this version
+   */
+  static InstrumentationCache open(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+    try {
+      FileLock lock = channel.lock(0, HEADER_SIZE, false);
+      try {
+        if (channel.size() == 0) {
+          ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+          header.putInt(MAGIC).putInt(VERSION).putLong(HEADER_SIZE).flip();
+          writeFully(channel, header, 0);
+        } else {
+          ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+          if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not an instrumentation cache of version " + VERSION + ": " + file);
+          }
+        }
+      } finally {
+        lock.release();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    return new InstrumentationCache(file, channel);
+  }
+
+  /**
+   * Returns the key of a class in this cache.
+   *
+   * @param original the original bytes of the class
+   * @return the key
+   */
+  static byte[] key(byte[] original) {
+    MessageDigest digest = sha256();
+    digest.update(SETTINGS);
+    return digest.digest(original);
+  }
+
+  private static byte[] settings() {
+    MessageDigest digest = sha256();
+    digest.update(("version=" + VERSION
+        + ",snoopClass=" + Config.instance.analysisClass
+        + ",coverageOnly=" + Config.instance.coverageOnly
+        + ",instrumentHeapLoad=" + Config.instance.instrumentHeapLoad
+        + ",instrumentAlloc=" + Config.instance.instrumentAlloc).getBytes(StandardCharsets.UTF_8));
+    byte[] buffer = new byte[8192];
+    for (String cname : INSTRUMENTER_CLASSES) {
+      digest.update((";" + cname + "=").getBytes(StandardCharsets.UTF_8));
+      try (InputStream in = ClassLoader.getSystemResourceAsStream(cname + ".class")) {
+        if (in == null) {
+          continue;
+        }
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+          digest.update(buffer, 0, n);
+        }
+      } catch (IOException e) {
+        // Hashed as missing
+      }
+    }
+    return digest.digest();
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static Key toKey(byte[] key) {
+    ByteBuffer b = ByteBuffer.wrap(key);
+    return new Key(b.getLong(), b.getLong());
+  }
+
+  /**
+   * Looks up an instrumented class.
+   *
+   * @param key the key of the class
+   * @return the instrumented bytes, or null if not cached
+   * @throws IOException if the archive cannot be read
+   */
+  synchronized byte[] get(byte[] key) throws IOException {
+    Key k = toKey(key);
+    Long offset = index.get(k);
+    if (offset == null) {
+      FileLock lock = channel.lock(0, HEADER_SIZE, true);
+      try {
+        refresh();
+      } finally {
+        lock.release();
+      }
+      offset = index.get(k);
+      if (offset == null) {
+        return null;
+      }
+    }
+    return read(offset);
+  }
+
+  /**
+   * Adds an instrumented class, unless a process already did.
+   *
+   * @param key the key of the class
+   * @param instrumented the instrumented bytes
+   * @return false if the archive is full
+   * @throws IOException if the archive cannot be written
+   */
+  synchronized boolean put(byte[] key, byte[] instrumented) throws IOException {
+    Key k = toKey(key);
+    FileLock lock = channel.lock(0, HEADER_SIZE, false);
+    try {
+      long end = refresh();
+      if (index.containsKey(k)) {
+        return true;
+      }
+      long required = end + RECORD_HEADER_SIZE + instrumented.length;
+      if (required > MAX_SIZE) {
+        return false;
+      }
+      long size = channel.size();
+      if (required > size) {
+        long grown = Math.min(MAX_SIZE, Math.max(required, size + Math.max(size / 2, MIN_GROWTH)));
+        writeFully(channel, ByteBuffer.allocate(1), grown - 1);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(instrumented, 0, instrumented.length);
+      ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + instrumented.length);
+      record.putLong(k.hi).putLong(k.lo).putInt(instrumented.length).putInt((int) crc.getValue());
+      record.put(instrumented).flip();
+      writeFully(channel, record, end);
+
+      // Publish the record
+      ByteBuffer newEnd = ByteBuffer.allocate(8);
+      newEnd.putLong(end + record.capacity()).flip();
+      writeFully(channel, newEnd, END_OFFSET);
+      refresh();
+      return true;
+    } finally {
+      lock.release();
+    }
+  }
+
+  /** Closes the archive. */
+  synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Indexes the records added since the last call. Must be called while
+   * holding a lock on the header.
+   *
+   * @return the end of the valid records, where the next record goes
+   */
+  private long refresh() throws IOException {
+    long end = readFully(channel, END_OFFSET, 8).getLong();
+    long size = channel.size();
+    if (end < HEADER_SIZE || end > MAX_SIZE || end > size) {
+      throw new IOException("Corrupt instrumentation cache: " + file);
+    }
+    if (end > indexed) {
+      if (map == null || map.capacity() < end) {
+        // Map all of the space grown ahead, so the next records need no new mapping
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_SIZE));
+      }
+      long offset = indexed;
+      while (end - offset >= RECORD_HEADER_SIZE) {
+        int position = (int) offset;
+        Key k = new Key(map.getLong(position), map.getLong(position + 8));
+        int length = map.getInt(position + 16);
+        if (length < 0 || offset + RECORD_HEADER_SIZE + length > end) {
+          break; // Torn by a crash; the next writer overwrites it
+        }
+        index.putIfAbsent(k, offset);
+        offset += RECORD_HEADER_SIZE + length;
+      }
+      indexed = offset;
+    }
+    return indexed;
+  }
+
+  /** Reads the bytes of a record, or returns null if they are corrupt. */
+  private byte[] read(long offset) {
+    int position = (int) offset;
+    int length = map.getInt(position + 16);
+    int checksum = map.getInt(position + 20);
+    byte[] bytes = new byte[length];
+    ByteBuffer b = map.duplicate();
+    b.position(position + RECORD_HEADER_SIZE);
+    b.get(bytes);
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, length);
+    return (int) crc.getValue() == checksum ? bytes : null;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(size);
+    while (b.hasRemaining()) {
+      if (channel.read(b, position + b.position()) < 0) {
+        throw new IOException("Unexpected end of instrumentation cache");
+      }
+    }
+    b.flip();
+    return b;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+    while (b.hasRemaining()) {
+      channel.write(b, position + b.position());
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package janala.instrument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Instruments the classes of a classpath ahead of time, into the
+ * instrumentation cache in <tt>janala.instrumentationCacheDir</tt>, so
+ * that fuzzing sessions using the same cache start without instrumenting
+ * them. Classes excluded by the configuration are skipped.
+ *
+ * <p>Usage: <tt>java -Djanala.conf=... -Djanala.instrumentationCacheDir=DIR
+ * janala.instrument.OfflineInstrumenter CLASSPATH</tt></p>
+ */
+public class OfflineInstrumenter {
+  private int instrumented;
+  private int cached;
+  private int failed;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: java " + OfflineInstrumenter.class.getName() + " CLASSPATH");
+      System.exit(1);
+    }
+    if (SnoopInstructionTransformer.cache == null) {
+      System.err.println("janala.instrumentationCacheDir is not set, or the cache cannot be opened");
+      System.exit(1);
+    }
+
+    String[] entries = args[0].split(File.pathSeparator);
+    URL[] urls = new URL[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      urls[i] = toURL(entries[i]);
+    }
+    // Resolves the class hierarchy when computing frames, as the application class loader would
+    ClassLoader loader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader());
+
+    OfflineInstrumenter instrumenter = new OfflineInstrumenter();
+    long start = System.currentTimeMillis();
+    for (String entry : entries) {
+      File file = new File(entry);
+      if (file.isDirectory()) {
+        instrumenter.instrumentDirectory(loader, file.toPath());
+      } else if (file.getName().endsWith(".jar")) {
+        instrumenter.instrumentJar(loader, file);
+      }
+    }
+    System.out.printf("Instrumented %d classes, %d already cached, %d failed, in %d ms%n",
+        instrumenter.instrumented, instrumenter.cached, instrumenter.failed,
+        System.currentTimeMillis() - start);
+  }
+
+  private static URL toURL(String entry) {
+    try {
+      return new File(entry).toURI().toURL();
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(entry, e);
+    }
+  }
+
+  private void instrumentDirectory(ClassLoader loader, Path dir) throws IOException {
+    List<Path> classFiles;
+    try (Stream<Path> files = Files.walk(dir)) {
+      classFiles = files.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+    }
+    for (Path p : classFiles) {
+      String relative = dir.relativize(p).toString().replace(File.separatorChar, '/');
+      instrument(loader, relative, Files.readAllBytes(p));
+    }
+  }
+
+  private void instrumentJar(ClassLoader loader, File file) throws IOException {
+    try (JarFile jar = new JarFile(file)) {
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+          continue;
+        }
+        try (InputStream in = jar.getInputStream(entry)) {
+          instrument(loader, entry.getName(), readAllBytes(in));
+        }
+      }
+    }
+  }
+
+  private void instrument(ClassLoader loader, String path, byte[] cbuf) throws IOException {
+    String cname = path.substring(0, path.length() - ".class".length());
+    if (cname.startsWith("META-INF/") || cname.endsWith("module-info")
+        || SnoopInstructionTransformer.shouldExclude(cname)) {
+      return;
+    }
+    InstrumentationCache cache = SnoopInstructionTransformer.cache;
+    byte[] key = InstrumentationCache.key(cbuf);
+    if (cache.get(key) != null) {
+      cached++;
+      return;
+    }
+    byte[] ret = SnoopInstructionTransformer.instrument(loader, cname, cbuf);
+    if (ret == null) {
+      System.err.println("[WARNING] Could not instrument " + cname);
+      failed++;
+      return;
+    }
+    if (!cache.put(key, ret)) {
+      throw new IOException("Instrumentation cache is full");
+    }
+    instrumented++;
+  }
+
+  private static byte[] readAllBytes(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+}
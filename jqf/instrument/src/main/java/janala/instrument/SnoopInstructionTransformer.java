@@ -1,17 +1,15 @@
 package janala.instrument;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
-import java.nio.file.Files;
 import java.security.ProtectionDomain;
-import java.util.Arrays;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeCounters;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -20,6 +18,8 @@ import org.objectweb.asm.ClassWriter;
 public class SnoopInstructionTransformer implements ClassFileTransformer {
   private static final String instDir = Config.instance.instrumentationCacheDir;
   private static final boolean verbose = Config.instance.verbose;
+  private static final boolean coverageOnly = Config.instance.coverageOnly;
+  private static final String cacheFile = "instrumented-classes.cache";
   
   private static String[] banned = {"[", "java/lang", "janala", "org/objectweb/asm", "sun", "jdk", "java/util/function"};
   private static String[] excludes = Config.instance.excludeInst;;
@@ -29,6 +29,10 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
 
     preloadClasses();
 
+    if (coverageOnly) {
+      EdgeCounters.enable();
+    }
+
     inst.addTransformer(new SnoopInstructionTransformer(), true);
     if (inst.isRetransformClassesSupported()) {
       for (Class clazz : inst.getAllLoadedClasses()) {
@@ -60,10 +64,14 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     Class.forName("java.util.TreeMap$Entry");
     Class.forName("java.util.zip.ZipFile");
     Class.forName("java.util.jar.JarFile");
+    if (cache != null) {
+      // Load the message digest used for cache keys
+      InstrumentationCache.key(new byte[0]);
+    }
   }
 
   /** packages that should be exluded from the instrumentation */
-  private static boolean shouldExclude(String cname) {
+  static boolean shouldExclude(String cname) {
     for (String e : banned) {
       if (cname.startsWith(e)) {
         return true;
@@ -82,10 +90,26 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     return false;
   }
 
-  static Map<String, byte[]> instrumentedBytes = new TreeMap<>();
+  static Map<String, byte[]> instrumentedBytes = new ConcurrentHashMap<>();
+
+  /** Archive of instrumented classes shared across runs, if enabled */
+  static final InstrumentationCache cache = openCache();
+
+  private static InstrumentationCache openCache() {
+    if (instDir == null) {
+      return null;
+    }
+    File file = new File(instDir, cacheFile);
+    try {
+      return InstrumentationCache.open(file);
+    } catch (IOException e) {
+      System.err.println("[WARNING] Instrumentation cache disabled: " + e.getMessage());
+      return null;
+    }
+  }
 
   @Override
-  synchronized public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
+  public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
       ProtectionDomain d, byte[] cbuf)
     throws IllegalClassFormatException {
 
@@ -97,72 +121,86 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
         print("* ");
       }
       print("Instrumenting: " + cname + "... ");
-      GlobalStateForInstrumentation.instance.setCid(cname.hashCode());
 
-      if (instrumentedBytes.containsKey(cname)) {
+      byte[] ret = instrumentedBytes.get(cname);
+      if (ret != null) {
         println(" Found in fast-cache!");
-        return instrumentedBytes.get(cname);
+        return ret;
       }
 
-      if (instDir != null) {
-        File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-        File referenceFile = new File(instDir + "/" + cname + ".original.class");
-        if (cachedFile.exists() && referenceFile.exists()) {
-          try {
-            byte[] origBytes = Files.readAllBytes(referenceFile.toPath());
-            if (Arrays.equals(cbuf, origBytes)) {
-              byte[] instBytes = Files.readAllBytes(cachedFile.toPath());
-              println(" Found in disk-cache!");
-              instrumentedBytes.put(cname, instBytes);
-              return instBytes;
-            }
-          } catch (IOException e) {
-            print(" <cache error> ");
-          }
-        }
+      ret = instrumentCached(loader, cname, cbuf);
+      if (ret != null) {
+        instrumentedBytes.put(cname, ret);
       }
+      return ret;
+    } else {
+      return cbuf;
+    }
+  }
 
-      byte[] ret = cbuf;
+  /**
+   * Returns the instrumented bytes of a class from the cache, or
+   * instruments it and adds it to the cache. Errors of the cache only
+   * cause the class to be instrumented again.
+   *
+   * @return the instrumented bytes, or null if the class cannot be instrumented
+   */
+  static byte[] instrumentCached(ClassLoader loader, String cname, byte[] cbuf) {
+    byte[] key = null;
+    if (cache != null) {
       try {
-
-        ClassReader cr = new ClassReader(cbuf);
-        ClassWriter cw = new SafeClassWriter(cr,  loader,
-                ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        ClassVisitor cv = new SnoopInstructionClassAdapter(cw, cname);
-
-        cr.accept(cv, 0);
-
-        ret = cw.toByteArray();
-      } catch (Throwable e) {
-        println("\n[WARNING] Could not instrument " + cname);
+        key = InstrumentationCache.key(cbuf);
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+          println(" Found in disk-cache!");
+          return cached;
+        }
+      } catch (IOException | RuntimeException e) {
+        print(" <cache error> ");
         if (verbose) {
           e.printStackTrace();
         }
-        return null;
       }
+    }
 
-      println("Done!");
-      instrumentedBytes.put(cname, ret);
+    byte[] ret = instrument(loader, cname, cbuf);
+    if (ret == null) {
+      return null;
+    }
+    println("Done!");
 
-      if (instDir != null) {
-        try {
-          File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-          File referenceFile = new File(instDir + "/" + cname + ".original.class");
-          File parent = new File(cachedFile.getParent());
-          parent.mkdirs();
-          try(FileOutputStream out = new FileOutputStream(cachedFile)) {
-            out.write(ret);
-          }
-          try(FileOutputStream out = new FileOutputStream(referenceFile)) {
-            out.write(cbuf);
-          }
-        } catch(Exception e) {
-          e.printStackTrace();
-        }
+    if (key != null) {
+      try {
+        cache.put(key, ret);
+      } catch (IOException | RuntimeException e) {
+        e.printStackTrace();
       }
-      return ret;
-    } else {
-      return cbuf;
+    }
+    return ret;
+  }
+
+  /**
+   * Instruments a class. Synchronized because ID assignment uses
+   * {@link GlobalStateForInstrumentation}; cache hits need no lock.
+   */
+  static synchronized byte[] instrument(ClassLoader loader, String cname, byte[] cbuf) {
+    GlobalStateForInstrumentation.instance.setCid(cname.hashCode());
+    try {
+      ClassReader cr = new ClassReader(cbuf);
+      ClassWriter cw = new SafeClassWriter(cr,  loader,
+              ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+      ClassVisitor cv = coverageOnly ? new EdgeCoverageClassAdapter(cw, cname)
+              : new SnoopInstructionClassAdapter(cw, cname);
+
+      cr.accept(cv, 0);
+
+      return cw.toByteArray();
+    } catch (Throwable e) {
+      println("\n[WARNING] Could not instrument " + cname);
+      if (verbose) {
+        e.printStackTrace();
+      }
+      return null;
     }
   }
 
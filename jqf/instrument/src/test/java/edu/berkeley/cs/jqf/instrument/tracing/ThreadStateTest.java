@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ThreadStateTest {
+
+    @After
+    public void resetCallbackGenerator() {
+        SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+    }
+
+    /**
+     * Runs an action in a new thread, registered for snooping like
+     * {@link SingleSnoop#REGISTER_THREAD} does if <tt>register</tt> is set,
+     * and returns its result.
+     */
+    private static <T> T call(String name, boolean register, Callable<T> action) throws Exception {
+        FutureTask<T> task = new FutureTask<>(action);
+        Thread thread = new Thread(task, name);
+        if (register) {
+            SingleSnoop.threadsToUnblock.synchronizedAddFirst(thread);
+        }
+        thread.start();
+        return task.get();
+    }
+
+    @Test
+    public void newThreadsAreBlocked() throws Exception {
+        Assert.assertTrue(call("worker", false, () -> ThreadState.current().blocked));
+    }
+
+    @Test
+    public void registeredThreadsAreUnblocked() throws Exception {
+        Assert.assertFalse(call("worker", true, () -> ThreadState.current().blocked));
+    }
+
+    @Test
+    public void tracingThreadsAreBlocked() throws Exception {
+        Assert.assertTrue(call("__JWIG_TRACER__worker", true, () -> ThreadState.current().blocked));
+    }
+
+    @Test
+    public void blockingIsPerThread() throws Exception {
+        boolean blocked = call("worker", false, () -> {
+            ThreadState state = ThreadState.current();
+            SingleSnoop.unblock();
+            Assert.assertSame(state, ThreadState.current());
+            Assert.assertFalse(ThreadState.current().blocked);
+            return call("other", false, () -> ThreadState.current().blocked);
+        });
+        Assert.assertTrue(blocked);
+    }
+
+    @Test
+    public void probesAreNotSnoopedWhileSnooping() throws Exception {
+        AtomicInteger spawned = new AtomicInteger();
+        AtomicReference<Boolean> blockedInProbe = new AtomicReference<>();
+        SingleSnoop.setCallbackGenerator((thread) -> {
+            // Called by the first probe of the thread, when spawning its tracer
+            spawned.incrementAndGet();
+            blockedInProbe.set(ThreadState.current().blocked);
+            SingleSnoop.LDC(0, 0, 0); // Would spawn another tracer if snooped
+            return (e) -> {};
+        });
+        boolean blockedAfterProbe = call("worker", true, () -> {
+            SingleSnoop.LDC(0, 0, 1);
+            return ThreadState.current().blocked;
+        });
+        Assert.assertEquals(1, spawned.get());
+        Assert.assertTrue(blockedInProbe.get());
+        Assert.assertFalse(blockedAfterProbe);
+    }
+
+    @Test
+    public void threadsSharingASlotHaveTheirOwnState() throws Exception {
+        CountDownLatch firstUnblocked = new CountDownLatch(1);
+        CountDownLatch secondDone = new CountDownLatch(1);
+        AtomicReference<ThreadState> firstState = new AtomicReference<>();
+
+        FutureTask<Boolean> first = new FutureTask<>(() -> {
+            SingleSnoop.unblock();
+            firstState.set(ThreadState.current());
+            firstUnblocked.countDown();
+            secondDone.await();
+            // The second thread has taken the slot since
+            return ThreadState.current() == firstState.get() && !ThreadState.current().blocked;
+        });
+        FutureTask<ThreadState> second = new FutureTask<>(() -> {
+            ThreadState state = ThreadState.current();
+            secondDone.countDown();
+            return state;
+        });
+        Thread firstThread = new Thread(first, "first");
+        Thread secondThread;
+        do {
+            secondThread = new Thread(second, "second");
+        } while (((secondThread.getId() ^ firstThread.getId()) & (ThreadState.TABLE_SIZE - 1)) != 0);
+
+        firstThread.start();
+        firstUnblocked.await();
+        secondThread.start();
+        ThreadState secondState = second.get();
+        Assert.assertTrue(first.get());
+        Assert.assertNotSame(firstState.get(), secondState);
+        Assert.assertSame(secondThread, secondState.thread);
+        Assert.assertTrue(secondState.blocked);
+    }
+}
@@ -0,0 +1,149 @@
+package janala.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InstrumentationCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] bytes(int seed, int length) {
+    byte[] b = new byte[length];
+    for (int i = 0; i < length; i++) {
+      b[i] = (byte) (seed * 31 + i);
+    }
+    return b;
+  }
+
+  @Test
+  public void putThenGet() throws IOException {
+    InstrumentationCache cache = InstrumentationCache.open(new File(folder.getRoot(), "cache"));
+    byte[] key = InstrumentationCache.key(bytes(1, 100));
+    Assert.assertNull(cache.get(key));
+    Assert.assertTrue(cache.put(key, bytes(2, 200)));
+    Assert.assertArrayEquals(bytes(2, 200), cache.get(key));
+    Assert.assertNull(cache.get(InstrumentationCache.key(bytes(3, 100))));
+    cache.close();
+  }
+
+  @Test
+  public void keysDependOnContents() {
+    Assert.assertArrayEquals(InstrumentationCache.key(bytes(1, 100)), InstrumentationCache.key(bytes(1, 100)));
+    Assert.assertFalse(Arrays.equals(InstrumentationCache.key(bytes(1, 100)), InstrumentationCache.key(bytes(1, 101))));
+  }
+
+  @Test
+  public void recordsAreSharedAcrossOpenArchives() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    InstrumentationCache a = InstrumentationCache.open(file);
+    byte[] key1 = InstrumentationCache.key(bytes(1, 100));
+    a.put(key1, bytes(2, 200));
+
+    // Re-opened archives see existing records
+    InstrumentationCache b = InstrumentationCache.open(file);
+    Assert.assertArrayEquals(bytes(2, 200), b.get(key1));
+
+    // Open archives see records added since, on a miss
+    byte[] key2 = InstrumentationCache.key(bytes(3, 100));
+    b.put(key2, bytes(4, 300));
+    Assert.assertArrayEquals(bytes(4, 300), a.get(key2));
+
+    // A record added twice is kept once
+    long size = file.length();
+    a.put(key2, bytes(4, 300));
+    Assert.assertEquals(size, file.length());
+    a.close();
+    b.close();
+  }
+
+  @Test
+  public void manyRecordsRemainReadable() throws IOException {
+    InstrumentationCache cache = InstrumentationCache.open(new File(folder.getRoot(), "cache"));
+    // Enough to grow the archive, and its mapping, several times
+    for (int i = 0; i < 200; i++) {
+      Assert.assertTrue(cache.put(InstrumentationCache.key(bytes(i, 10)), bytes(i, 20000)));
+    }
+    for (int i = 0; i < 200; i++) {
+      Assert.assertArrayEquals(bytes(i, 20000), cache.get(InstrumentationCache.key(bytes(i, 10))));
+    }
+    cache.close();
+  }
+
+  @Test
+  public void corruptRecordsAreMisses() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    InstrumentationCache cache = InstrumentationCache.open(file);
+    byte[] key = InstrumentationCache.key(bytes(1, 100));
+    cache.put(key, bytes(2, 200));
+    cache.close();
+
+    // Flip a byte of the instrumented bytes of the first record
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      long position = 16 + 24 + 50;
+      raf.seek(position);
+      int b = raf.read();
+      raf.seek(position);
+      raf.write(b ^ 0xff);
+    }
+
+    cache = InstrumentationCache.open(file);
+    Assert.assertNull(cache.get(key));
+    cache.close();
+  }
+
+  @Test
+  public void tornRecordsAreSkipped() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    InstrumentationCache cache = InstrumentationCache.open(file);
+    byte[] key1 = InstrumentationCache.key(bytes(1, 100));
+    cache.put(key1, bytes(2, 200));
+    cache.close();
+
+    // Publish a record whose bytes were not all written
+    byte[] tornKey = InstrumentationCache.key(bytes(3, 100));
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(8);
+      long end = raf.readLong();
+      raf.seek(end);
+      raf.write(tornKey, 0, 16);
+      raf.writeInt(1000);
+      raf.writeInt(0);
+      raf.write(new byte[10]);
+      raf.seek(8);
+      raf.writeLong(end + 24 + 10);
+    }
+
+    cache = InstrumentationCache.open(file);
+    Assert.assertArrayEquals(bytes(2, 200), cache.get(key1));
+    Assert.assertNull(cache.get(tornKey));
+
+    // Records added after it are readable
+    byte[] key2 = InstrumentationCache.key(bytes(4, 100));
+    cache.put(key2, bytes(5, 300));
+    cache.close();
+    cache = InstrumentationCache.open(file);
+    Assert.assertArrayEquals(bytes(5, 300), cache.get(key2));
+    cache.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void otherFilesAreRejected() throws IOException {
+    File file = folder.newFile("other");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.writeLong(42);
+      raf.writeLong(42);
+    }
+    InstrumentationCache.open(file);
+  }
+}